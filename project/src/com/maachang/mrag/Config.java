@@ -194,9 +194,39 @@ public final class Config {
             Const.LLAMA_CPP_TYPE_CHAT, embeddingList, embeddingSeqNo);
     }
 
+    // 推論サーバ接続先を示す文字列を取得.
+    // 推論結果をキャッシュする場合に、推論サーバが変わったことを確認するために利用します.
+    // 戻り値: 推論サーバの接続先URL群が返却されます.
+    public String getChatKey() {
+        StringBuilder buf = new StringBuilder();
+        final int len = chatList.size();
+        for(int i = 0; i < len; i ++) {
+            if(i != 0) {
+                buf.append(",");
+            }
+            buf.append(chatList.get(i).baseUrl);
+        }
+        return buf.toString();
+    }
+
     // llama動作確認タイミング.
     public long healthCheckTiming = Const.DEFAULT_HEALTH_CHECK_TIMING;
 
+    // 組み込みモデル名.
+    public String embeddingModel = Const.DEFAULT_EMBEDDING_MODEL;
+
+    // 埋め込みベクトルを１度に問い合わせる最大件数.
+    public int embeddingBatchSize = Const.DEFAULT_EMBEDDING_BATCH_SIZE;
+
+    // 埋め込みベクトルを１度に問い合わせる最大文字数(0 以下で制限なし).
+    public int embeddingBatchChars = Const.DEFAULT_EMBEDDING_BATCH_CHARS;
+
+    // 検索ベクトルのキャッシュ件数(0 以下でキャッシュしない).
+    public int embeddingCacheSize = Const.DEFAULT_EMBEDDING_CACHE_SIZE;
+
+    // 検索ベクトルのキャッシュ保持時間(ミリ秒, 0 以下で無期限).
+    public long embeddingCacheTimeout = Const.DEFAULT_EMBEDDING_CACHE_TIMEOUT;
+
     ///////////////////////////////////////////
     // 参照ドキュメントに対するchunk定義.
     ///////////////////////////////////////////
@@ -207,6 +237,20 @@ public final class Config {
     // 次のチャンクに設定する文字列長.
     public int overlapSize = Const.chunkSizeToOverlapSize(Const.DEFAULT_JP_CHANK_SIZE);
 
+    // 登録時に重複したチャンクの embedding を再利用するか.
+    public boolean chunkDedup = Const.DEFAULT_CHUNK_DEDUP;
+
+    // 重複チャンクとみなす SimHash のハミング距離(0 未満で完全一致のみ, 最大 3).
+    public int chunkDedupDistance = Const.DEFAULT_CHUNK_DEDUP_DISTANCE;
+
+    // 文書の再登録時に内容が同じチャンクの embedding を再利用するか.
+    public boolean chunkEmbeddingStore = Const.DEFAULT_CHUNK_EMBEDDING_STORE;
+
+    // 組み込みモデル名が保存されていない VectorGroup の embedding を
+    // 現在の組み込みモデルで作成されたものとして扱うか.
+    public boolean adoptUnstampedEmbeddingModel =
+        Const.DEFAULT_ADOPT_UNSTAMPED_EMBEDDING_MODEL;
+
     ///////////////////////////////////////////
     // サマリー関連.
     ///////////////////////////////////////////
@@ -217,6 +261,9 @@ public final class Config {
     // サマリー作成推論モード.
     public String summaryReasoningMode = Const.DEFAULT_REASONING_MODE;
 
+    // 同じ内容の文書を再登録する場合に作成済みのサマリーを再利用するか.
+    public boolean summaryCache = Const.DEFAULT_SUMMARY_CACHE;
+
     // サマリー問い合わせフォーマット.
     // ※この情報の取得は専用メソッドで取得する.
     private String summaryRequestFormat = Const.SUMMARY_REQUEST_FOEMAT;
@@ -229,6 +276,84 @@ public final class Config {
             "reasoningMode", summaryReasoningMode, "text", text);
     }
 
+    ///////////////////////////////////////////
+    // ベクトル検索関連.
+    ///////////////////////////////////////////
+
+    // VectorGroupロード時にembeddingを正規化(長さ1に変換)するか.
+    // true の場合、検索時の得点計算は内積のみで行われます.
+    public boolean normalizeEmbedding = Const.DEFAULT_NORMALIZE_EMBEDDING;
+
+    // VectorGroupファイル保存時にembeddingを正規化して保存するか.
+    // true の場合、ファイルに正規化済みフラグが保存され、ロード時の正規化が不要となります.
+    public boolean saveNormalizedEmbedding = Const.DEFAULT_SAVE_NORMALIZED_EMBEDDING;
+
+    // 並列検索を行うVectorChunk数の閾値.
+    // この件数未満のVectorGroupは単一スレッドで検索します(0以下の場合は並列検索しない).
+    public int parallelSearchThreshold = Const.DEFAULT_PARALLEL_SEARCH_THRESHOLD;
+
+    // 並列検索で１つのスレッドが担当する最小VectorChunk数.
+    public int parallelSearchSliceSize = Const.DEFAULT_PARALLEL_SEARCH_SLICE_SIZE;
+
+    // 全件検索時に符号ビットスケッチ(1次元 1bit)のハミング距離で候補を絞り込むか.
+    // true の場合、絞り込んだ候補のみコサイン類似度で再計算します.
+    public boolean sketchPrefilter = Const.DEFAULT_SKETCH_PREFILTER;
+
+    // 符号ビットスケッチで絞り込む候補数の倍率(検索数 x 倍率).
+    public int sketchPrefilterFactor = Const.DEFAULT_SKETCH_PREFILTER_FACTOR;
+
+    // VectorGroupファイル保存時に符号ビットスケッチを保存するか.
+    // 保存されていない場合はロード時に作成されます.
+    public boolean saveEmbeddingSketch = Const.DEFAULT_SAVE_EMBEDDING_SKETCH;
+
+    // embeddingエンコード(メモリ保持, VectorGroupファイル保存).
+    //  - float32: 32bit浮動小数点.
+    //  - int8: embedding毎の倍率付き8bit整数(メモリは float32 の 1/4).
+    //  - float16: 16bit浮動小数点(メモリは float32 の 1/2).
+    //  - bfloat16: 指数部が float32 と同じ16bit浮動小数点(メモリは float32 の 1/2).
+    public String embeddingEncoding = Const.DEFAULT_EMBEDDING_ENCODING;
+
+    // int8検索時の再計算倍率(0 以下の場合は再計算しない).
+    public int int8RerankFactor = Const.DEFAULT_INT8_RERANK_FACTOR;
+
+    // ベクトル検索モード.
+    //  - exact: 全件検索.
+    //  - hnsw: HNSWグラフによる近似検索(グラフ作成中は全件検索).
+    //  - ivf: IVF(転置リスト)による近似検索(インデックス作成中は全件検索).
+    //  - pq: 直積量子化されたembeddingによる近似検索(元のembeddingはメモリに保持しない).
+    public String vectorSearchMode = Const.DEFAULT_VECTOR_SEARCH_MODE;
+
+    // HNSWの1ノードの最大接続数(M).
+    public int hnswM = Const.DEFAULT_HNSW_M;
+
+    // HNSWグラフ作成時の探索候補数(efConstruction).
+    public int hnswEfConstruction = Const.DEFAULT_HNSW_EF_CONSTRUCTION;
+
+    // HNSW検索時の探索候補数(efSearch).
+    public int hnswEfSearch = Const.DEFAULT_HNSW_EF_SEARCH;
+
+    // IVFの転置リスト数(0 以下の場合は件数の平方根).
+    public int ivfLists = Const.DEFAULT_IVF_LISTS;
+
+    // IVF検索時の検索対象転置リスト数(nprobe).
+    public int ivfNprobe = Const.DEFAULT_IVF_NPROBE;
+
+    // PQの部分空間数(1件あたりのbyte数, 0 以下の場合は 次元数 / 8).
+    public int pqSubspaces = Const.DEFAULT_PQ_SUBSPACES;
+
+    // PQ検索時の再計算倍率(0 以下の場合は再計算しない).
+    public int pqRerankFactor = Const.DEFAULT_PQ_RERANK_FACTOR;
+
+    // BM25全文検索(文字bi-gram)との併用検索(ハイブリッド検索)を行うか.
+    // 転置インデックスはVectorGroupファイルと同じ場所に保存されます.
+    public boolean hybridSearch = Const.DEFAULT_HYBRID_SEARCH;
+
+    // ハイブリッド検索時の候補数の倍率(検索数 x 倍率).
+    public int hybridCandidateFactor = Const.DEFAULT_HYBRID_CANDIDATE_FACTOR;
+
+    // ハイブリッド検索時の順位統合(Reciprocal Rank Fusion)の定数.
+    public int hybridRrfK = Const.DEFAULT_HYBRID_RRF_K;
+
     ///////////////////////////////////////////
     // RAGリクエスト関連.
     ///////////////////////////////////////////
@@ -236,6 +361,22 @@ public final class Config {
     // Ragの問い合わせに対するベクトル計算結果に対する検索数.
     public int vectorSearchLength = Const.DEFAULT_VECTOR_SEARCH_LENGTH;
 
+    // Ragの問い合わせに対する検索結果の多様化(MMR)を行うか.
+    // 隣接したチャンクなど似た内容の検索結果よりも、異なる内容の検索結果を優先します.
+    public boolean mmrRerank = Const.DEFAULT_MMR_RERANK;
+
+    // MMRの得点と多様性の比率(1.0 で得点のみ, 0.0 で多様性のみ).
+    public float mmrLambda = Const.DEFAULT_MMR_LAMBDA;
+
+    // MMRで選択する候補数の倍率(検索数 x 倍率 件から選択).
+    public int mmrCandidateFactor = Const.DEFAULT_MMR_CANDIDATE_FACTOR;
+
+    // 回答のキャッシュ件数(0 以下でキャッシュしない).
+    public int answerCacheSize = Const.DEFAULT_ANSWER_CACHE_SIZE;
+
+    // 同じ質問とみなす検索ベクトルのコサイン距離(0 以下で完全一致のみ).
+    public float answerCacheDistance = Const.DEFAULT_ANSWER_CACHE_DISTANCE;
+
     // Ragの問い合わせに対するチャンク設定件数.
     public int ragRequestChunkLength = Const.DEFAULT_RAG_REQUEST_CHANK_LENGTH;
 
@@ -277,6 +418,19 @@ public final class Config {
             "chunkMessages", chunkMessages, "message", message); 
     }
 
+    // Ragの推論結果に影響する定義を示す文字列を取得.
+    // 推論サーバ接続先, Temperature, 推論モード, 問い合わせフォーマットが対象となります.
+    // 戻り値: 定義を示す文字列が返却されます.
+    public String getRagKey() {
+        return new StringBuilder(getChatKey())
+            .append('\u0000').append(ragTemperature)
+            .append('\u0000').append(ragReasoningMode)
+            .append('\u0000').append(ragRequestChunkLength)
+            .append('\u0000').append(ragRequestChunkFormat)
+            .append('\u0000').append(ragRequestFormat)
+            .toString();
+    }
+
     // コンフィグロード.
     public void loadConfig() {
         loadConfig(Const.DEFAULT_CONFIG_PATH, Const.DEFAULT_CONFIG_FILE);
@@ -303,6 +457,16 @@ public final class Config {
         getLlamaCppInfoList(chatList, json, "chatList", Const.LLAMA_CPP_TYPE_CHAT);
         // [llama.cpp管理定義]llama動作確認タイミング.
         healthCheckTiming = Conv.getLong(mapToGetValue(json, "healthCheckTiming", healthCheckTiming));
+        // [llama.cpp管理定義]組み込みモデル名.
+        embeddingModel = Conv.getString(mapToGetValue(json, "embeddingModel", embeddingModel));
+        // [llama.cpp管理定義]埋め込みベクトルを１度に問い合わせる最大件数.
+        embeddingBatchSize = Conv.getInt(mapToGetValue(json, "embeddingBatchSize", embeddingBatchSize));
+        // [llama.cpp管理定義]埋め込みベクトルを１度に問い合わせる最大文字数.
+        embeddingBatchChars = Conv.getInt(mapToGetValue(json, "embeddingBatchChars", embeddingBatchChars));
+        // [llama.cpp管理定義]検索ベクトルのキャッシュ件数.
+        embeddingCacheSize = Conv.getInt(mapToGetValue(json, "embeddingCacheSize", embeddingCacheSize));
+        // [llama.cpp管理定義]検索ベクトルのキャッシュ保持時間(ミリ秒).
+        embeddingCacheTimeout = Conv.getLong(mapToGetValue(json, "embeddingCacheTimeout", embeddingCacheTimeout));
 
         // [ファイルパス定義]vectorStore格納先パス.
         vectorStorePath = Conv.getString(mapToGetValue(json, "vectorStorePath", vectorStorePath));
@@ -313,16 +477,77 @@ public final class Config {
         chunkSize = Conv.getInt(mapToGetValue(json, "chunkSize", chunkSize));
         // [チャンク定義]次のチャンクに設定する文字列長.
         overlapSize = Conv.getInt(mapToGetValue(json, "overlapSize", overlapSize));
+        // [チャンク定義]重複したチャンクの embedding を再利用するか.
+        chunkDedup = Conv.getBoolean(mapToGetValue(json, "chunkDedup", chunkDedup));
+        // [チャンク定義]重複チャンクとみなす SimHash のハミング距離.
+        chunkDedupDistance = Conv.getInt(mapToGetValue(json, "chunkDedupDistance", chunkDedupDistance));
+        // [チャンク定義]文書の再登録時に内容が同じチャンクの embedding を再利用するか.
+        chunkEmbeddingStore = Conv.getBoolean(mapToGetValue(json, "chunkEmbeddingStore", chunkEmbeddingStore));
+        // [チャンク定義]組み込みモデル名が保存されていない VectorGroup の embedding を現在の組み込みモデルのものとして扱うか.
+        adoptUnstampedEmbeddingModel = Conv.getBoolean(mapToGetValue(json, "adoptUnstampedEmbeddingModel", adoptUnstampedEmbeddingModel));
 
         // [サマリー定義]サマリー作成Temperatureパラメータ.
         summaryTemperature = Conv.getFloat(mapToGetValue(json, "summaryTemperature", summaryTemperature));
         // [サマリー定義]サマリー作成推論モード.
         summaryReasoningMode = Conv.getString(mapToGetValue(json, "summaryReasoningMode", summaryReasoningMode));
+        // [サマリー定義]作成済みのサマリーを再利用するか.
+        summaryCache = Conv.getBoolean(mapToGetValue(json, "summaryCache", summaryCache));
         // [サマリー定義]サマリー問い合わせフォーマット.
         summaryRequestFormat = Conv.getString(mapToGetValue(json, "summaryRequestFormat", summaryRequestFormat));
 
+        // [ベクトル検索定義]ロード時にembeddingを正規化するか.
+        normalizeEmbedding = Conv.getBoolean(mapToGetValue(json, "normalizeEmbedding", normalizeEmbedding));
+        // [ベクトル検索定義]保存時にembeddingを正規化するか.
+        saveNormalizedEmbedding = Conv.getBoolean(mapToGetValue(json, "saveNormalizedEmbedding", saveNormalizedEmbedding));
+        // [ベクトル検索定義]並列検索を行うVectorChunk数の閾値.
+        parallelSearchThreshold = Conv.getInt(mapToGetValue(json, "parallelSearchThreshold", parallelSearchThreshold));
+        // [ベクトル検索定義]並列検索で１つのスレッドが担当する最小VectorChunk数.
+        parallelSearchSliceSize = Conv.getInt(mapToGetValue(json, "parallelSearchSliceSize", parallelSearchSliceSize));
+        // [ベクトル検索定義]符号ビットスケッチで候補を絞り込むか.
+        sketchPrefilter = Conv.getBoolean(mapToGetValue(json, "sketchPrefilter", sketchPrefilter));
+        // [ベクトル検索定義]符号ビットスケッチで絞り込む候補数の倍率.
+        sketchPrefilterFactor = Conv.getInt(mapToGetValue(json, "sketchPrefilterFactor", sketchPrefilterFactor));
+        // [ベクトル検索定義]保存時に符号ビットスケッチを保存するか.
+        saveEmbeddingSketch = Conv.getBoolean(mapToGetValue(json, "saveEmbeddingSketch", saveEmbeddingSketch));
+        // [ベクトル検索定義]embeddingエンコード.
+        embeddingEncoding = Conv.getString(mapToGetValue(json, "embeddingEncoding", embeddingEncoding));
+        // [ベクトル検索定義]int8検索時の再計算倍率.
+        int8RerankFactor = Conv.getInt(mapToGetValue(json, "int8RerankFactor", int8RerankFactor));
+        // [ベクトル検索定義]ベクトル検索モード.
+        vectorSearchMode = Conv.getString(mapToGetValue(json, "vectorSearchMode", vectorSearchMode));
+        // [ベクトル検索定義]HNSWの1ノードの最大接続数.
+        hnswM = Conv.getInt(mapToGetValue(json, "hnswM", hnswM));
+        // [ベクトル検索定義]HNSWグラフ作成時の探索候補数.
+        hnswEfConstruction = Conv.getInt(mapToGetValue(json, "hnswEfConstruction", hnswEfConstruction));
+        // [ベクトル検索定義]HNSW検索時の探索候補数.
+        hnswEfSearch = Conv.getInt(mapToGetValue(json, "hnswEfSearch", hnswEfSearch));
+        // [ベクトル検索定義]IVFの転置リスト数.
+        ivfLists = Conv.getInt(mapToGetValue(json, "ivfLists", ivfLists));
+        // [ベクトル検索定義]IVF検索時の検索対象転置リスト数.
+        ivfNprobe = Conv.getInt(mapToGetValue(json, "ivfNprobe", ivfNprobe));
+        // [ベクトル検索定義]PQの部分空間数.
+        pqSubspaces = Conv.getInt(mapToGetValue(json, "pqSubspaces", pqSubspaces));
+        // [ベクトル検索定義]PQ検索時の再計算倍率.
+        pqRerankFactor = Conv.getInt(mapToGetValue(json, "pqRerankFactor", pqRerankFactor));
+        // [ベクトル検索定義]BM25全文検索との併用検索を行うか.
+        hybridSearch = Conv.getBoolean(mapToGetValue(json, "hybridSearch", hybridSearch));
+        // [ベクトル検索定義]ハイブリッド検索時の候補数の倍率.
+        hybridCandidateFactor = Conv.getInt(mapToGetValue(json, "hybridCandidateFactor", hybridCandidateFactor));
+        // [ベクトル検索定義]ハイブリッド検索時の順位統合の定数.
+        hybridRrfK = Conv.getInt(mapToGetValue(json, "hybridRrfK", hybridRrfK));
+
         // [Rag定義]Ragの問い合わせに対するベクトル計算結果に対する検索数.
         vectorSearchLength = Conv.getInt(mapToGetValue(json, "vectorSearchLength", vectorSearchLength));
+        // [Rag定義]Ragの問い合わせに対する検索結果の多様化(MMR)を行うか.
+        mmrRerank = Conv.getBoolean(mapToGetValue(json, "mmrRerank", mmrRerank));
+        // [Rag定義]MMRの得点と多様性の比率.
+        mmrLambda = Conv.getFloat(mapToGetValue(json, "mmrLambda", mmrLambda));
+        // [Rag定義]MMRで選択する候補数の倍率.
+        mmrCandidateFactor = Conv.getInt(mapToGetValue(json, "mmrCandidateFactor", mmrCandidateFactor));
+        // [Rag定義]回答のキャッシュ件数.
+        answerCacheSize = Conv.getInt(mapToGetValue(json, "answerCacheSize", answerCacheSize));
+        // [Rag定義]同じ質問とみなす検索ベクトルのコサイン距離.
+        answerCacheDistance = Conv.getFloat(mapToGetValue(json, "answerCacheDistance", answerCacheDistance));
         // [Rag定義]Ragの問い合わせに対するチャンク設定件数.
         ragRequestChunkLength = Conv.getInt(mapToGetValue(json, "ragRequestChunkLength", ragRequestChunkLength));
         // [Rag定義]RagTemperatureパラメータ.
@@ -55,9 +55,46 @@ public final class Const {
     // [llama.cpp]接続確認タイミング(15秒に１度)
     public static final long DEFAULT_HEALTH_CHECK_TIMING = 15000L;
 
+    // 組み込みモデル名.
+    public static final String DEFAULT_EMBEDDING_MODEL = "embeddinggemma";
+
+    // 埋め込みベクトルを１度に問い合わせる最大件数.
+    public static final int DEFAULT_EMBEDDING_BATCH_SIZE = 32;
+
+    // 埋め込みベクトルを１度に問い合わせる最大文字数(0 以下で制限なし).
+    public static final int DEFAULT_EMBEDDING_BATCH_CHARS = 16384;
+
+    // 検索ベクトルのキャッシュ件数(0 以下でキャッシュしない).
+    public static final int DEFAULT_EMBEDDING_CACHE_SIZE = 4096;
+
+    // 検索ベクトルのキャッシュ保持時間(ミリ秒, 0 以下で無期限)(30分).
+    public static final long DEFAULT_EMBEDDING_CACHE_TIMEOUT = 1800000L;
+
     // デフォルトチャンクサイズ(日本語用)
     public static final int DEFAULT_JP_CHANK_SIZE = 300;
 
+    // 登録時に重複したチャンクの embedding を再利用するか.
+    public static final boolean DEFAULT_CHUNK_DEDUP = true;
+
+    // 重複チャンクとみなす SimHash のハミング距離(0 未満で完全一致のみ).
+    // 1文字違いで意味が変わるチャンク(無償/有償 など)を同じとみなさないため、
+    // デフォルトは完全一致のみとします.
+    public static final int DEFAULT_CHUNK_DEDUP_DISTANCE = -1;
+
+    // 文書の再登録時に内容が同じチャンクの embedding を再利用するか.
+    public static final boolean DEFAULT_CHUNK_EMBEDDING_STORE = true;
+
+    // 組み込みモデル名が保存されていない VectorGroup の embedding を
+    // 現在の組み込みモデルで作成されたものとして扱うか.
+    public static final boolean DEFAULT_ADOPT_UNSTAMPED_EMBEDDING_MODEL = false;
+
+    // 回答のキャッシュ件数(0 以下でキャッシュしない).
+    public static final int DEFAULT_ANSWER_CACHE_SIZE = 256;
+
+    // 同じ質問とみなす検索ベクトルのコサイン距離(0 以下で完全一致のみ).
+    // 似た質問でも回答が異なる場合があるため、デフォルトは完全一致のみとします.
+    public static final float DEFAULT_ANSWER_CACHE_DISTANCE = 0.0f;
+
     // チャックサイズに対するOverlapサイズの割合.
     public static final float CHUNK_SIZE_TO_OVERLAP_COEFFICIENT = 0.25f;
 
@@ -82,11 +119,112 @@ public final class Const {
     //  ・ 1.0 - 1.2: 創造性重視（物語・創作）
     public static final float DEFAULT_SUMMARY_TEMPERATURE = 0.3f;
 
+    // 同じ内容の文書を再登録する場合に作成済みのサマリーを再利用するか.
+    public static final boolean DEFAULT_SUMMARY_CACHE = true;
+
     // デフォルトのサマリーリクエストフォーマット.
     public static final String SUMMARY_REQUEST_FOEMAT =
         "<reasoning_mode>{{reasoningMode}}</reasoning_mode>\n" +
         "以下の内容のサマリーを日本語で詳しくまとめて頂きたい。\n\n ---\n{{text}}";
 
+    // デフォルトのembedding正規化(ロード時に長さ1に変換する)設定.
+    public static final boolean DEFAULT_NORMALIZE_EMBEDDING = true;
+
+    // デフォルトのembedding正規化保存(VectorGroupファイル保存時に長さ1に変換する)設定.
+    public static final boolean DEFAULT_SAVE_NORMALIZED_EMBEDDING = false;
+
+    // デフォルトの並列検索を行うVectorChunk数の閾値.
+    // この件数未満のVectorGroupは単一スレッドで検索します.
+    public static final int DEFAULT_PARALLEL_SEARCH_THRESHOLD = 50000;
+
+    // デフォルトの並列検索で１つのスレッドが担当する最小VectorChunk数.
+    public static final int DEFAULT_PARALLEL_SEARCH_SLICE_SIZE = 8192;
+
+    // デフォルトの符号ビットスケッチによる候補絞り込みを行うか.
+    public static final boolean DEFAULT_SKETCH_PREFILTER = false;
+
+    // デフォルトの符号ビットスケッチによる候補数の倍率(検索数 x 倍率).
+    public static final int DEFAULT_SKETCH_PREFILTER_FACTOR = 20;
+
+    // デフォルトのVectorGroupファイルに符号ビットスケッチを保存するか.
+    public static final boolean DEFAULT_SAVE_EMBEDDING_SKETCH = false;
+
+    // ベクトル検索モード: 全件検索.
+    public static final String VECTOR_SEARCH_MODE_EXACT = "exact";
+
+    // ベクトル検索モード: HNSWグラフによる近似検索.
+    public static final String VECTOR_SEARCH_MODE_HNSW = "hnsw";
+
+    // ベクトル検索モード: IVF(転置リスト)による近似検索.
+    public static final String VECTOR_SEARCH_MODE_IVF = "ivf";
+
+    // ベクトル検索モード: 直積量子化(PQ)されたembeddingによる近似検索.
+    public static final String VECTOR_SEARCH_MODE_PQ = "pq";
+
+    // デフォルトのベクトル検索モード.
+    public static final String DEFAULT_VECTOR_SEARCH_MODE = VECTOR_SEARCH_MODE_EXACT;
+
+    // デフォルトのHNSWの1ノードの最大接続数.
+    public static final int DEFAULT_HNSW_M = 16;
+
+    // デフォルトのHNSWグラフ作成時の探索候補数.
+    public static final int DEFAULT_HNSW_EF_CONSTRUCTION = 200;
+
+    // デフォルトのHNSW検索時の探索候補数.
+    public static final int DEFAULT_HNSW_EF_SEARCH = 64;
+
+    // デフォルトのIVFの転置リスト数(0 以下の場合は件数の平方根).
+    public static final int DEFAULT_IVF_LISTS = 0;
+
+    // デフォルトのIVF検索時の検索対象転置リスト数.
+    public static final int DEFAULT_IVF_NPROBE = 8;
+
+    // デフォルトのPQの部分空間数(0 以下の場合は 次元数 / 8).
+    public static final int DEFAULT_PQ_SUBSPACES = 0;
+
+    // デフォルトのPQ検索時の再計算倍率.
+    // 検索数 x 倍率 の候補を元のembeddingで再計算します(0 以下の場合は再計算しない).
+    public static final int DEFAULT_PQ_RERANK_FACTOR = 4;
+
+    // embeddingエンコード: float32.
+    public static final String EMBEDDING_ENCODING_FLOAT32 = "float32";
+
+    // embeddingエンコード: int8(embedding毎の倍率付き).
+    public static final String EMBEDDING_ENCODING_INT8 = "int8";
+
+    // embeddingエンコード: float16(IEEE 754 半精度).
+    public static final String EMBEDDING_ENCODING_FLOAT16 = "float16";
+
+    // embeddingエンコード: bfloat16(float32 の上位16bit).
+    public static final String EMBEDDING_ENCODING_BFLOAT16 = "bfloat16";
+
+    // デフォルトのembeddingエンコード.
+    public static final String DEFAULT_EMBEDDING_ENCODING = EMBEDDING_ENCODING_FLOAT32;
+
+    // デフォルトのint8検索時の再計算倍率.
+    // 検索数 x 倍率 の候補をfloatの検索ベクトルで再計算します(0 以下の場合は再計算しない).
+    public static final int DEFAULT_INT8_RERANK_FACTOR = 4;
+
+    // デフォルトのBM25全文検索との併用検索(ハイブリッド検索)を行うか.
+    public static final boolean DEFAULT_HYBRID_SEARCH = false;
+
+    // デフォルトのハイブリッド検索時の候補数の倍率.
+    // ベクトル検索, BM25検索それぞれ 検索数 x 倍率 の候補を順位で統合します.
+    public static final int DEFAULT_HYBRID_CANDIDATE_FACTOR = 4;
+
+    // デフォルトのハイブリッド検索時の順位統合(Reciprocal Rank Fusion)の定数.
+    // 得点は 1 / (定数 + 順位) の合計となります.
+    public static final int DEFAULT_HYBRID_RRF_K = 60;
+
+    // デフォルトのRagの問い合わせに対する検索結果の多様化(MMR)を行うか.
+    public static final boolean DEFAULT_MMR_RERANK = false;
+
+    // デフォルトのMMRで選択する候補数の倍率(検索数 x 倍率 件から選択).
+    public static final int DEFAULT_MMR_CANDIDATE_FACTOR = 4;
+
+    // デフォルトのMMRの得点と多様性の比率(1.0 で得点のみ, 0.0 で多様性のみ).
+    public static final float DEFAULT_MMR_LAMBDA = 0.7f;
+
     // デフォルトのRagの問い合わせに対するベクトル計算結果に対する検索数.
     public static final int DEFAULT_VECTOR_SEARCH_LENGTH = 30;
 
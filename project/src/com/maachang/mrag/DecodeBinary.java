@@ -81,6 +81,12 @@ public class DecodeBinary {
         }
     }
 
+    // 指定長のバイナリを取得.
+    public void getBinary(byte[] out, int off, int len) {
+        System.arraycopy(binary, position, out, off, len);
+        position += len;
+    }
+
     // 現在のポジションを取得.
     public int getPosition() {
         return position;
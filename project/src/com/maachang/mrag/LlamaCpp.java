@@ -110,9 +110,20 @@ public class LlamaCpp {
     // text: ベクトル変換対象の文字列を設定します.
     // 戻り値: ベクトル変換された float[] が返却されます.
     public static final float[] getEmbedding(String baseUrl, String text) {
+        return getEmbedding(
+            baseUrl, Config.getInstance().embeddingModel, text);
+    }
+
+    // 組み込みモデルを指定して埋め込みベクトルを取得.
+    // baseUrl: http://domain:port までのURLを設定します.
+    // model: 組み込みモデル名を設定します.
+    // text: ベクトル変換対象の文字列を設定します.
+    // 戻り値: ベクトル変換された float[] が返却されます.
+    public static final float[] getEmbedding(
+        String baseUrl, String model, String text) {
         // body-jsonをセット.
         Map<String, Object> body = new HashMap<String,Object>();
-        body.put("model", "embeddinggemma");
+        body.put("model", model);
         body.put("input", text);
 
         // v1/embeddings を利用.
@@ -136,6 +147,89 @@ public class LlamaCpp {
         return ret;
     }
 
+    // 複数の文字列の埋め込みベクトルを１度の問い合わせで取得.
+    // baseUrl: http://domain:port までのURLを設定します.
+    // model: 組み込みモデル名を設定します.
+    // texts: ベクトル変換対象の文字列群を設定します.
+    // 戻り値: texts の順でベクトル変換された float[] 群が返却されます.
+    public static final float[][] getEmbeddings(
+        String baseUrl, String model, List<String> texts) {
+        final int len = texts.size();
+        if(len == 0) {
+            return new float[0][];
+        }
+        // body-jsonをセット(inputは配列).
+        Map<String, Object> body = new HashMap<String,Object>();
+        body.put("model", model);
+        body.put("input", new ArrayList<String>(texts));
+
+        // v1/embeddings を利用.
+        Object result = fetch(baseUrl, "v1/embeddings", body);
+        // result = data[i].{index, embedding[...]};
+        List<?> data = Conv.getList(Conv.getMap(result).get("data"));
+        if(data == null || data.size() != len) {
+            throw new MRagException("Number of embeddings does not match: " +
+                (data == null ? 0 : data.size()) + " / " + len);
+        }
+        float[][] ret = new float[len][];
+        Map<?, ?> m;
+        List<?> list;
+        Object index;
+        int i, j, no, dim;
+        for(i = 0; i < len; i ++) {
+            m = Conv.getMap(data.get(i));
+            // index で入力の順番に戻す.
+            index = m.get("index");
+            no = index == null ? i : Conv.getInt(index);
+            if(no < 0 || no >= len || ret[no] != null) {
+                throw new MRagException("Invalid embedding index: " + index);
+            }
+            list = Conv.getList(m.get("embedding"));
+            dim = list.size();
+            ret[no] = new float[dim];
+            for(j = 0; j < dim; j ++) {
+                ret[no][j] = Conv.getFloat(list.get(j));
+            }
+        }
+        return ret;
+    }
+
+    // 複数の文字列の埋め込みベクトルを件数と文字数の上限で分割して取得.
+    // baseUrl: http://domain:port までのURLを設定します.
+    // model: 組み込みモデル名を設定します.
+    // texts: ベクトル変換対象の文字列群を設定します.
+    // maxCount: １度の問い合わせの最大件数を設定します(1 以下の場合は１件ずつ).
+    // maxChars: １度の問い合わせの最大文字数を設定します(0 以下の場合は制限なし).
+    //           1件で超える場合は その1件のみで問い合わせます.
+    // 戻り値: texts の順でベクトル変換された float[] 群が返却されます.
+    public static final float[][] getEmbeddings(String baseUrl, String model,
+        List<String> texts, int maxCount, int maxChars) {
+        final int len = texts.size();
+        float[][] ret = new float[len][];
+        float[][] res;
+        int i, j, chars, start = 0;
+        while(start < len) {
+            // 上限までの範囲を取得.
+            chars = texts.get(start).length();
+            for(i = start + 1; i < len && i - start < maxCount; i ++) {
+                if(maxChars > 0 && chars + texts.get(i).length() > maxChars) {
+                    break;
+                }
+                chars += texts.get(i).length();
+            }
+            if(i - start == 1) {
+                ret[start] = getEmbedding(baseUrl, model, texts.get(start));
+            } else {
+                res = getEmbeddings(baseUrl, model, texts.subList(start, i));
+                for(j = start; j < i; j ++) {
+                    ret[j] = res[j - start];
+                }
+            }
+            start = i;
+        }
+        return ret;
+    }
+
 
     // 推論 (チャット補完)
     // baseUrl: http://domain:port までのURLを設定します.
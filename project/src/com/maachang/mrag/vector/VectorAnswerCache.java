@@ -0,0 +1,264 @@
+package com.maachang.mrag.vector;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.maachang.mrag.*;
+
+/**
+ * 推論問い合わせの回答キャッシュ.
+ * 検索対象の VectorGroup 群(グループ名とファイル更新時間)と文書条件、
+ * 推論の定義(推論サーバ接続先, Temperature, 問い合わせフォーマット)が同じで、
+ * 同じ質問の場合は、推論を行わずにキャッシュした回答を返却します.
+ * 完全一致(空白や全角半角の違いを除く)で検索し、見つからない場合は
+ * Config.answerCacheDistance が 0 より大きい場合のみ、
+ * 質問の検索ベクトルとのコサイン距離が Config.answerCacheDistance 以下の
+ * キャッシュ済みの質問を検索します(getSimilar).
+ * 完全一致で見つかった場合は、質問のベクトル変換を行う必要はありません.
+ * 件数は Config.answerCacheSize 件までとし、超えた場合は
+ * 最も長く参照されていないものから削除します(LRU).
+ * VectorGroup が更新・削除された場合は remove で対象グループの回答を削除します.
+ */
+public final class VectorAnswerCache {
+    // シングルトン.
+    private static final VectorAnswerCache SNGL = new VectorAnswerCache();
+
+    /**
+     * キャッシュされた回答.
+     */
+    public static final class Answer {
+        // 推論結果のメッセージ.
+        public final String message;
+        // 推論結果のjson.
+        public final Object json;
+        // キャッシュのキー.
+        private final String key;
+        // 検索対象の範囲.
+        private final String scope;
+        // 検索対象のグループ名群.
+        private final String[] groups;
+        // 正規化された質問の検索ベクトル(null の場合は完全一致のみ).
+        private final float[] embedding;
+
+        // コンストラクタ.
+        private Answer(String key, String scope, String[] groups,
+            float[] embedding, String message, Object json) {
+            this.key = key;
+            this.scope = scope;
+            this.groups = groups;
+            this.embedding = embedding;
+            this.message = message;
+            this.json = json;
+        }
+    }
+
+    // 参照順のキャッシュ.
+    private final LinkedHashMap<String, Answer> cache =
+        new LinkedHashMap<String, Answer>(64, 0.75f, true);
+
+    // 完全一致で取得できた件数.
+    private final AtomicLong exactHits = new AtomicLong();
+
+    // 検索ベクトルの距離で取得できた件数.
+    private final AtomicLong semanticHits = new AtomicLong();
+
+    // 完全一致で取得できなかった件数.
+    private final AtomicLong misses = new AtomicLong();
+
+    // コンストラクタ.
+    private VectorAnswerCache() {}
+
+    // VectorAnswerCacheを取得.
+    // 戻り値: VectorAnswerCacheが返却されます.
+    public static final VectorAnswerCache getInstance() {
+        return SNGL;
+    }
+
+    // 検索対象の範囲を示す文字列を取得.
+    // VectorGroup が更新された場合はファイル更新時間が変わるため、別の範囲となります.
+    // また推論の定義が変わった場合も別の範囲となります.
+    // vgs: 検索対象のVectorGroup群を設定します.
+    // filter: 文書条件を設定します(null の場合は全件).
+    // 戻り値: 範囲を示す文字列が返却されます.
+    public static final String scope(List<VectorGroup> vgs, VectorFilter filter) {
+        final int len = vgs.size();
+        String[] names = new String[len];
+        for(int i = 0; i < len; i ++) {
+            names[i] = vgs.get(i).getGroup() + ":" + vgs.get(i).getFileTime();
+        }
+        Arrays.sort(names);
+        StringBuilder buf = new StringBuilder();
+        for(int i = 0; i < len; i ++) {
+            buf.append(names[i]).append(",");
+        }
+        if(filter != null && !filter.isEmpty()) {
+            buf.append(filter.getKey());
+        }
+        buf.append('\u0000').append(Config.getInstance().getRagKey());
+        return buf.toString();
+    }
+
+    // キャッシュされた回答を取得.
+    // vgs: 検索対象のVectorGroup群を設定します.
+    // filter: 文書条件を設定します(null の場合は全件).
+    // question: 質問内容を設定します.
+    // embedding: 質問の検索ベクトルを設定します(null の場合は完全一致のみ).
+    // 戻り値: 回答が返却されます(存在しない場合は null).
+    public Answer get(List<VectorGroup> vgs, VectorFilter filter,
+        String question, float[] embedding) {
+        final Config config = Config.getInstance();
+        if(config.answerCacheSize <= 0) {
+            return null;
+        }
+        final String scope = scope(vgs, filter);
+        final String key = VectorEmbeddingCache.key(scope, question);
+        Answer ret;
+        synchronized(cache) {
+            ret = cache.get(key);
+        }
+        if(ret != null) {
+            exactHits.incrementAndGet();
+            return ret;
+        }
+        misses.incrementAndGet();
+        if(embedding != null) {
+            return getSimilar(vgs, filter, embedding);
+        }
+        return null;
+    }
+
+    // 質問の検索ベクトルが近いキャッシュされた回答を取得.
+    // Config.answerCacheDistance が 0 以下の場合は検索しません.
+    // vgs: 検索対象のVectorGroup群を設定します.
+    // filter: 文書条件を設定します(null の場合は全件).
+    // embedding: 質問の検索ベクトルを設定します.
+    // 戻り値: 回答が返却されます(存在しない場合は null).
+    public Answer getSimilar(List<VectorGroup> vgs, VectorFilter filter,
+        float[] embedding) {
+        final Config config = Config.getInstance();
+        if(config.answerCacheSize <= 0 || config.answerCacheDistance <= 0.0f) {
+            return null;
+        }
+        Answer ret = searchNear(scope(vgs, filter), normalize(embedding),
+            1.0d - config.answerCacheDistance);
+        if(ret != null) {
+            semanticHits.incrementAndGet();
+        }
+        return ret;
+    }
+
+    // 同じ範囲のキャッシュ済みの質問から一番近いものを検索.
+    private final Answer searchNear(String scope, float[] embedding,
+        double minCosine) {
+        final VectorScore sc = VectorScore.getInstance();
+        Answer ret = null;
+        double s, best = minCosine;
+        synchronized(cache) {
+            // 値の参照ではLRUの順は変わらない.
+            for(Answer a : cache.values()) {
+                if(a.embedding == null || !a.scope.equals(scope) ||
+                    a.embedding.length != embedding.length) {
+                    continue;
+                }
+                if((s = sc.dot(embedding, a.embedding)) >= best) {
+                    best = s;
+                    ret = a;
+                }
+            }
+            if(ret != null) {
+                // 参照順を更新.
+                cache.get(ret.key);
+            }
+        }
+        return ret;
+    }
+
+    // 回答をキャッシュ.
+    // vgs: 検索対象のVectorGroup群を設定します.
+    // filter: 文書条件を設定します(null の場合は全件).
+    // question: 質問内容を設定します.
+    // embedding: 質問の検索ベクトルを設定します(null の場合は完全一致のみ).
+    // message: 推論結果のメッセージを設定します.
+    // json: 推論結果のjsonを設定します.
+    public void put(List<VectorGroup> vgs, VectorFilter filter,
+        String question, float[] embedding, String message, Object json) {
+        final int max = Config.getInstance().answerCacheSize;
+        if(max <= 0) {
+            return;
+        }
+        final int len = vgs.size();
+        String[] groups = new String[len];
+        for(int i = 0; i < len; i ++) {
+            groups[i] = vgs.get(i).getGroup();
+        }
+        final String scope = scope(vgs, filter);
+        final String key = VectorEmbeddingCache.key(scope, question);
+        Answer a = new Answer(key, scope, groups,
+            embedding == null ? null : normalize(embedding), message, json);
+        synchronized(cache) {
+            cache.put(key, a);
+            // 件数を超えた分を参照の古い順に削除.
+            Iterator<Answer> it = cache.values().iterator();
+            while(cache.size() > max && it.hasNext()) {
+                it.next();
+                it.remove();
+            }
+        }
+    }
+
+    // 対象グループを検索対象に含む回答を削除.
+    // group: 更新・削除されたグループ名を設定します.
+    public void remove(String group) {
+        synchronized(cache) {
+            Iterator<Answer> it = cache.values().iterator();
+            while(it.hasNext()) {
+                for(String g : it.next().groups) {
+                    if(g.equals(group)) {
+                        it.remove();
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    // キャッシュをクリア.
+    public void clear() {
+        synchronized(cache) {
+            cache.clear();
+        }
+    }
+
+    // 検索ベクトルを正規化.
+    private static final float[] normalize(float[] embedding) {
+        return VectorScore.getInstance().normalize(
+            embedding, new float[embedding.length]);
+    }
+
+    // キャッシュ件数を取得.
+    // 戻り値: キャッシュ件数が返却されます.
+    public int size() {
+        synchronized(cache) {
+            return cache.size();
+        }
+    }
+
+    // 完全一致で取得できた件数を取得.
+    // 戻り値: 件数が返却されます.
+    public long getExactHits() {
+        return exactHits.get();
+    }
+
+    // 検索ベクトルの距離で取得できた件数を取得.
+    // 戻り値: 件数が返却されます.
+    public long getSemanticHits() {
+        return semanticHits.get();
+    }
+
+    // 完全一致で取得できなかった件数を取得.
+    // 検索ベクトルの距離で取得できた件数を含みます.
+    // 戻り値: 件数が返却されます.
+    public long getMisses() {
+        return misses.get();
+    }
+}
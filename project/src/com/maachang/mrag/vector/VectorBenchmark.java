@@ -0,0 +1,437 @@
+package com.maachang.mrag.vector;
+
+import java.io.*;
+import java.util.*;
+
+import com.maachang.mrag.*;
+
+/**
+ * ベクトル検索方式毎の再現率と速度の計測.
+ * VectorGroupファイル(.vgs)、または乱数で生成したクラスタ状のembedding群に対して、
+ * 全件検索(exact)の結果を正解として各検索方式の recall@K, レイテンシ(p50/p99),
+ * 1秒あたりの検索数, 検索方式毎に追加されたメモリ量 を計測して JSON で出力します.
+ * 検索ベクトルはembedding群から作成するため、llama.cppサーバは不要です.
+ *
+ * 実行例:
+ *   java --add-modules jdk.incubator.vector com.maachang.mrag.vector.VectorBenchmark
+ *     -file ./vector/group -queries 200 -k 10 -out report.json
+ *   java --add-modules jdk.incubator.vector com.maachang.mrag.vector.VectorBenchmark
+ *     -length 100000 -dimension 768 -clusters 100
+ */
+public final class VectorBenchmark {
+    // 計測対象の検索方式: 全件検索(正解).
+    public static final String MODE_EXACT = "exact";
+
+    // 計測対象の検索方式: int8 の全件検索.
+    public static final String MODE_INT8 = Const.EMBEDDING_ENCODING_INT8;
+
+    // 計測対象の検索方式: float16 の全件検索.
+    public static final String MODE_FLOAT16 = Const.EMBEDDING_ENCODING_FLOAT16;
+
+    // 計測対象の検索方式: bfloat16 の全件検索.
+    public static final String MODE_BFLOAT16 = Const.EMBEDDING_ENCODING_BFLOAT16;
+
+    // 計測対象の検索方式: 符号ビットスケッチで絞り込み.
+    public static final String MODE_SKETCH = "sketch";
+
+    // 計測対象の検索方式: HNSW.
+    public static final String MODE_HNSW = Const.VECTOR_SEARCH_MODE_HNSW;
+
+    // 計測対象の検索方式: IVF.
+    public static final String MODE_IVF = Const.VECTOR_SEARCH_MODE_IVF;
+
+    // 計測対象の検索方式: PQ(直積量子化).
+    public static final String MODE_PQ = Const.VECTOR_SEARCH_MODE_PQ;
+
+    // デフォルトの計測対象の検索方式群.
+    private static final String DEFAULT_MODES =
+        "exact,int8,float16,bfloat16,sketch,hnsw,ivf,pq";
+
+    // 計測前の慣らし実行の最大件数.
+    private static final int WARMUP_LENGTH = 50;
+
+    // 計測対象のVectorGroup.
+    private final VectorGroup base;
+
+    // 検索ベクトル群.
+    private final float[][] queries;
+
+    // 取得件数.
+    private final int k;
+
+    // 全件検索の結果(正解).
+    private String[][] expected;
+
+    // コンストラクタ.
+    // base: 計測対象の float32 のVectorGroupを設定します.
+    // queries: 検索ベクトル群を設定します.
+    // k: 取得件数を設定します.
+    public VectorBenchmark(VectorGroup base, float[][] queries, int k) {
+        if(base.getChunkTable().getMatrix() == null ||
+            base.getChunkTable().getMatrix().getEncoding() !=
+                VectorMatrix.ENCODING_FLOAT32) {
+            throw new MRagException(
+                "The base VectorGroup must hold float32 embeddings");
+        }
+        this.base = base;
+        this.queries = queries;
+        this.k = k;
+    }
+
+    // 乱数でクラスタ状のembedding群のVectorGroupを生成.
+    // 各embeddingは 乱数の重心 + 正規分布の誤差 となります.
+    // length: 件数を設定します.
+    // dimension: 次元数を設定します.
+    // clusters: クラスタ数を設定します.
+    // seed: 乱数の種を設定します.
+    // 戻り値: VectorGroupが返却されます.
+    public static final VectorGroup createSynthetic(
+        int length, int dimension, int clusters, long seed) {
+        Random r = new Random(seed);
+        float[][] centers = createCenters(r, clusters, dimension);
+        VectorChunkTable table = new VectorChunkTable(length, dimension, false);
+        float[] emb = new float[dimension];
+        for(int i = 0; i < length; i ++) {
+            around(r, centers[r.nextInt(clusters)], emb);
+            table.set(i, "chunk" + i, 0, 1, "doc" + i, emb);
+        }
+        return new VectorGroup("synthetic", ".", "synthetic" +
+            VectorFile.VECTOR_GROUP_FILE_EXTENSION, -1L, table,
+            new VectorSummary());
+    }
+
+    // 乱数でクラスタ状のembedding群と同じ分布の検索ベクトル群を生成.
+    // length: 件数を設定します.
+    // dimension: 次元数を設定します.
+    // clusters: クラスタ数を設定します.
+    // seed: createSynthetic で指定した乱数の種を設定します.
+    // 戻り値: 検索ベクトル群が返却されます.
+    public static final float[][] createSyntheticQueries(
+        int length, int dimension, int clusters, long seed) {
+        Random r = new Random(seed);
+        float[][] centers = createCenters(r, clusters, dimension);
+        // embedding群とは別の乱数で誤差を作成.
+        r = new Random(~seed);
+        float[][] ret = new float[length][dimension];
+        for(int i = 0; i < length; i ++) {
+            around(r, centers[r.nextInt(clusters)], ret[i]);
+        }
+        return ret;
+    }
+
+    // VectorGroupのembeddingから検索ベクトル群を作成.
+    // ランダムに選んだembeddingに、要素の大きさの半分程度の誤差を加えます.
+    // vg: 対象のVectorGroupを設定します.
+    // length: 件数を設定します.
+    // seed: 乱数の種を設定します.
+    // 戻り値: 検索ベクトル群が返却されます.
+    public static final float[][] createQueries(
+        VectorGroup vg, int length, long seed) {
+        Random r = new Random(seed);
+        VectorMatrix matrix = vg.getChunkTable().getMatrix();
+        final int dim = matrix.getDimension();
+        final VectorScore sc = VectorScore.getInstance();
+        float[][] ret = new float[length][];
+        double sigma;
+        for(int i = 0; i < length; i ++) {
+            ret[i] = matrix.get(r.nextInt(matrix.size()), null);
+            sigma = 0.5d * sc.norm(ret[i]) / Math.sqrt(dim);
+            for(int j = 0; j < dim; j ++) {
+                ret[i][j] += (float)(r.nextGaussian() * sigma);
+            }
+        }
+        return ret;
+    }
+
+    // クラスタの重心群を作成.
+    private static final float[][] createCenters(
+        Random r, int clusters, int dimension) {
+        float[][] ret = new float[clusters][dimension];
+        for(int i = 0; i < clusters; i ++) {
+            for(int j = 0; j < dimension; j ++) {
+                ret[i][j] = (float)r.nextGaussian();
+            }
+        }
+        return ret;
+    }
+
+    // 重心の周辺のembeddingを作成.
+    private static final void around(Random r, float[] center, float[] out) {
+        for(int j = 0; j < out.length; j ++) {
+            out[j] = center[j] + 0.7f * (float)r.nextGaussian();
+        }
+    }
+
+    // 指定された検索方式群を計測.
+    // 最初に全件検索(exact)を計測して、その結果を正解とします.
+    // PQ は元のembedding行列を解放するため最後に計測します.
+    // そのため PQ を計測した後の base は全件検索できません.
+    // modes: 計測対象の検索方式群を設定します.
+    // 戻り値: 検索方式毎の計測結果が返却されます.
+    public List<Map<String, Object>> run(List<String> modes) {
+        Config config = Config.getInstance();
+        // 計測で変更する設定を退避.
+        final String searchMode = config.vectorSearchMode;
+        final boolean sketchPrefilter = config.sketchPrefilter;
+        final int pqRerankFactor = config.pqRerankFactor;
+        final VectorSketch sketch = base.getChunkTable().getSketch();
+        List<Map<String, Object>> ret = new ArrayList<Map<String, Object>>();
+        try {
+            config.vectorSearchMode = Const.VECTOR_SEARCH_MODE_EXACT;
+            config.sketchPrefilter = false;
+            // 全件検索のメモリ量は float32 の行列の大きさ.
+            VectorMatrix matrix = base.getChunkTable().getMatrix();
+            ret.add(measure(MODE_EXACT, base, 0L,
+                (long)matrix.size() * matrix.getDimension() * 4L));
+            for(String mode : modes) {
+                if(!MODE_EXACT.equals(mode) && !MODE_PQ.equals(mode)) {
+                    ret.add(runMode(mode, config));
+                }
+            }
+            if(modes.contains(MODE_PQ)) {
+                ret.add(runMode(MODE_PQ, config));
+            }
+        } finally {
+            config.vectorSearchMode = searchMode;
+            config.sketchPrefilter = sketchPrefilter;
+            config.pqRerankFactor = pqRerankFactor;
+            base.getChunkTable().setSketch(sketch);
+        }
+        return ret;
+    }
+
+    // 検索方式のVectorGroupを作成して計測.
+    private final Map<String, Object> runMode(String mode, Config config) {
+        VectorChunkTable table = base.getChunkTable();
+        VectorMatrix matrix = table.getMatrix();
+        final VectorSketch sketch = table.getSketch();
+        config.vectorSearchMode = Const.VECTOR_SEARCH_MODE_EXACT;
+        config.sketchPrefilter = false;
+        final long before = usedMemory();
+        final long start = System.nanoTime();
+        VectorGroup vg;
+        VectorPq pq = null;
+        if(MODE_INT8.equals(mode) || MODE_FLOAT16.equals(mode) ||
+            MODE_BFLOAT16.equals(mode)) {
+            // embeddingを変換したVectorChunkTableを作成.
+            vg = newGroup(convert(table, VectorMatrix.getEncoding(mode)));
+        } else if(MODE_SKETCH.equals(mode)) {
+            // VectorGroupファイルに保存されている場合はそのまま利用.
+            if(sketch == null) {
+                table.setSketch(VectorSketch.create(matrix));
+            }
+            config.sketchPrefilter = true;
+            vg = base;
+        } else if(MODE_HNSW.equals(mode)) {
+            vg = newGroup(table);
+            vg.setHnsw(VectorHnsw.build(
+                matrix, config.hnswM, config.hnswEfConstruction));
+            config.vectorSearchMode = Const.VECTOR_SEARCH_MODE_HNSW;
+        } else if(MODE_IVF.equals(mode)) {
+            vg = newGroup(table);
+            vg.setIvf(VectorIvf.train(matrix, config.ivfLists));
+            config.vectorSearchMode = Const.VECTOR_SEARCH_MODE_IVF;
+        } else if(MODE_PQ.equals(mode)) {
+            vg = newGroup(table);
+            pq = VectorPq.train(matrix, config.pqSubspaces);
+            // 生成したembedding群の場合は再計算する元のファイルがない.
+            if(base.getFileTime() < 0L) {
+                config.pqRerankFactor = 0;
+            }
+        } else {
+            throw new MRagException("Unknown benchmark mode: " + mode);
+        }
+        final long buildTime = System.nanoTime() - start;
+        final long memory = usedMemory() - before;
+        if(pq != null) {
+            // 元のembedding行列が解放されるため、メモリ量の計測後にセット.
+            vg.setPq(pq);
+        }
+        try {
+            return measure(mode, vg, buildTime, memory);
+        } finally {
+            table.setSketch(sketch);
+        }
+    }
+
+    // 同じファイル情報で別のVectorGroupを作成.
+    private final VectorGroup newGroup(VectorChunkTable table) {
+        return new VectorGroup(base.getGroup(), base.getFilePath(),
+            base.getFileName(), base.getFileTime(), table, base.getSummary());
+    }
+
+    // 指定エンコードに変換したVectorChunkTableを作成.
+    private static final VectorChunkTable convert(
+        VectorChunkTable src, int encoding) {
+        final int len = src.size();
+        VectorMatrix matrix = src.getMatrix();
+        VectorChunkTable ret = new VectorChunkTable(
+            len, src.getDimension(), src.isNormalized(), encoding);
+        float[] buf = new float[src.getDimension()];
+        VectorChunk n;
+        for(int i = 0; i < len; i ++) {
+            n = src.get(i);
+            ret.set(i, n.text, n.indexNo, n.allLength, n.docName,
+                matrix.get(i, buf));
+        }
+        return ret;
+    }
+
+    // GC後の利用中メモリ量を取得.
+    private static final long usedMemory() {
+        Runtime rt = Runtime.getRuntime();
+        for(int i = 0; i < 3; i ++) {
+            System.gc();
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    // 検索を実行して計測.
+    private final Map<String, Object> measure(
+        String mode, VectorGroup vg, long buildTime, long memory) {
+        final int len = queries.length;
+        VectorChunk[] out = new VectorChunk[k];
+        // 慣らし実行.
+        for(int i = 0, w = Math.min(len, WARMUP_LENGTH); i < w; i ++) {
+            vg.searchEmbedding(out, queries[i]);
+        }
+        long[] times = new long[len];
+        String[][] results = new String[len][];
+        int i, j, cnt;
+        long t;
+        final long start = System.nanoTime();
+        for(i = 0; i < len; i ++) {
+            t = System.nanoTime();
+            cnt = vg.searchEmbedding(out, queries[i]);
+            times[i] = System.nanoTime() - t;
+            results[i] = new String[cnt];
+            for(j = 0; j < cnt; j ++) {
+                results[i][j] = out[j].docName + "#" + out[j].indexNo;
+            }
+        }
+        final long total = System.nanoTime() - start;
+        if(expected == null) {
+            // 最初に計測した全件検索の結果を正解とする.
+            expected = results;
+        }
+        Arrays.sort(times);
+        Map<String, Object> ret = new LinkedHashMap<String, Object>();
+        ret.put("mode", mode);
+        ret.put("recall", recall(results));
+        ret.put("p50Ms", percentile(times, 0.50d));
+        ret.put("p99Ms", percentile(times, 0.99d));
+        ret.put("qps", total <= 0L ? 0.0d : len * 1.0E9d / total);
+        ret.put("memoryBytes", memory);
+        ret.put("buildMs", buildTime / 1.0E6d);
+        return ret;
+    }
+
+    // 全件検索の結果に対する recall@K を計算.
+    private final double recall(String[][] results) {
+        long hit = 0L, all = 0L;
+        Set<String> set = new HashSet<String>();
+        for(int i = 0; i < results.length; i ++) {
+            set.clear();
+            Collections.addAll(set, expected[i]);
+            for(String s : results[i]) {
+                if(set.contains(s)) {
+                    hit ++;
+                }
+            }
+            all += expected[i].length;
+        }
+        return all == 0L ? 1.0d : (double)hit / all;
+    }
+
+    // ソート済みの計測時間からパーセンタイル値(ミリ秒)を取得.
+    private static final double percentile(long[] sorted, double p) {
+        if(sorted.length == 0) {
+            return 0.0d;
+        }
+        int n = (int)Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, n))] / 1.0E6d;
+    }
+
+    // 実行.
+    // -file: 対象のVectorGroupファイル(パス/グループ名)を設定します.
+    //        指定しない場合は乱数で生成したembedding群を利用します.
+    // -config: 利用するコンフィグファイルを設定します.
+    // -length, -dimension, -clusters: 生成するembedding群の件数, 次元数, クラスタ数.
+    // -queries: 検索数を設定します.
+    // -k: 取得件数を設定します.
+    // -modes: 計測対象の検索方式群を "," 区切りで設定します.
+    // -seed: 乱数の種を設定します.
+    // -out: 計測結果の出力先ファイルを設定します(指定しない場合は標準出力).
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opts = new HashMap<String, String>();
+        for(int i = 0; i + 1 < args.length; i += 2) {
+            if(!args[i].startsWith("-")) {
+                throw new MRagException("Invalid argument: " + args[i]);
+            }
+            opts.put(args[i].substring(1), args[i + 1]);
+        }
+        Config config = Config.getInstance();
+        String confFile = opts.get("config");
+        if(confFile != null) {
+            File f = new File(confFile);
+            config.loadConfig(f.getParent() == null ? "." : f.getParent(),
+                f.getName());
+        }
+        final int queryLen = Integer.parseInt(opts.getOrDefault("queries", "200"));
+        final int k = Integer.parseInt(opts.getOrDefault("k", "10"));
+        final long seed = Long.parseLong(opts.getOrDefault("seed", "1"));
+        List<String> modes = new ArrayList<String>();
+        for(String m : opts.getOrDefault("modes", DEFAULT_MODES).split(",")) {
+            if(!(m = m.trim()).isEmpty()) {
+                modes.add(m);
+            }
+        }
+        Map<String, Object> dataset = new LinkedHashMap<String, Object>();
+        VectorGroup vg;
+        float[][] queries;
+        String file = opts.get("file");
+        if(file != null) {
+            // 計測用に float32 のまま読み込む.
+            final String encoding = config.embeddingEncoding;
+            final boolean sketchPrefilter = config.sketchPrefilter;
+            config.embeddingEncoding = Const.EMBEDDING_ENCODING_FLOAT32;
+            config.sketchPrefilter = false;
+            try {
+                File f = new File(file);
+                vg = VectorFile.loadVectorGroup(
+                    f.getParent() == null ? "." : f.getParent(), f.getName());
+            } finally {
+                config.embeddingEncoding = encoding;
+                config.sketchPrefilter = sketchPrefilter;
+            }
+            queries = createQueries(vg, queryLen, seed);
+            dataset.put("source", file);
+        } else {
+            final int len = Integer.parseInt(opts.getOrDefault("length", "50000"));
+            final int dim = Integer.parseInt(opts.getOrDefault("dimension", "768"));
+            final int clusters = Integer.parseInt(opts.getOrDefault("clusters", "100"));
+            vg = createSynthetic(len, dim, clusters, seed);
+            queries = createSyntheticQueries(queryLen, dim, clusters, seed);
+            dataset.put("source", "synthetic");
+            dataset.put("clusters", clusters);
+        }
+        dataset.put("length", vg.getChunkTable().size());
+        dataset.put("dimension", vg.getChunkTable().getDimension());
+        dataset.put("queries", queryLen);
+        dataset.put("k", k);
+        dataset.put("simd", VectorScore.isSimd());
+        Map<String, Object> report = new LinkedHashMap<String, Object>();
+        report.put("dataset", dataset);
+        report.put("modes", new VectorBenchmark(vg, queries, k).run(modes));
+        String json = Json.encode(report);
+        String out = opts.get("out");
+        if(out == null) {
+            System.out.println(json);
+        } else {
+            try(Writer w = new OutputStreamWriter(
+                new FileOutputStream(out), "UTF8")) {
+                w.write(json);
+            }
+        }
+    }
+}
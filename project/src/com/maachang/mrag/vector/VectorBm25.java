@@ -0,0 +1,356 @@
+package com.maachang.mrag.vector;
+
+import java.io.*;
+import java.text.Normalizer;
+import java.util.*;
+
+import com.maachang.mrag.*;
+
+/**
+ * VectorChunkのテキストに対するBM25の転置インデックス.
+ * 辞書を利用しないで、英数字は連続した文字列を１語、
+ * それ以外(日本語など)の文字は２文字単位(bi-gram)で分割します.
+ * 転置リストは VectorChunk 項番の差分と出現数を可変長整数で圧縮して保持します.
+ */
+public final class VectorBm25 {
+    // BM25ファイルシンボル.
+    private static final String BM25_FILE_SIMBOL = "@vgb";
+
+    // シンボルの文字数.
+    private static final int SIMBOLE_SIZE = 4;
+
+    // BM25パラメータ: 出現数の飽和.
+    private static final float K1 = 1.2f;
+
+    // BM25パラメータ: 文書長の正規化.
+    private static final float B = 0.75f;
+
+    // 格納件数.
+    private final int length;
+
+    // VectorChunk毎の語数.
+    private final int[] docLengths;
+
+    // 平均語数.
+    private final float avgLength;
+
+    // 語に対する転置リスト.
+    private final Map<String, Posting> postings;
+
+    // １つの語の転置リスト.
+    private static final class Posting {
+        // 出現するVectorChunk数.
+        int df;
+        // (項番の差分, 出現数) の可変長整数列.
+        byte[] data;
+        // data の有効長.
+        int size;
+        // 最後に追加した項番.
+        int last = -1;
+
+        // コンストラクタ.
+        Posting(int capacity) {
+            data = new byte[capacity];
+        }
+
+        // (項番, 出現数) を追加.
+        void add(int no, int tf) {
+            if(size + 10 > data.length) {
+                data = Arrays.copyOf(data, Math.max(16, data.length << 1));
+            }
+            size = putVarInt(data, size, no - last);
+            size = putVarInt(data, size, tf);
+            last = no;
+            df ++;
+        }
+    }
+
+    // コンストラクタ.
+    private VectorBm25(int length, int[] docLengths,
+        Map<String, Posting> postings) {
+        this.length = length;
+        this.docLengths = docLengths;
+        this.postings = postings;
+        long all = 0L;
+        for(int i = 0; i < length; i ++) {
+            all += docLengths[i];
+        }
+        this.avgLength = length == 0 ? 1.0f : Math.max(1.0f, (float)all / length);
+    }
+
+    // 可変長整数を書き込む.
+    private static final int putVarInt(byte[] out, int off, int v) {
+        while((v & ~0x7f) != 0) {
+            out[off ++] = (byte)((v & 0x7f) | 0x80);
+            v >>>= 7;
+        }
+        out[off ++] = (byte)v;
+        return off;
+    }
+
+    /**
+     * BM25の転置インデックス作成.
+     * VectorChunk項番の昇順に add を呼び出して作成します.
+     */
+    public static final class Builder {
+        // 語に対する転置リスト.
+        private final Map<String, Posting> postings =
+            new HashMap<String, Posting>();
+
+        // VectorChunk毎の語数.
+        private final int[] docLengths;
+
+        // 語毎の出現数(作業用).
+        private final Map<String, int[]> counts = new HashMap<String, int[]>();
+
+        // コンストラクタ.
+        // length: 格納件数を設定します.
+        public Builder(int length) {
+            docLengths = new int[length];
+        }
+
+        // VectorChunkのテキストを追加.
+        // no: VectorChunk項番を設定します.
+        // text: テキストを設定します.
+        public void add(int no, String text) {
+            counts.clear();
+            docLengths[no] = tokenize(text, t -> {
+                int[] c = counts.get(t);
+                if(c == null) {
+                    counts.put(t, new int[] { 1 });
+                } else {
+                    c[0] ++;
+                }
+            });
+            Posting p;
+            for(Map.Entry<String, int[]> e : counts.entrySet()) {
+                if((p = postings.get(e.getKey())) == null) {
+                    p = new Posting(8);
+                    postings.put(e.getKey(), p);
+                }
+                p.add(no, e.getValue()[0]);
+            }
+        }
+
+        // 転置インデックスを生成.
+        // 戻り値: VectorBm25が返却されます.
+        public VectorBm25 create() {
+            return new VectorBm25(docLengths.length, docLengths, postings);
+        }
+    }
+
+    // VectorChunkTableのテキストから転置インデックスを作成.
+    // table: 対象のVectorChunkTableを設定します.
+    // 戻り値: VectorBm25が返却されます.
+    public static final VectorBm25 build(VectorChunkTable table) {
+        final int len = table.size();
+        Builder b = new Builder(len);
+        for(int i = 0; i < len; i ++) {
+            b.add(i, table.getText(i));
+        }
+        return b.create();
+    }
+
+    // 英数字の文字か確認.
+    private static final boolean isWordChar(int c) {
+        return c < 0x0250 && Character.isLetterOrDigit(c);
+    }
+
+    // テキストを語に分割.
+    // 英数字は連続した文字列を１語、それ以外の文字は２文字単位で分割します.
+    // text: 対象のテキストを設定します.
+    // call: 語毎に呼び出す処理を設定します.
+    // 戻り値: 語数が返却されます.
+    public static final int tokenize(
+        String text, java.util.function.Consumer<String> call) {
+        if(text == null || text.isEmpty()) {
+            return 0;
+        }
+        String s = Normalizer.normalize(text, Normalizer.Form.NFKC)
+            .toLowerCase(Locale.ROOT);
+        int ret = 0;
+        int i = 0, c, start, prev;
+        final int len = s.length();
+        while(i < len) {
+            c = s.codePointAt(i);
+            if(isWordChar(c)) {
+                // 英数字の連続.
+                start = i;
+                do {
+                    i += Character.charCount(c);
+                } while(i < len && isWordChar(c = s.codePointAt(i)));
+                call.accept(s.substring(start, i));
+                ret ++;
+            } else if(Character.isLetterOrDigit(c)) {
+                // 英数字以外の連続は2文字単位.
+                start = i;
+                prev = -1;
+                do {
+                    if(prev != -1) {
+                        call.accept(s.substring(prev, i + Character.charCount(c)));
+                        ret ++;
+                    }
+                    prev = i;
+                    i += Character.charCount(c);
+                } while(i < len && Character.isLetterOrDigit(c = s.codePointAt(i)) &&
+                    !isWordChar(c));
+                // 1文字のみの場合.
+                if(prev == start) {
+                    call.accept(s.substring(start, i));
+                    ret ++;
+                }
+            } else {
+                i += Character.charCount(c);
+            }
+        }
+        return ret;
+    }
+
+    // 格納件数を取得.
+    // 戻り値: 格納件数が返却されます.
+    public int size() {
+        return length;
+    }
+
+    // 語の種類数を取得.
+    // 戻り値: 語の種類数が返却されます.
+    public int termSize() {
+        return postings.size();
+    }
+
+    // BM25の得点で上位K件を検索.
+    // query: 検索テキストを設定します.
+    // k: 取得件数を設定します.
+    // filter: 対象項番のビット列を設定します(null の場合は全件).
+    // 戻り値: 上位K件が返却されます(該当する語がない場合は 0 件).
+    public VectorTopK search(String query, int k, long[] filter) {
+        VectorTopK ret = new VectorTopK(k);
+        if(length == 0 || k <= 0) {
+            return ret;
+        }
+        // 検索テキストの語(重複なし).
+        final Set<String> terms = new HashSet<String>();
+        tokenize(query, t -> terms.add(t));
+        VectorScratch scratch = VectorScratch.get();
+        float[] scores = scratch.scores(length);
+        int[] hits = scratch.hits(length);
+        int i, off, no, tf, v, shift, hitLen = 0;
+        float idf, norm;
+        byte[] d;
+        Posting p;
+        for(String t : terms) {
+            if((p = postings.get(t)) == null) {
+                continue;
+            }
+            idf = (float)Math.log(1.0d + (length - p.df + 0.5d) / (p.df + 0.5d));
+            d = p.data;
+            no = -1;
+            for(off = 0; off < p.size;) {
+                // 項番の差分.
+                v = 0; shift = 0;
+                do {
+                    v |= (d[off] & 0x7f) << shift;
+                    shift += 7;
+                } while((d[off ++] & 0x80) != 0);
+                no += v;
+                // 出現数.
+                tf = 0; shift = 0;
+                do {
+                    tf |= (d[off] & 0x7f) << shift;
+                    shift += 7;
+                } while((d[off ++] & 0x80) != 0);
+                if(filter != null && (filter[no >>> 6] & (1L << (no & 63))) == 0L) {
+                    continue;
+                }
+                norm = K1 * (1.0f - B + B * docLengths[no] / avgLength);
+                if(scores[no] == 0.0f) {
+                    hits[hitLen ++] = no;
+                }
+                scores[no] += idf * tf * (K1 + 1.0f) / (tf + norm);
+            }
+        }
+        // 上位K件を取得して作業領域をクリア.
+        for(i = 0; i < hitLen; i ++) {
+            no = hits[i];
+            ret.add(no, scores[no]);
+            scores[no] = 0.0f;
+        }
+        return ret;
+    }
+
+    // BM25の転置インデックスを保存(serialize).
+    // out: 保存先のOutputStreamを設定します.
+    // fileTime: 元のVectorGroupファイルの更新時間を設定します.
+    public void save(OutputStream out, long fileTime) {
+        int i;
+        byte[] bin;
+        Posting p;
+        try {
+            // ファイルシンボルを出力.
+            out.write(EncodeBinary.getString(BM25_FILE_SIMBOL));
+            // 元のVectorGroupファイルの情報.
+            out.write(EncodeBinary.getLong(fileTime));
+            out.write(EncodeBinary.getInt(length));
+            // VectorChunk毎の語数.
+            for(i = 0; i < length; i ++) {
+                out.write(EncodeBinary.getInt3(docLengths[i]));
+            }
+            // 語毎の転置リスト.
+            out.write(EncodeBinary.getInt(postings.size()));
+            for(Map.Entry<String, Posting> e : postings.entrySet()) {
+                p = e.getValue();
+                bin = EncodeBinary.getString(e.getKey());
+                out.write(EncodeBinary.getInt2(bin.length));
+                out.write(bin);
+                out.write(EncodeBinary.getInt3(p.df));
+                out.write(EncodeBinary.getInt(p.size));
+                out.write(p.data, 0, p.size);
+            }
+            out.flush();
+        } catch(MRagException me) {
+            throw me;
+        } catch(Exception e) {
+            throw new MRagException(e);
+        }
+    }
+
+    // BM25の転置インデックスをロード.
+    // binary: save で保存したバイナリを設定します.
+    // length: 元のVectorGroupの格納件数を設定します.
+    // fileTime: 元のVectorGroupファイルの更新時間を設定します.
+    // 戻り値: VectorBm25が返却されます(元のVectorGroupと一致しない場合は null).
+    public static final VectorBm25 load(byte[] binary, int length,
+        long fileTime) {
+        DecodeBinary bd = new DecodeBinary(binary);
+        // ファイルシンボルの確認.
+        if(!BM25_FILE_SIMBOL.equals(bd.getString(SIMBOLE_SIZE))) {
+            throw new MRagException("Not a BM25 file symbol");
+        }
+        // 元のVectorGroupファイルと条件が一致するか確認.
+        if(bd.getLong() != fileTime || bd.getInt() != length) {
+            return null;
+        }
+        int i, len;
+        String term;
+        Posting p;
+        int[] docLengths = new int[length];
+        for(i = 0; i < length; i ++) {
+            docLengths[i] = bd.getUInt3();
+        }
+        int termLen = bd.getInt();
+        Map<String, Posting> postings = new HashMap<String, Posting>(
+            Math.max(16, termLen * 4 / 3 + 1));
+        for(i = 0; i < termLen; i ++) {
+            len = bd.getUInt2();
+            term = bd.getString(len);
+            int df = bd.getUInt3();
+            len = bd.getInt();
+            p = new Posting(len);
+            bd.getBinary(p.data, 0, len);
+            p.df = df;
+            p.size = len;
+            postings.put(term, p);
+        }
+        return new VectorBm25(length, docLengths, postings);
+    }
+}
@@ -18,6 +18,9 @@ public class VectorChunk implements Comparable<VectorChunk> {
     // スコアー情報.
     public double score;
 
+    // 検索結果のベクトルグループ名.
+    public String group;
+
     // コンストラクタ.
     public VectorChunk() {}
 
@@ -50,6 +53,7 @@ public class VectorChunk implements Comparable<VectorChunk> {
         out.indexNo = this.indexNo;
         out.allLength = this.allLength;
         out.score = this.score;
+        out.group = this.group;
         return out;
     }
 
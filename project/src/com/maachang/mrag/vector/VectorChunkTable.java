@@ -0,0 +1,412 @@
+package com.maachang.mrag.vector;
+
+import java.util.*;
+
+import com.maachang.mrag.*;
+
+/**
+ * VectorChunk群を配列単位(列指向)で管理するテーブル.
+ * embeddingは VectorMatrix で連続領域として管理し、
+ * テキスト・項番・文書名は項番毎の並列配列で管理します.
+ * VectorChunk オブジェクトは get(int) で必要な分だけ生成します.
+ */
+public final class VectorChunkTable {
+    // embedding行列(releaseMatrix() 後は null).
+    private VectorMatrix matrix;
+
+    // embeddingの次元数.
+    private final int dimension;
+
+    // embeddingが正規化済みか.
+    private final boolean normalized;
+
+    // VectorGroupファイルのembeddingエンコード.
+    private int fileEncoding = VectorMatrix.ENCODING_FLOAT32;
+
+    // 符号ビットスケッチ(作成されていない場合は null).
+    private VectorSketch sketch;
+
+    // embeddingを作成した組み込みモデル名(不明な場合は null).
+    private String embeddingModel;
+
+    // VectorGroupファイル内のembedding開始位置群.
+    private final long[] embeddingOffsets;
+
+    // テキスト群.
+    private final String[] texts;
+
+    // ベクトル塊項番群.
+    private final int[] indexNos;
+
+    // ベクトル塊総数群.
+    private final int[] allLengths;
+
+    // 文書ID群.
+    private final int[] docIds;
+
+    // embeddingを共有する元の項番群(共有がない場合は null).
+    // 共有していない項番は自身の項番となります.
+    private int[] primaries;
+
+    // 共有していない項番のビット列(共有がない場合は null).
+    private volatile long[] uniqueBitmap;
+
+    // 同じembeddingを共有する次の項番群(共有がない場合は null).
+    // 次の項番が存在しない場合は -1 となります.
+    private volatile int[] nextShared;
+
+    // embeddingを共有している件数.
+    private int sharedSize;
+
+    // 文書IDに対する文書名.
+    private final List<String> docNames = new ArrayList<String>();
+
+    // 文書名に対する文書ID.
+    private final Map<String, Integer> docNameToId =
+        new HashMap<String, Integer>();
+
+    // コンストラクタ.
+    // length: 格納件数を設定します.
+    // dimension: embeddingの次元数を設定します.
+    // normalized: 格納するembeddingが正規化済みの場合 true を設定します.
+    public VectorChunkTable(int length, int dimension, boolean normalized) {
+        this(length, dimension, normalized, VectorMatrix.ENCODING_FLOAT32);
+    }
+
+    // コンストラクタ.
+    // length: 格納件数を設定します.
+    // dimension: embeddingの次元数を設定します.
+    // normalized: 格納するembeddingが正規化済みの場合 true を設定します.
+    // encoding: メモリ上のembeddingエンコードを設定します.
+    public VectorChunkTable(int length, int dimension, boolean normalized,
+        int encoding) {
+        matrix = VectorMatrix.create(length, dimension, normalized, encoding);
+        this.dimension = dimension;
+        this.normalized = normalized;
+        embeddingOffsets = new long[length];
+        texts = new String[length];
+        indexNos = new int[length];
+        allLengths = new int[length];
+        docIds = new int[length];
+    }
+
+    // VectorChunk群からテーブルを作成.
+    // docs: 対象のVectorChunk群を設定します.
+    // normalized: docsのembeddingが正規化済みの場合 true を設定します.
+    // 戻り値: VectorChunkTableが返却されます.
+    public static final VectorChunkTable create(
+        VectorChunk[] docs, boolean normalized) {
+        int len = docs.length;
+        VectorChunkTable ret = new VectorChunkTable(
+            len, len == 0 ? 0 : docs[0].embedding.length, normalized);
+        VectorChunk n;
+        for(int i = 0; i < len; i ++) {
+            n = docs[i];
+            ret.set(i, n.text, n.indexNo, n.allLength, n.docName, n.embedding);
+        }
+        return ret;
+    }
+
+    // １件の情報をセット.
+    // no: 格納先の項番を設定します.
+    // text: ベクトル塊のテキスト文を設定します.
+    // indexNo: ベクトル塊項番を設定します.
+    // allLength: ベクトル塊総数を設定します.
+    // docName: 文書名を設定します.
+    // embedding: ベクトルデータを設定します.
+    public void set(int no, String text, int indexNo, int allLength,
+        String docName, float[] embedding) {
+        texts[no] = text;
+        indexNos[no] = indexNo;
+        allLengths[no] = allLength;
+        docIds[no] = getDocId(docName);
+        matrix.set(no, embedding);
+    }
+
+    // int8変換済みの１件の情報をセット.
+    // メモリ上のembeddingエンコードが int8 の場合のみ利用できます.
+    // no: 格納先の項番を設定します.
+    // text: ベクトル塊のテキスト文を設定します.
+    // indexNo: ベクトル塊項番を設定します.
+    // allLength: ベクトル塊総数を設定します.
+    // docName: 文書名を設定します.
+    // embedding: int8のベクトルデータを設定します.
+    // scale: int8のベクトルデータの倍率を設定します.
+    public void set(int no, String text, int indexNo, int allLength,
+        String docName, byte[] embedding, float scale) {
+        texts[no] = text;
+        indexNos[no] = indexNo;
+        allLengths[no] = allLength;
+        docIds[no] = getDocId(docName);
+        ((VectorInt8Matrix)matrix).set(no, embedding, 0, scale);
+    }
+
+    // 別の項番のembeddingを共有する１件の情報をセット.
+    // 重複したチャンクの場合に利用します. 共有元は この項番より前の項番となります.
+    // no: 格納先の項番を設定します.
+    // text: ベクトル塊のテキスト文を設定します.
+    // indexNo: ベクトル塊項番を設定します.
+    // allLength: ベクトル塊総数を設定します.
+    // docName: 文書名を設定します.
+    // primary: embeddingの共有元の項番を設定します.
+    public void setShared(int no, String text, int indexNo, int allLength,
+        String docName, int primary) {
+        if(primary < 0 || primary >= no) {
+            throw new MRagException("Invalid shared embedding: " + primary);
+        }
+        texts[no] = text;
+        indexNos[no] = indexNo;
+        allLengths[no] = allLength;
+        docIds[no] = getDocId(docName);
+        matrix.set(no, matrix.get(primary, null));
+        embeddingOffsets[no] = embeddingOffsets[primary];
+        if(primaries == null) {
+            primaries = new int[texts.length];
+            for(int i = 0; i < primaries.length; i ++) {
+                primaries[i] = i;
+            }
+        }
+        // 共有元が共有している場合は、その共有元を参照.
+        primaries[no] = primaries[primary];
+        sharedSize ++;
+        uniqueBitmap = null;
+        nextShared = null;
+    }
+
+    // embeddingの共有元の項番を取得.
+    // no: 対象の項番を設定します.
+    // 戻り値: 共有元の項番が返却されます(共有していない場合は no).
+    public int getPrimary(int no) {
+        return primaries == null ? no : primaries[no];
+    }
+
+    // embeddingを共有している項番が存在するか確認.
+    // 戻り値: true の場合、共有している項番が存在します.
+    public boolean hasShared() {
+        return primaries != null;
+    }
+
+    // embeddingを共有している件数を取得.
+    // 戻り値: 共有元以外の件数が返却されます.
+    public int getSharedSize() {
+        return sharedSize;
+    }
+
+    // 同じembeddingを共有する次の項番を取得.
+    // 共有元の項番から順に辿ることで、共有している項番群を取得できます.
+    // no: 対象の項番を設定します.
+    // 戻り値: 次の項番が返却されます(存在しない場合は -1).
+    public int getNextShared(int no) {
+        if(primaries == null) {
+            return -1;
+        }
+        int[] ret = nextShared;
+        if(ret == null) {
+            final int len = texts.length;
+            int[] last = new int[len];
+            ret = new int[len];
+            int p;
+            for(int i = 0; i < len; i ++) {
+                ret[i] = -1;
+                last[i] = i;
+                if((p = primaries[i]) != i) {
+                    ret[last[p]] = i;
+                    last[p] = i;
+                }
+            }
+            nextShared = ret;
+        }
+        return ret[no];
+    }
+
+    // embeddingを共有していない項番のビット列を取得.
+    // 全件検索で重複したembeddingの得点計算を行わないために利用します.
+    // 戻り値: ビット列が返却されます(共有がない場合は null).
+    public long[] getUniqueBitmap() {
+        if(primaries == null) {
+            return null;
+        }
+        long[] ret = uniqueBitmap;
+        if(ret == null) {
+            final int len = texts.length;
+            ret = new long[(len + 63) >>> 6];
+            for(int i = 0; i < len; i ++) {
+                if(primaries[i] == i) {
+                    ret[i >>> 6] |= 1L << (i & 63);
+                }
+            }
+            uniqueBitmap = ret;
+        }
+        return ret;
+    }
+
+    // 16bit浮動小数点に変換済みの１件の情報をセット.
+    // メモリ上のembeddingエンコードが float16 または bfloat16 の場合のみ利用できます.
+    // no: 格納先の項番を設定します.
+    // text: ベクトル塊のテキスト文を設定します.
+    // indexNo: ベクトル塊項番を設定します.
+    // allLength: ベクトル塊総数を設定します.
+    // docName: 文書名を設定します.
+    // embedding: 16bit浮動小数点のベクトルデータを設定します.
+    public void set(int no, String text, int indexNo, int allLength,
+        String docName, short[] embedding) {
+        texts[no] = text;
+        indexNos[no] = indexNo;
+        allLengths[no] = allLength;
+        docIds[no] = getDocId(docName);
+        ((VectorHalfMatrix)matrix).set(no, embedding, 0);
+    }
+
+    // VectorGroupファイル内のembedding開始位置をセット.
+    // no: 対象の項番を設定します.
+    // offset: ファイル先頭からのbyte位置を設定します.
+    public void setEmbeddingOffset(int no, long offset) {
+        embeddingOffsets[no] = offset;
+    }
+
+    // VectorGroupファイルのembeddingエンコードをセット.
+    // encoding: VectorGroupファイルのembeddingエンコードを設定します.
+    public void setFileEncoding(int encoding) {
+        fileEncoding = encoding;
+    }
+
+    // VectorGroupファイルのembeddingエンコードを取得.
+    // 戻り値: VectorGroupファイルのembeddingエンコードが返却されます.
+    public int getFileEncoding() {
+        return fileEncoding;
+    }
+
+    // VectorGroupファイル内のembedding開始位置を取得.
+    // no: 対象の項番を設定します.
+    // 戻り値: ファイル先頭からのbyte位置が返却されます.
+    public long getEmbeddingOffset(int no) {
+        return embeddingOffsets[no];
+    }
+
+    // 文書名に対する文書IDを取得(存在しない場合は追加).
+    private final int getDocId(String docName) {
+        Integer ret = docNameToId.get(docName);
+        if(ret == null) {
+            ret = docNames.size();
+            docNames.add(docName);
+            docNameToId.put(docName, ret);
+        }
+        return ret;
+    }
+
+    // 格納件数を取得.
+    // 戻り値: 格納件数が返却されます.
+    public int size() {
+        return texts.length;
+    }
+
+    // embedding行列を取得.
+    // 戻り値: embedding行列が返却されます(解放済みの場合は null).
+    public VectorMatrix getMatrix() {
+        return matrix;
+    }
+
+    // embedding行列を解放.
+    // 量子化したembeddingのみで検索する場合に、メモリを削減するため利用します.
+    // この処理の後に get(int) で生成される VectorChunk の embedding は null となります.
+    public void releaseMatrix() {
+        matrix = null;
+    }
+
+    // 符号ビットスケッチをセット.
+    // s: 対象の符号ビットスケッチを設定します.
+    public void setSketch(VectorSketch s) {
+        sketch = s;
+    }
+
+    // 符号ビットスケッチを取得.
+    // 戻り値: 符号ビットスケッチが返却されます(作成されていない場合は null).
+    public VectorSketch getSketch() {
+        return sketch;
+    }
+
+    // embeddingを作成した組み込みモデル名をセット.
+    // model: 組み込みモデル名を設定します.
+    public void setEmbeddingModel(String model) {
+        embeddingModel = model;
+    }
+
+    // embeddingを作成した組み込みモデル名を取得.
+    // 戻り値: 組み込みモデル名が返却されます(不明な場合は null).
+    public String getEmbeddingModel() {
+        return embeddingModel;
+    }
+
+    // embeddingの次元数を取得.
+    // 戻り値: 次元数が返却されます.
+    public int getDimension() {
+        return dimension;
+    }
+
+    // embeddingが正規化済みか確認.
+    // 戻り値: true の場合、embeddingは正規化済みです.
+    public boolean isNormalized() {
+        return normalized;
+    }
+
+    // テキストを取得.
+    // no: 対象の項番を設定します.
+    // 戻り値: テキストが返却されます.
+    public String getText(int no) {
+        return texts[no];
+    }
+
+    // 文書名を取得.
+    // no: 対象の項番を設定します.
+    // 戻り値: 文書名が返却されます.
+    public String getDocName(int no) {
+        return docNames.get(docIds[no]);
+    }
+
+    // 文書IDを取得.
+    // no: 対象の項番を設定します.
+    // 戻り値: 文書IDが返却されます.
+    public int getDocId(int no) {
+        return docIds[no];
+    }
+
+    // 文書IDに対する文書名を取得.
+    // id: 文書IDを設定します.
+    // 戻り値: 文書名が返却されます.
+    public String getDocNameById(int id) {
+        return docNames.get(id);
+    }
+
+    // 文書数を取得.
+    // 戻り値: 文書数が返却されます.
+    public int docSize() {
+        return docNames.size();
+    }
+
+    // 指定項番の VectorChunk を生成.
+    // no: 対象の項番を設定します.
+    // 戻り値: VectorChunkが返却されます.
+    public VectorChunk get(int no) {
+        VectorMatrix m = matrix;
+        return new VectorChunk(texts[no], indexNos[no], allLengths[no],
+            docNames.get(docIds[no]), m == null ? null : m.get(no, null));
+    }
+
+    // 全ての VectorChunk を生成.
+    // embeddingを共有している VectorChunk は共有元と同じ float[] となります.
+    // 戻り値: VectorChunk群が返却されます.
+    public VectorChunk[] getChunks() {
+        int len = texts.length;
+        int p;
+        VectorChunk[] ret = new VectorChunk[len];
+        for(int i = 0; i < len; i ++) {
+            if((p = getPrimary(i)) != i) {
+                ret[i] = new VectorChunk(texts[i], indexNos[i], allLengths[i],
+                    docNames.get(docIds[i]), ret[p].embedding);
+            } else {
+                ret[i] = get(i);
+            }
+        }
+        return ret;
+    }
+}
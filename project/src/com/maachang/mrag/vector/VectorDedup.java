@@ -0,0 +1,248 @@
+package com.maachang.mrag.vector;
+
+import java.security.MessageDigest;
+import java.text.Normalizer;
+import java.util.*;
+
+import com.maachang.mrag.*;
+
+/**
+ * 登録時のチャンクの重複検出.
+ * 同じテキスト(前後の空白と連続した空白の違いのみ除く)のチャンクと、
+ * ハミング距離の上限が 0 以上の場合は SimHash のハミング距離が近いチャンク
+ * (ほぼ同じテキスト)を検出し、既に作成済みの embedding を再利用します.
+ * 完全一致では記号や符号、全角半角も区別するため、
+ * "x > 0" と "x < 0" や "-5℃" と "5℃" は別のチャンクとして扱います.
+ * SimHash は記号を除去して比較するため、数文字の違いで意味が変わる
+ * チャンクも検出されます. 利用する場合は明示的に上限を指定します.
+ * 再利用された embedding は同じ float[] となり、VectorGroupファイルには
+ * 最初のチャンクの参照として保存されます.
+ *
+ * SimHash は 64bit を 16bit x 4 に分割した値で索引し、
+ * ハミング距離が 3 以下の場合は いずれかの 16bit が一致することを利用して
+ * 候補を絞り込みます.
+ */
+public final class VectorDedup {
+    // SimHash の文字 n-gram の長さ.
+    private static final int SHINGLE_SIZE = 3;
+
+    // SimHash の索引の分割数.
+    private static final int BANDS = 4;
+
+    // SimHash の索引で候補を漏らさない最大のハミング距離.
+    public static final int MAX_DISTANCE = BANDS - 1;
+
+    // ハミング距離の上限(0 未満の場合は SimHash による検出を行わない).
+    private final int distance;
+
+    // 空白を詰めたテキストのハッシュに対する embedding.
+    private final Map<String, float[]> exact = new HashMap<String, float[]>();
+
+    // SimHash 群.
+    private long[] hashes = new long[16];
+
+    // SimHash に対する embedding 群.
+    private float[][] embeddings = new float[16][];
+
+    // 登録件数.
+    private int size;
+
+    // SimHash の 16bit 毎の索引.
+    private final List<Map<Integer, List<Integer>>> bands =
+        new ArrayList<Map<Integer, List<Integer>>>(BANDS);
+
+    // 完全一致で再利用した件数.
+    private int exactHits;
+
+    // SimHash で再利用した件数.
+    private int nearHits;
+
+    // コンストラクタ.
+    // distance: SimHash のハミング距離の上限(0 から MAX_DISTANCE まで)を設定します.
+    //           0 未満の場合は完全一致のみ検出します.
+    public VectorDedup(int distance) {
+        if(distance > MAX_DISTANCE) {
+            throw new MRagException(
+                "SimHash distance must be " + MAX_DISTANCE + " or less: " + distance);
+        }
+        this.distance = distance;
+        for(int i = 0; i < BANDS; i ++) {
+            bands.add(new HashMap<Integer, List<Integer>>());
+        }
+    }
+
+    // テキストの空白を詰める.
+    // 前後の空白を除去し、連続した空白を１つにします.
+    // 記号や全角半角は変換しないため、完全一致の検出で利用します.
+    // text: 対象のテキストを設定します.
+    // 戻り値: 空白を詰めたテキストが返却されます.
+    public static final String compact(String text) {
+        final int len = text.length();
+        StringBuilder buf = new StringBuilder(len);
+        boolean space = false;
+        char c;
+        for(int i = 0; i < len; i ++) {
+            c = text.charAt(i);
+            if(Character.isWhitespace(c)) {
+                space = true;
+                continue;
+            }
+            if(space && buf.length() > 0) {
+                buf.append(' ');
+            }
+            space = false;
+            buf.append(c);
+        }
+        return buf.toString();
+    }
+
+    // テキストを SimHash 用に正規化.
+    // 全角半角を統一して小文字化し、文字と数字以外を除去します.
+    // text: 対象のテキストを設定します.
+    // 戻り値: 正規化されたテキストが返却されます.
+    public static final String normalize(String text) {
+        String s = Normalizer.normalize(text, Normalizer.Form.NFKC)
+            .toLowerCase(Locale.ROOT);
+        StringBuilder buf = new StringBuilder(s.length());
+        int c;
+        for(int i = 0; i < s.length(); i += Character.charCount(c)) {
+            c = s.codePointAt(i);
+            if(Character.isLetterOrDigit(c)) {
+                buf.appendCodePoint(c);
+            }
+        }
+        return buf.toString();
+    }
+
+    // テキストのハッシュ(SHA-256)を取得.
+    // テキストは変換せずにハッシュ化するため、重複チャンクの検出では
+    // compact で空白を詰めたテキストを設定します.
+    // text: 対象のテキストを設定します.
+    // 戻り値: ハッシュ文字列が返却されます.
+    public static final String textHash(String text) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            return Base64.getEncoder().encodeToString(
+                md.digest(text.getBytes("UTF8")));
+        } catch(Exception e) {
+            throw new MRagException(e);
+        }
+    }
+
+    // 正規化されたテキストの SimHash を取得.
+    // 文字 n-gram 毎の 64bitハッシュをビット毎に多数決します.
+    // normalized: normalize で正規化されたテキストを設定します.
+    // 戻り値: SimHash が返却されます.
+    public static final long simHash(String normalized) {
+        final int len = normalized.length();
+        final int n = Math.min(SHINGLE_SIZE, len);
+        int[] votes = new int[64];
+        int i, j;
+        long h;
+        for(i = 0; i + n <= len && n > 0; i ++) {
+            // FNV-1a(64bit).
+            h = 0xcbf29ce484222325L;
+            for(j = i; j < i + n; j ++) {
+                h ^= normalized.charAt(j);
+                h *= 0x100000001b3L;
+            }
+            // 下位bitの偏りを無くすため攪拌.
+            h ^= h >>> 33;
+            h *= 0xff51afd7ed558ccdL;
+            h ^= h >>> 33;
+            for(j = 0; j < 64; j ++) {
+                votes[j] += ((h >>> j) & 1L) != 0L ? 1 : -1;
+            }
+        }
+        long ret = 0L;
+        for(j = 0; j < 64; j ++) {
+            if(votes[j] > 0) {
+                ret |= 1L << j;
+            }
+        }
+        return ret;
+    }
+
+    // 再利用できる embedding を検索.
+    // text: 対象のチャンクのテキストを設定します.
+    // 戻り値: 再利用できる embedding が返却されます(存在しない場合は null).
+    public float[] find(String text) {
+        float[] ret = exact.get(textHash(compact(text)));
+        if(ret != null) {
+            exactHits ++;
+            return ret;
+        }
+        if(distance < 0) {
+            return null;
+        }
+        String n = normalize(text);
+        if(n.length() < SHINGLE_SIZE) {
+            return null;
+        }
+        final long h = simHash(n);
+        List<Integer> list;
+        for(int b = 0; b < BANDS; b ++) {
+            if((list = bands.get(b).get(band(h, b))) == null) {
+                continue;
+            }
+            for(int no : list) {
+                if(Long.bitCount(h ^ hashes[no]) <= distance) {
+                    nearHits ++;
+                    return embeddings[no];
+                }
+            }
+        }
+        return null;
+    }
+
+    // チャンクの embedding を登録.
+    // text: 対象のチャンクのテキストを設定します.
+    // embedding: チャンクの embedding を設定します.
+    public void add(String text, float[] embedding) {
+        String key = textHash(compact(text));
+        if(exact.containsKey(key)) {
+            return;
+        }
+        exact.put(key, embedding);
+        if(distance < 0) {
+            return;
+        }
+        String n = normalize(text);
+        if(n.length() < SHINGLE_SIZE) {
+            return;
+        }
+        final long h = simHash(n);
+        if(size == hashes.length) {
+            hashes = Arrays.copyOf(hashes, size << 1);
+            embeddings = Arrays.copyOf(embeddings, size << 1);
+        }
+        hashes[size] = h;
+        embeddings[size] = embedding;
+        List<Integer> list;
+        for(int b = 0; b < BANDS; b ++) {
+            if((list = bands.get(b).get(band(h, b))) == null) {
+                list = new ArrayList<Integer>(1);
+                bands.get(b).put(band(h, b), list);
+            }
+            list.add(size);
+        }
+        size ++;
+    }
+
+    // SimHash の分割位置の 16bit を取得.
+    private static final int band(long h, int b) {
+        return (int)((h >>> (b << 4)) & 0x0ffffL);
+    }
+
+    // 完全一致で再利用した件数を取得.
+    // 戻り値: 件数が返却されます.
+    public int getExactHits() {
+        return exactHits;
+    }
+
+    // SimHash で再利用した件数を取得.
+    // 戻り値: 件数が返却されます.
+    public int getNearHits() {
+        return nearHits;
+    }
+}
@@ -0,0 +1,192 @@
+package com.maachang.mrag.vector;
+
+import java.text.Normalizer;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.maachang.mrag.*;
+
+/**
+ * 検索ベクトルのキャッシュ.
+ * 同じ質問(空白や全角半角の違いを除く)の検索ベクトルを
+ * 組み込みモデル名毎に保持して、llama.cpp への問い合わせを省略します.
+ * 件数は Config.embeddingCacheSize 件までとし、超えた場合は
+ * 最も長く参照されていないものから削除します(LRU).
+ * また Config.embeddingCacheTimeout を経過したものは利用しません.
+ * 返却される float[] はキャッシュと共有されるため、内容を変更しないでください.
+ */
+public final class VectorEmbeddingCache {
+    // シングルトン.
+    private static final VectorEmbeddingCache SNGL = new VectorEmbeddingCache();
+
+    // キャッシュ要素.
+    private static final class Entry {
+        // 検索ベクトル.
+        final float[] embedding;
+        // 登録時間.
+        final long time;
+
+        Entry(float[] embedding, long time) {
+            this.embedding = embedding;
+            this.time = time;
+        }
+    }
+
+    // 参照順のキャッシュ.
+    private final LinkedHashMap<String, Entry> cache =
+        new LinkedHashMap<String, Entry>(64, 0.75f, true);
+
+    // キャッシュから取得できた件数.
+    private final AtomicLong hits = new AtomicLong();
+
+    // キャッシュから取得できなかった件数.
+    private final AtomicLong misses = new AtomicLong();
+
+    // 件数超過または時間切れで削除した件数.
+    private final AtomicLong evictions = new AtomicLong();
+
+    // コンストラクタ.
+    private VectorEmbeddingCache() {}
+
+    // VectorEmbeddingCacheを取得.
+    // 戻り値: VectorEmbeddingCacheが返却されます.
+    public static final VectorEmbeddingCache getInstance() {
+        return SNGL;
+    }
+
+    // キャッシュのキーを取得.
+    // 全角半角を統一して、前後の空白を除去し、連続した空白を１つにします.
+    // model: 組み込みモデル名を設定します.
+    // text: ベクトル変換対象の文字列を設定します.
+    // 戻り値: キーが返却されます.
+    public static final String key(String model, String text) {
+        String s = Normalizer.normalize(text, Normalizer.Form.NFKC);
+        StringBuilder buf = new StringBuilder(model.length() + s.length() + 1)
+            .append(model).append('\u0000');
+        boolean space = false;
+        final int off = buf.length();
+        char c;
+        for(int i = 0; i < s.length(); i ++) {
+            c = s.charAt(i);
+            if(Character.isWhitespace(c)) {
+                space = true;
+                continue;
+            }
+            if(space && buf.length() > off) {
+                buf.append(' ');
+            }
+            space = false;
+            buf.append(c);
+        }
+        return buf.toString();
+    }
+
+    // キャッシュされた検索ベクトルを取得.
+    // model: 組み込みモデル名を設定します.
+    // text: ベクトル変換対象の文字列を設定します.
+    // 戻り値: 検索ベクトルが返却されます(存在しない場合は null).
+    public float[] get(String model, String text) {
+        final Config config = Config.getInstance();
+        if(config.embeddingCacheSize <= 0) {
+            misses.incrementAndGet();
+            return null;
+        }
+        final String k = key(model, text);
+        Entry e;
+        synchronized(cache) {
+            if((e = cache.get(k)) != null && isExpired(e, config)) {
+                cache.remove(k);
+                evictions.incrementAndGet();
+                e = null;
+            }
+        }
+        if(e == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return e.embedding;
+    }
+
+    // 検索ベクトルをキャッシュ.
+    // model: 組み込みモデル名を設定します.
+    // text: ベクトル変換対象の文字列を設定します.
+    // embedding: 検索ベクトルを設定します.
+    public void put(String model, String text, float[] embedding) {
+        final int max = Config.getInstance().embeddingCacheSize;
+        if(max <= 0 || embedding == null) {
+            return;
+        }
+        final String k = key(model, text);
+        final Entry e = new Entry(embedding, System.currentTimeMillis());
+        synchronized(cache) {
+            cache.put(k, e);
+            // 件数を超えた分を参照の古い順に削除.
+            Iterator<Entry> it = cache.values().iterator();
+            while(cache.size() > max && it.hasNext()) {
+                it.next();
+                it.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    // 時間切れか確認.
+    private static final boolean isExpired(Entry e, Config config) {
+        return config.embeddingCacheTimeout > 0L &&
+            System.currentTimeMillis() - e.time > config.embeddingCacheTimeout;
+    }
+
+    // キャッシュをクリア.
+    public void clear() {
+        synchronized(cache) {
+            cache.clear();
+        }
+    }
+
+    // キャッシュ件数を取得.
+    // 戻り値: キャッシュ件数が返却されます.
+    public int size() {
+        synchronized(cache) {
+            return cache.size();
+        }
+    }
+
+    // キャッシュから取得できた件数を取得.
+    // 戻り値: 件数が返却されます.
+    public long getHits() {
+        return hits.get();
+    }
+
+    // キャッシュから取得できなかった件数を取得.
+    // 戻り値: 件数が返却されます.
+    public long getMisses() {
+        return misses.get();
+    }
+
+    // 件数超過または時間切れで削除した件数を取得.
+    // 戻り値: 件数が返却されます.
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    // キャッシュのヒット率を取得.
+    // 戻り値: ヒット率(0.0 から 1.0)が返却されます.
+    public double getHitRate() {
+        final long h = hits.get();
+        final long all = h + misses.get();
+        return all == 0L ? 0.0d : (double)h / all;
+    }
+
+    // 統計情報を文字列で取得.
+    // 戻り値: 統計情報が返却されます.
+    @Override
+    public String toString() {
+        return new StringBuilder("embeddingCache{size=").append(size())
+            .append(", hits=").append(getHits())
+            .append(", misses=").append(getMisses())
+            .append(", evictions=").append(getEvictions())
+            .append(", hitRate=").append(String.format("%.3f", getHitRate()))
+            .append("}").toString();
+    }
+}
@@ -0,0 +1,67 @@
+package com.maachang.mrag.vector;
+
+import java.util.*;
+
+/**
+ * 登録済みチャンクの embedding をテキストで参照するストア.
+ * 文書を再登録する場合に、内容が変わっていないチャンクは
+ * 以前の embedding を再利用して、変更されたチャンクのみベクトル変換します.
+ * VectorGroupファイルからロードした VectorChunk 群のテキストで索引するため、
+ * ファイルには VectorGroupファイルのヘッダに保存した組み込みモデル名のみ利用します.
+ * 組み込みモデル名が異なる、または不明な場合は再利用しません.
+ */
+public final class VectorEmbeddingStore {
+    // テキストに対する embedding.
+    private final Map<String, float[]> index;
+
+    // 再利用した件数.
+    private int hits;
+
+    // コンストラクタ.
+    private VectorEmbeddingStore(Map<String, float[]> index) {
+        this.index = index;
+    }
+
+    // VectorChunk群からストアを作成.
+    // chunks: VectorGroupファイルからロードした VectorChunk 群を設定します.
+    // chunksModel: VectorGroupファイルに保存された組み込みモデル名を設定します.
+    // model: 現在の組み込みモデル名を設定します.
+    // 戻り値: VectorEmbeddingStoreが返却されます
+    //         (組み込みモデル名が一致しない、または不明な場合は null).
+    public static final VectorEmbeddingStore create(VectorChunk[] chunks,
+        String chunksModel, String model) {
+        if(chunksModel == null || !chunksModel.equals(model)) {
+            return null;
+        }
+        final int len = chunks.length;
+        Map<String, float[]> index = new HashMap<String, float[]>(
+            Math.max(16, len * 4 / 3 + 1));
+        for(int i = 0; i < len; i ++) {
+            index.putIfAbsent(chunks[i].text, chunks[i].embedding);
+        }
+        return new VectorEmbeddingStore(index);
+    }
+
+    // テキストが同じチャンクの embedding を取得.
+    // text: チャンクのテキストを設定します.
+    // 戻り値: embedding が返却されます(存在しない場合は null).
+    public float[] get(String text) {
+        float[] ret = index.get(text);
+        if(ret != null) {
+            hits ++;
+        }
+        return ret;
+    }
+
+    // 格納数を取得.
+    // 戻り値: 格納数が返却されます.
+    public int size() {
+        return index.size();
+    }
+
+    // 再利用した件数を取得.
+    // 戻り値: 件数が返却されます.
+    public int getHits() {
+        return hits;
+    }
+}
@@ -2,6 +2,8 @@ package com.maachang.mrag.vector;
 
 import java.io.*;
 import java.util.*;
+import java.nio.*;
+import java.nio.channels.*;
 import java.nio.file.*;
 import java.util.stream.*;
 import java.util.concurrent.*;
@@ -20,6 +22,29 @@ public final class VectorFile {
     // VectorGroupファイルシンボル.
     private static final String VECTOR_GROUP_FILE_SIMBOL = "@vgs";
 
+    // VectorGroupファイルシンボル(ヘッダ付き).
+    // シンボルの後に フラグ(1byte), embeddingエンコード(1byte) が続きます.
+    // embeddingエンコードは VectorMatrix.ENCODING_* の値で、
+    // int8 の場合は embedding毎に 倍率(float) + 次元数分の byte で保存します.
+    // float16, bfloat16 の場合は embedding毎に 次元数分の 16bit(Int2) で保存します.
+    private static final String VECTOR_GROUP_FILE_SIMBOL_V2 = "@vg2";
+
+    // VectorGroupファイルフラグ: embeddingが正規化済み.
+    private static final int VECTOR_GROUP_FLAG_NORMALIZED = 0x01;
+
+    // VectorGroupファイルフラグ: VectorChunk群の後に符号ビットスケッチを保存.
+    // 1件あたりの long 数(Int2) + 件数 x long 数 の long で保存します.
+    private static final int VECTOR_GROUP_FLAG_SKETCH = 0x02;
+
+    // VectorGroupファイルフラグ: embeddingを共有するVectorChunkが存在.
+    // 共有するVectorChunkは embeddingの長さを 0 として、
+    // 続けて共有元のVectorChunk項番(Int3)を保存します.
+    private static final int VECTOR_GROUP_FLAG_SHARED = 0x04;
+
+    // VectorGroupファイルフラグ: embeddingを作成した組み込みモデル名を保存.
+    // embeddingエンコードの後に 組み込みモデル名の長さ(Int2) + 組み込みモデル名 を保存します.
+    private static final int VECTOR_GROUP_FLAG_MODEL = 0x08;
+
     // VectorGroupファイル拡張子.
     public static final String VECTOR_GROUP_FILE_EXTENSION = ".vgs";
 
@@ -29,6 +54,21 @@ public final class VectorFile {
     // VectorSummaryファイル拡張子.
     public static final String VECTOR_SUMMARY_FILE_EXTENSION = ".vss";
 
+    // HNSWグラフファイル拡張子.
+    public static final String VECTOR_HNSW_FILE_EXTENSION = ".vgh";
+
+    // IVFインデックスファイル拡張子.
+    public static final String VECTOR_IVF_FILE_EXTENSION = ".vgi";
+
+    // PQファイル拡張子.
+    public static final String VECTOR_PQ_FILE_EXTENSION = ".vgq";
+
+    // BM25転置インデックスファイル拡張子.
+    public static final String VECTOR_BM25_FILE_EXTENSION = ".vgb";
+
+    // サマリーキャッシュファイル拡張子.
+    public static final String VECTOR_SUMMARY_CACHE_FILE_EXTENSION = ".vsh";
+
     // シンボルの文字数.
     private static final int SIMBOLE_SIZE = 4;
 
@@ -78,6 +118,14 @@ public final class VectorFile {
     // groupName: グループ名を設定します.
     // 戻り値: VectorChunk[] が返却されます.
     public static final VectorChunk[] loadGroup(String path, String groupName) {
+        return loadGroup(loadGroupBinary(path, groupName));
+    }
+
+    // VectorGroupファイルのバイナリを取得.
+    // path: 対象ディレクトリパスを設定します.
+    // groupName: グループ名を設定します.
+    // 戻り値: ファイル内容のバイナリが返却されます.
+    private static final byte[] loadGroupBinary(String path, String groupName) {
         // ファイルパスを取得.
         String fileName = getPathGroupToFilePath(
             path, groupName, VECTOR_GROUP_FILE_EXTENSION);
@@ -106,26 +154,94 @@ public final class VectorFile {
                 try { in.close(); } catch(Exception e) {}
             }
         }
-        return loadGroup(b);
+        return b;
     }
 
     // VectorChunk群をバイナリロード処理.
     // binary: バイナリを指定してロード処理を行います.
     // 戻り値: VectorChunk[] が返却されます.
     public static final VectorChunk[] loadGroup(byte[] binary) {
+        return loadGroup(binary, Config.getInstance().normalizeEmbedding);
+    }
+
+    // VectorChunk群をバイナリロード処理.
+    // binary: バイナリを指定してロード処理を行います.
+    // normalize: true の場合、正規化されていないembeddingを正規化します.
+    // 戻り値: VectorChunk[] が返却されます.
+    public static final VectorChunk[] loadGroup(byte[] binary, boolean normalize) {
+        return loadChunkTable(
+            binary, normalize, VectorMatrix.ENCODING_FLOAT32).getChunks();
+    }
+
+    // VectorChunkTableをバイナリロード処理.
+    // VectorChunkオブジェクトを生成せずに配列単位で格納します.
+    // binary: バイナリを指定してロード処理を行います.
+    // normalize: true の場合、正規化されていないembeddingを正規化します.
+    // 戻り値: VectorChunkTable が返却されます.
+    public static final VectorChunkTable loadChunkTable(
+        byte[] binary, boolean normalize) {
+        return loadChunkTable(binary, normalize, VectorMatrix.getEncoding(
+            Config.getInstance().embeddingEncoding));
+    }
+
+    // VectorChunkTableをバイナリロード処理.
+    // VectorChunkオブジェクトを生成せずに配列単位で格納します.
+    // binary: バイナリを指定してロード処理を行います.
+    // normalize: true の場合、正規化されていないembeddingを正規化します.
+    // encoding: メモリ上のembeddingエンコードを設定します.
+    // 戻り値: VectorChunkTable が返却されます.
+    public static final VectorChunkTable loadChunkTable(
+        byte[] binary, boolean normalize, int encoding) {
+        int flags = 0;
+        int fileEncoding = VectorMatrix.ENCODING_FLOAT32;
+        String model = null;
         DecodeBinary bd = new DecodeBinary(binary);
         // ファイルシンボルの確認.
         String simbol = bd.getString(SIMBOLE_SIZE);
-        if(!VECTOR_GROUP_FILE_SIMBOL.equals(simbol)) {
+        if(VECTOR_GROUP_FILE_SIMBOL_V2.equals(simbol)) {
+            // フラグを取得.
+            flags = bd.getUInt1();
+            // embeddingエンコードを取得.
+            fileEncoding = bd.getUInt1();
+            if(fileEncoding != VectorMatrix.ENCODING_FLOAT32 &&
+                fileEncoding != VectorMatrix.ENCODING_INT8 &&
+                !VectorMatrix.isHalf(fileEncoding)) {
+                throw new MRagException(
+                    "Unsupported VectorGroup embedding encoding");
+            }
+            // 組み込みモデル名を取得.
+            if((flags & VECTOR_GROUP_FLAG_MODEL) != 0) {
+                model = bd.getString(bd.getUInt2());
+            }
+        } else if(!VECTOR_GROUP_FILE_SIMBOL.equals(simbol)) {
             throw new MRagException("Not a VectorGroup file symbol");
         }
+        // ファイルが正規化済みの場合は正規化しない.
+        boolean normalized = normalize;
+        if((flags & VECTOR_GROUP_FLAG_NORMALIZED) != 0) {
+            normalize = false;
+            normalized = true;
+        }
+        VectorScore score = VectorScore.getInstance();
         // 最初にVectorChunk数を取得.
         int allLen = bd.getUInt3();
-        VectorChunk[] ret = new VectorChunk[allLen];
+        VectorChunkTable ret = null;
         // binary化されてるVectorChunk群をdeSerialize.
-        int i, j, indexNo, len, lenJ;
+        int i, j, indexNo, len, lenJ, offset, primary;
+        float scale;
         String docName, text;
-        float[] embList;
+        float[] embList = null;
+        byte[] int8List = null;
+        short[] halfList = null;
+        // int8のままメモリに格納できるか.
+        boolean rawInt8 = !normalize &&
+            fileEncoding == VectorMatrix.ENCODING_INT8 &&
+            encoding == VectorMatrix.ENCODING_INT8;
+        // 16bit浮動小数点の場合.
+        boolean half = VectorMatrix.isHalf(fileEncoding);
+        boolean bfloat16 = fileEncoding == VectorMatrix.ENCODING_BFLOAT16;
+        // 16bit浮動小数点のままメモリに格納できるか.
+        boolean rawHalf = !normalize && half && fileEncoding == encoding;
         for(i = 0; i < allLen; i ++) {
             // インデックスNoを取得.
             indexNo = bd.getUInt3();
@@ -137,14 +253,87 @@ public final class VectorFile {
             text = bd.getString(len);
             // embeddingの長さを取得.
             lenJ = bd.getUInt3();
-            embList = new float[lenJ];
-            for(j = 0; j < lenJ; j ++) {
-                // 1つのembeddingを取得.
-                embList[j] = bd.getFloat();
+            // embeddingを共有している場合.
+            if(lenJ == 0 && (flags & VECTOR_GROUP_FLAG_SHARED) != 0) {
+                primary = bd.getUInt3();
+                if(ret == null) {
+                    throw new MRagException("Invalid shared embedding: " + primary);
+                }
+                ret.setShared(i, text, indexNo, allLen, docName, primary);
+                continue;
+            }
+            // embeddingの開始位置.
+            offset = bd.getPosition();
+            // 最初のembeddingの長さで格納先を生成.
+            if(ret == null) {
+                ret = new VectorChunkTable(allLen, lenJ, normalized, encoding);
+                ret.setFileEncoding(fileEncoding);
+                embList = new float[lenJ];
+                int8List = new byte[lenJ];
+                halfList = new short[lenJ];
+            } else if(embList.length != lenJ) {
+                throw new MRagException(
+                    "Embedding dimension mismatch: " + lenJ +
+                    " (expected: " + embList.length + ")");
+            }
+            if(fileEncoding == VectorMatrix.ENCODING_INT8) {
+                // int8のembeddingを取得.
+                scale = bd.getFloat();
+                bd.getBinary(int8List, 0, lenJ);
+                // 再変換せずにそのまま格納.
+                if(rawInt8) {
+                    ret.set(i, text, indexNo, allLen, docName,
+                        int8List, scale);
+                    ret.setEmbeddingOffset(i, offset);
+                    continue;
+                }
+                for(j = 0; j < lenJ; j ++) {
+                    embList[j] = int8List[j] * scale;
+                }
+            } else if(half) {
+                // 16bit浮動小数点のembeddingを取得.
+                for(j = 0; j < lenJ; j ++) {
+                    halfList[j] = (short)bd.getInt2();
+                }
+                // 再変換せずにそのまま格納.
+                if(rawHalf) {
+                    ret.set(i, text, indexNo, allLen, docName, halfList);
+                    ret.setEmbeddingOffset(i, offset);
+                    continue;
+                }
+                for(j = 0; j < lenJ; j ++) {
+                    embList[j] = VectorHalfMatrix.toFloat(halfList[j], bfloat16);
+                }
+            } else {
+                for(j = 0; j < lenJ; j ++) {
+                    // 1つのembeddingを取得.
+                    embList[j] = bd.getFloat();
+                }
             }
-            ret[i] = new VectorChunk(
-                text, indexNo, allLen, docName, embList);
+            // 正規化する場合.
+            if(normalize) {
+                score.normalize(embList, embList);
+            }
+            ret.set(i, text, indexNo, allLen, docName, embList);
+            ret.setEmbeddingOffset(i, offset);
         }
+        // VectorChunkが存在しない場合.
+        if(ret == null) {
+            ret = new VectorChunkTable(0, 0, normalized, encoding);
+        } else if((flags & VECTOR_GROUP_FLAG_SKETCH) != 0) {
+            // 保存された符号ビットスケッチを取得.
+            VectorSketch sketch = new VectorSketch(allLen, embList.length);
+            len = bd.getUInt2();
+            if(len == sketch.getWords()) {
+                for(i = 0; i < allLen; i ++) {
+                    for(j = 0; j < len; j ++) {
+                        sketch.setWord(i, j, bd.getLong());
+                    }
+                }
+                ret.setSketch(sketch);
+            }
+        }
+        ret.setEmbeddingModel(model);
         return ret;
     }
 
@@ -154,6 +343,16 @@ public final class VectorFile {
     // chunks: 保存対象の VectorChunk 群を設定します.
     public static final void saveGroup(
         String path, String groupName, VectorChunk[] chunks) {
+        saveGroup(path, groupName, chunks, null);
+    }
+
+    // VectorChunk群をファイルに保存(serialize)
+    // path: 対象ディレクトリパスを設定します.
+    // groupName: グループ名を設定します.
+    // chunks: 保存対象の VectorChunk 群を設定します.
+    // model: embeddingを作成した組み込みモデル名を設定します(不明な場合は null).
+    public static final void saveGroup(
+        String path, String groupName, VectorChunk[] chunks, String model) {
         // ファイルパスを取得.
         String fileName = getPathGroupToFilePath(
             path, groupName, VECTOR_GROUP_FILE_EXTENSION);
@@ -162,7 +361,7 @@ public final class VectorFile {
         try {
             fo = new FileOutputStream(fileName);
             bo = new BufferedOutputStream(fo);
-            saveGroup(bo, chunks);
+            saveGroup(bo, chunks, model);
             fo.close();
             fo = null;
             bo.close();
@@ -185,14 +384,90 @@ public final class VectorFile {
     // 保存先のOutputStreamを設定します.
     // chunks: 保存対象の VectorChunk 群を設定します.
     public static final void saveGroup(OutputStream out, VectorChunk[] chunks) {
+        saveGroup(out, chunks, (String)null);
+    }
+
+    // VectorChunk群を保存(serialize)
+    // 保存先のOutputStreamを設定します.
+    // chunks: 保存対象の VectorChunk 群を設定します.
+    // model: embeddingを作成した組み込みモデル名を設定します(不明な場合は null).
+    public static final void saveGroup(
+        OutputStream out, VectorChunk[] chunks, String model) {
+        Config config = Config.getInstance();
+        saveGroup(out, chunks, config.saveNormalizedEmbedding,
+            VectorMatrix.getEncoding(config.embeddingEncoding),
+            config.saveEmbeddingSketch, model);
+    }
+
+    // VectorChunk群を保存(serialize)
+    // 保存先のOutputStreamを設定します.
+    // chunks: 保存対象の VectorChunk 群を設定します.
+    // normalize: true の場合、embeddingを正規化して保存します.
+    public static final void saveGroup(
+        OutputStream out, VectorChunk[] chunks, boolean normalize) {
+        saveGroup(out, chunks, normalize, VectorMatrix.ENCODING_FLOAT32, false);
+    }
+
+    // VectorChunk群を保存(serialize)
+    // 保存先のOutputStreamを設定します.
+    // chunks: 保存対象の VectorChunk 群を設定します.
+    // normalize: true の場合、embeddingを正規化して保存します.
+    // encoding: 保存するembeddingエンコードを設定します.
+    // sketch: true の場合、符号ビットスケッチを保存します.
+    public static final void saveGroup(
+        OutputStream out, VectorChunk[] chunks, boolean normalize,
+        int encoding, boolean sketch) {
+        saveGroup(out, chunks, normalize, encoding, sketch, null);
+    }
+
+    // VectorChunk群を保存(serialize)
+    // 保存先のOutputStreamを設定します.
+    // chunks: 保存対象の VectorChunk 群を設定します.
+    // normalize: true の場合、embeddingを正規化して保存します.
+    // encoding: 保存するembeddingエンコードを設定します.
+    // sketch: true の場合、符号ビットスケッチを保存します.
+    // model: embeddingを作成した組み込みモデル名を設定します(不明な場合は null).
+    public static final void saveGroup(
+        OutputStream out, VectorChunk[] chunks, boolean normalize,
+        int encoding, boolean sketch, String model) {
         int i, j, lenJ;
+        float scale;
         byte[] bin;
         float[] embList;
+        float[] normList = null;
+        byte[] int8List = null;
+        byte[] halfBin = null;
+        boolean bfloat16;
+        short h;
         VectorChunk ck;
+        Integer primary;
+        VectorScore score = VectorScore.getInstance();
         int allLen = chunks.length;
+        // 同じ float[] のembeddingは最初のVectorChunkを共有元とする.
+        Map<float[], Integer> shared = new IdentityHashMap<float[], Integer>();
+        boolean hasShared = false;
+        for(i = 0; i < allLen; i ++) {
+            if(shared.putIfAbsent(chunks[i].embedding, i) != null) {
+                hasShared = true;
+            }
+        }
         try {
             // ファイルシンボルを出力.
-            out.write(EncodeBinary.getString(VECTOR_GROUP_FILE_SIMBOL));
+            out.write(EncodeBinary.getString(VECTOR_GROUP_FILE_SIMBOL_V2));
+            // フラグを出力.
+            out.write(EncodeBinary.getInt1(
+                (normalize ? VECTOR_GROUP_FLAG_NORMALIZED : 0) |
+                (sketch && allLen > 0 ? VECTOR_GROUP_FLAG_SKETCH : 0) |
+                (hasShared ? VECTOR_GROUP_FLAG_SHARED : 0) |
+                (model != null ? VECTOR_GROUP_FLAG_MODEL : 0)));
+            // embeddingエンコードを出力.
+            out.write(EncodeBinary.getInt1(encoding));
+            // 組み込みモデル名を出力.
+            if(model != null) {
+                bin = EncodeBinary.getString(model);
+                out.write(EncodeBinary.getInt2(bin.length));
+                out.write(bin);
+            }
             // 最初にVectorChunk数を保存.
             out.write(EncodeBinary.getInt3(allLen));
             // 保存対象のVectorChunk群をループ実行.
@@ -208,16 +483,64 @@ public final class VectorFile {
                 bin = EncodeBinary.getString(ck.text);
                 out.write(EncodeBinary.getInt3(bin.length));
                 out.write(bin);
+                // embeddingを共有する場合は共有元の項番を保存.
+                if(hasShared && (primary = shared.get(ck.embedding)) != i) {
+                    out.write(EncodeBinary.getInt3(0));
+                    out.write(EncodeBinary.getInt3(primary));
+                    continue;
+                }
                 // embeddingを保存.
                 embList = ck.embedding;
                 lenJ = embList.length;
+                // 正規化して保存する場合.
+                if(normalize) {
+                    if(normList == null || normList.length != lenJ) {
+                        normList = new float[lenJ];
+                    }
+                    embList = score.normalize(embList, normList);
+                }
                 // embeddingの長さを保存.
                 out.write(EncodeBinary.getInt3(lenJ));
+                if(encoding == VectorMatrix.ENCODING_INT8) {
+                    // int8に変換して 倍率 + embedding を保存.
+                    if(int8List == null || int8List.length != lenJ) {
+                        int8List = new byte[lenJ];
+                    }
+                    scale = VectorInt8Matrix.quantize(embList, int8List, 0);
+                    out.write(EncodeBinary.getFloat(scale));
+                    out.write(int8List);
+                    continue;
+                } else if(VectorMatrix.isHalf(encoding)) {
+                    // 16bit浮動小数点に変換して保存.
+                    if(halfBin == null || halfBin.length != lenJ << 1) {
+                        halfBin = new byte[lenJ << 1];
+                    }
+                    bfloat16 = encoding == VectorMatrix.ENCODING_BFLOAT16;
+                    for(j = 0; j < lenJ; j ++) {
+                        h = VectorHalfMatrix.toHalf(embList[j], bfloat16);
+                        halfBin[j << 1] = (byte)(h & 0x0ff);
+                        halfBin[(j << 1) + 1] = (byte)((h & 0x0ff00) >> 8);
+                    }
+                    out.write(halfBin);
+                    continue;
+                }
                 for(j = 0; j < lenJ; j ++) {
                     // 1つのembeddingを保存.
                     out.write(EncodeBinary.getFloat(embList[j]));
                 }
             }
+            // 符号ビットスケッチを保存.
+            if(sketch && allLen > 0) {
+                lenJ = VectorSketch.getWords(chunks[0].embedding.length);
+                long[] bits = new long[lenJ];
+                out.write(EncodeBinary.getInt2(lenJ));
+                for(i = 0; i < allLen; i ++) {
+                    VectorSketch.encode(chunks[i].embedding, bits, 0);
+                    for(j = 0; j < lenJ; j ++) {
+                        out.write(EncodeBinary.getLong(bits[j]));
+                    }
+                }
+            }
             out.flush();
         } catch(Exception e) {
             throw new MRagException(e);
@@ -437,12 +760,14 @@ public final class VectorFile {
 
     // stringToChunksで分けた内容を組み込みベクトル計算して、
     // その内容を対象VectorGroupで検索した結果を返却する.
+    // 分けた内容の検索ベクトル群で１度だけ検索し、同じVectorChunkは
+    // 一番高い得点でまとめられます.
     // vg: VectorGroupを設定します.
     // chunkSize: チャンク単位の文字列長を設定します.
     // overlapSize: 次のチャンクに設定する文字列長を設定します.
     // length: 最大検索件数を設定します.
     // message: 対象の問い合わせメッセージを設定します.
-    // 戻り値: VectorChunk[] のベクトル計算の配列が返却されます.
+    // 戻り値: VectorChunk[] のベクトル計算の配列が得点の高い順で返却されます.
     public static final VectorChunk[] searchEmbedding(
         VectorGroup vg, int chunkSize, int overlapSize,
         int length, String message) {
@@ -451,33 +776,194 @@ public final class VectorFile {
         List<String> chunks = stringToChunks(
             message, chunkSize, overlapSize);
         
-        // 質問分割単位で処理を実施.
-        List<VectorChunk> list = new ArrayList<VectorChunk>();
-        int i, j, resLen, len, lenJ;
-        float[] semb;
+        // 質問分割単位でベクトル座標取得.
+        float[][] sembs = getEmbeddings(chunks);
+        // VectorGroupからベクトル座標群に近い情報を検索して得点の高い順に取得.
         VectorChunk[] ary = new VectorChunk[length];
-        len = chunks.size();
+        int len = vg.searchEmbedding(ary, sembs, message, null);
+        if(len == length) {
+            return ary;
+        }
+        VectorChunk[] ret = new VectorChunk[len];
+        System.arraycopy(ary, 0, ret, 0, len);
+        return ret;
+    }
+
+    // stringToChunksで分けた内容を組み込みベクトル計算して、
+    // その内容を複数のVectorGroupで検索した結果を返却する.
+    // vgs: 検索対象のVectorGroup群を設定します.
+    // chunkSize: チャンク単位の文字列長を設定します.
+    // overlapSize: 次のチャンクに設定する文字列長を設定します.
+    // length: 最大検索件数を設定します.
+    // message: 対象の問い合わせメッセージを設定します.
+    // 戻り値: VectorChunk[] のベクトル計算の配列が得点の高い順で返却されます.
+    public static final VectorChunk[] searchEmbedding(
+        List<VectorGroup> vgs, int chunkSize, int overlapSize,
+        int length, String message) {
+        return searchEmbedding(
+            vgs, null, chunkSize, overlapSize, length, message);
+    }
+
+    // stringToChunksで分けた内容を組み込みベクトル計算して、
+    // その内容を複数のVectorGroupで文書条件を指定して検索した結果を返却する.
+    // vgs: 検索対象のVectorGroup群を設定します.
+    // filter: 文書条件を設定します(null の場合は全件).
+    // chunkSize: チャンク単位の文字列長を設定します.
+    // overlapSize: 次のチャンクに設定する文字列長を設定します.
+    // length: 最大検索件数を設定します.
+    // message: 対象の問い合わせメッセージを設定します.
+    // 戻り値: VectorChunk[] のベクトル計算の配列が得点の高い順で返却されます.
+    public static final VectorChunk[] searchEmbedding(
+        List<VectorGroup> vgs, VectorFilter filter, int chunkSize,
+        int overlapSize, int length, String message) {
+        // 質問内容をstringToChunksで分けてベクトル座標取得.
+        float[][] sembs = getQueryEmbeddings(message, chunkSize, overlapSize);
+        return searchEmbedding(vgs, length, sembs, message, filter);
+    }
+
+    // 問い合わせメッセージをstringToChunksで分けて組み込みベクトル計算.
+    // message: 対象の問い合わせメッセージを設定します.
+    // chunkSize: チャンク単位の文字列長を設定します.
+    // overlapSize: 次のチャンクに設定する文字列長を設定します.
+    // 戻り値: 分割単位の検索ベクトル群が返却されます.
+    public static final float[][] getQueryEmbeddings(
+        String message, int chunkSize, int overlapSize) {
+        return getEmbeddings(stringToChunks(message, chunkSize, overlapSize));
+    }
+
+    // 複数のVectorGroupを同時に検索するスレッドプール.
+    // 検索の作業領域(VectorScratch)はスレッド毎に保持されるため、
+    // 検索毎に新しいスレッドを生成しないで再利用します.
+    private static final ExecutorService SEARCH_POOL =
+        Executors.newFixedThreadPool(
+            Math.max(1, Runtime.getRuntime().availableProcessors()), r -> {
+                Thread t = new Thread(r, "mrag-search");
+                t.setDaemon(true);
+                return t;
+            });
+
+    // 複数のVectorGroupを同時に検索して、得点の高い順にまとめた結果を返却する.
+    // VectorGroup毎にスレッドプールで上位 length 件を検索し、
+    // 各結果の先頭を得点で比較するヒープで length 件までまとめます.
+    // vgs: 検索対象のVectorGroup群を設定します.
+    // length: 最大検索件数を設定します.
+    // queryEmbeddings: 組み込みモデルで生成された検索ベクトル配列群を設定します.
+    // 戻り値: VectorChunk[] のベクトル計算の配列が得点の高い順で返却されます.
+    public static final VectorChunk[] searchEmbedding(
+        List<VectorGroup> vgs, int length, float[][] queryEmbeddings) {
+        return searchEmbedding(vgs, length, queryEmbeddings, null, null);
+    }
+
+    // 複数のVectorGroupを文書条件を指定して同時に検索して、
+    // 得点の高い順にまとめた結果を返却する.
+    // vgs: 検索対象のVectorGroup群を設定します.
+    // length: 最大検索件数を設定します.
+    // queryEmbeddings: 組み込みモデルで生成された検索ベクトル配列群を設定します.
+    // queryText: ハイブリッド検索の検索テキストを設定します(null の場合はベクトル検索のみ).
+    // filter: 文書条件を設定します(null の場合は全件).
+    // 戻り値: VectorChunk[] のベクトル計算の配列が得点の高い順で返却されます.
+    public static final VectorChunk[] searchEmbedding(
+        List<VectorGroup> vgs, int length, float[][] queryEmbeddings,
+        String queryText, VectorFilter filter) {
+        int i;
+        final int len = vgs.size();
+        final VectorChunk[][] results = new VectorChunk[len][];
+        final int[] resultLens = new int[len];
+        if(len == 1) {
+            results[0] = new VectorChunk[length];
+            resultLens[0] = vgs.get(0).searchEmbedding(
+                results[0], queryEmbeddings, queryText, filter);
+        } else {
+            // VectorGroup毎に同時に検索.
+            // 先頭のVectorGroupは呼び出し元のスレッドで検索します.
+            List<Future<?>> futures = new ArrayList<Future<?>>(len - 1);
+            for(i = 1; i < len; i ++) {
+                final int no = i;
+                final VectorGroup vg = vgs.get(i);
+                futures.add(SEARCH_POOL.submit(() -> {
+                    results[no] = new VectorChunk[length];
+                    resultLens[no] = vg.searchEmbedding(
+                        results[no], queryEmbeddings, queryText, filter);
+                }));
+            }
+            results[0] = new VectorChunk[length];
+            resultLens[0] = vgs.get(0).searchEmbedding(
+                results[0], queryEmbeddings, queryText, filter);
+            try {
+                for(Future<?> f : futures) {
+                    f.get();
+                }
+            } catch(ExecutionException ee) {
+                if(ee.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException)ee.getCause();
+                }
+                throw new MRagException(ee.getCause());
+            } catch(InterruptedException ie) {
+                throw new MRagException(ie);
+            }
+        }
+        return mergeResults(results, resultLens, length);
+    }
+
+    // 得点の高い順に並んだ複数の検索結果を length 件までまとめる.
+    // 各検索結果の先頭位置を得点の高い順のヒープで管理します
+    // (VectorChunk.compareTo は降順のため得点の高い方が先頭となります).
+    private static final VectorChunk[] mergeResults(
+        final VectorChunk[][] results, int[] resultLens, int length) {
+        int i, all = 0;
+        final int len = results.length;
+        final int[] positions = new int[len];
+        PriorityQueue<Integer> heap = new PriorityQueue<Integer>(
+            Math.max(1, len), (a, b) -> results[a][positions[a]].compareTo(
+                results[b][positions[b]]));
+        for(i = 0; i < len; i ++) {
+            all += resultLens[i];
+            if(resultLens[i] > 0) {
+                heap.offer(i);
+            }
+        }
+        VectorChunk[] ret = new VectorChunk[Math.min(length, all)];
+        Integer no;
+        for(i = 0; i < ret.length; i ++) {
+            no = heap.poll();
+            ret[i] = results[no][positions[no] ++];
+            if(positions[no] < resultLens[no]) {
+                heap.offer(no);
+            }
+        }
+        return ret;
+    }
+
+    // 文字列群を組み込みベクトル計算.
+    // 同じ文字列の検索ベクトルはキャッシュから取得し、
+    // それ以外はまとめて問い合わせます.
+    private static final float[][] getEmbeddings(List<String> chunks) {
+        int i, len = chunks.size();
+        float[][] ret = new float[len][];
         Config config = Config.getInstance();
+        VectorEmbeddingCache cache = VectorEmbeddingCache.getInstance();
+        String model = config.embeddingModel;
+        // キャッシュに存在しない文字列.
+        List<Integer> missNos = new ArrayList<Integer>();
+        List<String> misses = new ArrayList<String>();
         for(i = 0; i < len; i ++) {
-            // ベクトル座標取得.
-            semb = LlamaCpp.getEmbedding(config.getEmbeddingURL(), chunks.get(i));
-            // VectorGroupからベクトル座標に近い情報を検索して得点の高い順に並び替え.
-            lenJ = vg.searchEmbedding(ary, semb);
-            // length分をリストに追加.
-            lenJ = lenJ > length ? length : lenJ;
-            for(j = 0; j < lenJ; j ++) {
-                list.add(ary[j]);
-            }
-        }
-        // リスト結果を照準ソート.
-        list.sort(null);
-        // 照準の内容を降順で並べ替えで取得.
-        len = list.size();
-        ary = new VectorChunk[len];
-        for(i = len - 1, j = 0; i >= 0; i --) {
-            ary[j ++] = list.get(i);
+            if((ret[i] = cache.get(model, chunks.get(i))) == null) {
+                missNos.add(i);
+                misses.add(chunks.get(i));
+            }
+        }
+        if(misses.size() == 0) {
+            return ret;
+        }
+        float[][] embs = LlamaCpp.getEmbeddings(config.getEmbeddingURL(),
+            model, misses, config.embeddingBatchSize,
+            config.embeddingBatchChars);
+        len = misses.size();
+        for(i = 0; i < len; i ++) {
+            ret[missNos.get(i)] = embs[i];
+            cache.put(model, misses.get(i), embs[i]);
         }
-        return ary;
+        return ret;
     }
 
     // 対象ファイルのファイルタイムを取得.
@@ -507,10 +993,9 @@ public final class VectorFile {
     // この処理でVectorSummaryもロードされます.
     // path: 対象ディレクトリパスを設定します.
     // groupName: グループ名を設定します.
-    // cman: VectorChunkのキャッシュオブジェクトを管理するオブジェクトを設定します.
     // 戻り値: VectorGroupオブジェクトが返却されます.
     public static final VectorGroup loadVectorGroup(
-        String path, String groupName, Queue<VectorChunk> cman) {
+        String path, String groupName) {
         //パスとグループを整頓.
         String[] pg = (String[])trimPathGroupToFilePath(path, groupName);
         path = pg[0]; groupName = pg[1]; pg = null;
@@ -519,13 +1004,333 @@ public final class VectorFile {
         // ファイルタイムを取得.
         long time = getFileTime(path + "/" + vgFileName);
         // ファイルのロード.
-        VectorChunk[] chunks = loadGroup(path, groupName);
+        Config config = Config.getInstance();
+        VectorChunkTable chunks = loadChunkTable(
+            loadGroupBinary(path, groupName), config.normalizeEmbedding);
+        // 符号ビットスケッチが保存されていない場合は作成.
+        if(config.sketchPrefilter && chunks.getSketch() == null) {
+            chunks.setSketch(VectorSketch.create(chunks.getMatrix()));
+        }
         // VectorSummaryファイルをロード.
         VectorSummary summary = loadVectorSummary(
             path, groupName);
         // vectorGroupを返却.
         return new VectorGroup(
-            groupName, path, vgFileName, time, chunks, summary, cman);
+            groupName, path, vgFileName, time, chunks, summary);
+    }
+
+    // VectorGroupに対するHNSWグラフをロード or 作成してセット.
+    // 保存済みのHNSWグラフが VectorGroupファイルと一致する場合はロードし、
+    // 一致しない場合は作成して保存します.
+    // vg: 対象のVectorGroupを設定します.
+    // 戻り値: HNSWグラフが返却されます.
+    public static final VectorHnsw loadHnswIndex(VectorGroup vg) {
+        Config config = Config.getInstance();
+        VectorMatrix matrix = vg.getChunkTable().getMatrix();
+        String fileName = getPathGroupToFilePath(
+            vg.getFilePath(), vg.getGroup(), VECTOR_HNSW_FILE_EXTENSION);
+        VectorHnsw ret = null;
+        // 保存済みのHNSWグラフをロード.
+        if(new File(fileName).isFile()) {
+            try {
+                ret = VectorHnsw.load(
+                    Files.readAllBytes(Paths.get(fileName)), matrix,
+                    vg.getFileTime(), config.hnswM, config.hnswEfConstruction);
+            } catch(Exception e) {
+                // 壊れている場合は作り直す.
+                ret = null;
+            }
+        }
+        // HNSWグラフを作成して保存.
+        if(ret == null) {
+            ret = VectorHnsw.build(
+                matrix, config.hnswM, config.hnswEfConstruction);
+            final VectorHnsw h = ret;
+            saveIndexFile(fileName, out -> h.save(out, vg.getFileTime()));
+        }
+        vg.setHnsw(ret);
+        return ret;
+    }
+
+    // VectorGroupに対するIVFインデックスをロード or 作成してセット.
+    // 保存済みのIVFインデックスが VectorGroupファイルと一致する場合はロードし、
+    // 一致しない場合は重心を学習して保存します.
+    // vg: 対象のVectorGroupを設定します.
+    // 戻り値: IVFインデックスが返却されます.
+    public static final VectorIvf loadIvfIndex(VectorGroup vg) {
+        VectorMatrix matrix = vg.getChunkTable().getMatrix();
+        String fileName = getPathGroupToFilePath(
+            vg.getFilePath(), vg.getGroup(), VECTOR_IVF_FILE_EXTENSION);
+        VectorIvf ret = null;
+        // 保存済みのIVFインデックスをロード.
+        if(new File(fileName).isFile()) {
+            try {
+                ret = VectorIvf.load(
+                    Files.readAllBytes(Paths.get(fileName)), matrix,
+                    vg.getFileTime());
+            } catch(Exception e) {
+                // 壊れている場合は作り直す.
+                ret = null;
+            }
+        }
+        // IVFインデックスを学習して保存.
+        if(ret == null) {
+            ret = VectorIvf.train(matrix, Config.getInstance().ivfLists);
+            final VectorIvf v = ret;
+            saveIndexFile(fileName, out -> v.save(out, vg.getFileTime()));
+        }
+        vg.setIvf(ret);
+        return ret;
+    }
+
+    // VectorGroupに対するBM25の転置インデックスをロード or 作成してセット.
+    // 保存済みの転置インデックスが VectorGroupファイルと一致する場合はロードし、
+    // 一致しない場合はVectorChunkのテキストから作成して保存します.
+    // vg: 対象のVectorGroupを設定します.
+    // 戻り値: BM25の転置インデックスが返却されます.
+    public static final VectorBm25 loadBm25Index(VectorGroup vg) {
+        VectorChunkTable table = vg.getChunkTable();
+        String fileName = getPathGroupToFilePath(
+            vg.getFilePath(), vg.getGroup(), VECTOR_BM25_FILE_EXTENSION);
+        VectorBm25 ret = null;
+        // 保存済みの転置インデックスをロード.
+        if(new File(fileName).isFile()) {
+            try {
+                ret = VectorBm25.load(Files.readAllBytes(Paths.get(fileName)),
+                    table.size(), vg.getFileTime());
+            } catch(Exception e) {
+                // 壊れている場合は作り直す.
+                ret = null;
+            }
+        }
+        // 転置インデックスを作成して保存.
+        if(ret == null) {
+            ret = VectorBm25.build(table);
+            final VectorBm25 b = ret;
+            saveIndexFile(fileName, out -> b.save(out, vg.getFileTime()));
+        }
+        vg.setBm25(ret);
+        return ret;
+    }
+
+    // VectorGroupに対するPQ(直積量子化)情報をロード or 作成してセット.
+    // 保存済みのPQ情報が VectorGroupファイルと一致する場合はロードし、
+    // 一致しない場合はコードブックを学習して保存します.
+    // セット後、VectorGroupの元のembedding行列はメモリから解放されます.
+    // vg: 対象のVectorGroupを設定します.
+    // 戻り値: PQ情報が返却されます.
+    public static final VectorPq loadPqIndex(VectorGroup vg) {
+        Config config = Config.getInstance();
+        VectorChunkTable table = vg.getChunkTable();
+        String fileName = getPathGroupToFilePath(
+            vg.getFilePath(), vg.getGroup(), VECTOR_PQ_FILE_EXTENSION);
+        VectorPq ret = null;
+        // 保存済みのPQ情報をロード.
+        if(new File(fileName).isFile()) {
+            try {
+                ret = VectorPq.load(
+                    Files.readAllBytes(Paths.get(fileName)), table.size(),
+                    table.getDimension(), vg.getFileTime(), config.pqSubspaces);
+            } catch(Exception e) {
+                // 壊れている場合は作り直す.
+                ret = null;
+            }
+        }
+        // コードブックを学習して保存.
+        if(ret == null) {
+            ret = VectorPq.train(table.getMatrix(), config.pqSubspaces);
+            final VectorPq p = ret;
+            saveIndexFile(fileName, out -> p.save(out, vg.getFileTime()));
+        }
+        vg.setPq(ret);
+        return ret;
+    }
+
+    // 保存済みのPQ情報のコードブックを利用して、更新されたVectorGroupファイルの
+    // embeddingを再学習せずに量子化して保存.
+    // path: 対象ディレクトリパスを設定します.
+    // groupName: グループ名を設定します.
+    // matrix: 保存されたembedding行列を設定します.
+    private static final void updatePqIndex(
+        String path, String groupName, VectorMatrix matrix) {
+        String fileName = path + "/" + groupName + VECTOR_PQ_FILE_EXTENSION;
+        if(!new File(fileName).isFile()) {
+            return;
+        }
+        VectorPq pq = null;
+        try {
+            pq = VectorPq.loadCodebooks(Files.readAllBytes(Paths.get(fileName)),
+                matrix, Config.getInstance().pqSubspaces);
+        } catch(Exception e) {
+            pq = null;
+        }
+        // コードブックが利用できない場合は次回ロード時に学習させる.
+        if(pq == null) {
+            _removeFile(path, groupName + VECTOR_PQ_FILE_EXTENSION);
+            return;
+        }
+        final VectorPq p = pq;
+        final long time = getFileTime(
+            path + "/" + groupName + VECTOR_GROUP_FILE_EXTENSION);
+        saveIndexFile(fileName, out -> p.save(out, time));
+    }
+
+    // VectorGroupファイルの１つのembeddingを読み込むバッファを生成.
+    // table: 対象のVectorChunkTableを設定します.
+    // 戻り値: バッファが返却されます.
+    public static final ByteBuffer createEmbeddingBuffer(VectorChunkTable table) {
+        int dim = table.getDimension();
+        int encoding = table.getFileEncoding();
+        int len = encoding == VectorMatrix.ENCODING_INT8 ? 4 + dim :
+            VectorMatrix.isHalf(encoding) ? dim * 2 : dim * 4;
+        return ByteBuffer.allocate(len).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    // VectorGroupファイルから１つのembeddingを読み込む.
+    // ch: VectorGroupファイルのFileChannelを設定します.
+    // table: 対象のVectorChunkTableを設定します.
+    // no: 対象の項番を設定します.
+    // buf: createEmbeddingBuffer で生成したバッファを設定します.
+    // out: 格納先を設定します.
+    // 戻り値: out が返却されます.
+    public static final float[] readEmbedding(FileChannel ch,
+        VectorChunkTable table, int no, ByteBuffer buf, float[] out)
+        throws IOException {
+        long offset = table.getEmbeddingOffset(no);
+        buf.clear();
+        while(buf.hasRemaining()) {
+            if(ch.read(buf, offset + buf.position()) == -1) {
+                throw new EOFException();
+            }
+        }
+        buf.flip();
+        int encoding = table.getFileEncoding();
+        if(VectorMatrix.isHalf(encoding)) {
+            // 16bit浮動小数点のembedding.
+            boolean bfloat16 = encoding == VectorMatrix.ENCODING_BFLOAT16;
+            int len = out.length;
+            for(int i = 0; i < len; i ++) {
+                out[i] = VectorHalfMatrix.toFloat(buf.getShort(), bfloat16);
+            }
+            return out;
+        } else if(encoding == VectorMatrix.ENCODING_INT8) {
+            // 倍率 + int8のembedding.
+            float scale = buf.getFloat();
+            int len = out.length;
+            for(int i = 0; i < len; i ++) {
+                out[i] = buf.get() * scale;
+            }
+            return out;
+        }
+        buf.asFloatBuffer().get(out);
+        return out;
+    }
+
+    // 保存済みのIVFインデックスの重心を利用して、更新されたVectorGroupファイルの
+    // embeddingを再学習せずに一番近い転置リストに割り当てて保存.
+    // path: 対象ディレクトリパスを設定します.
+    // groupName: グループ名を設定します.
+    // matrix: 保存されたembedding行列を設定します.
+    private static final void updateIvfIndex(
+        String path, String groupName, VectorMatrix matrix) {
+        String fileName = path + "/" + groupName + VECTOR_IVF_FILE_EXTENSION;
+        if(!new File(fileName).isFile()) {
+            return;
+        }
+        float[] centroids = null;
+        try {
+            centroids = VectorIvf.loadCentroids(
+                Files.readAllBytes(Paths.get(fileName)), matrix.getDimension());
+        } catch(Exception e) {
+            centroids = null;
+        }
+        // 重心が利用できない場合は次回ロード時に学習させる.
+        if(centroids == null) {
+            _removeFile(path, groupName + VECTOR_IVF_FILE_EXTENSION);
+            return;
+        }
+        final VectorIvf v = new VectorIvf(matrix, centroids);
+        final long time = getFileTime(
+            path + "/" + groupName + VECTOR_GROUP_FILE_EXTENSION);
+        saveIndexFile(fileName, out -> v.save(out, time));
+    }
+
+    // 保存済みのIVF, PQのインデックスファイルを再学習せずに更新.
+    private static final void updateIndexFiles(
+        String path, String groupName, VectorChunk[] docs) {
+        if(!isFile(path, groupName + VECTOR_IVF_FILE_EXTENSION) &&
+            !isFile(path, groupName + VECTOR_PQ_FILE_EXTENSION)) {
+            return;
+        }
+        VectorMatrix matrix = VectorChunkTable.create(docs, false).getMatrix();
+        updateIvfIndex(path, groupName, matrix);
+        updatePqIndex(path, groupName, matrix);
+    }
+
+    // グループのサマリーキャッシュをロード.
+    // ファイルが存在しない、または壊れている場合は空のキャッシュを返却します.
+    // path: 対象ディレクトリパスを設定します.
+    // groupName: グループ名を設定します.
+    // 戻り値: VectorSummaryCacheが返却されます.
+    public static final VectorSummaryCache loadSummaryCache(
+        String path, String groupName) {
+        String fileName = getPathGroupToFilePath(
+            path, groupName, VECTOR_SUMMARY_CACHE_FILE_EXTENSION);
+        if(new File(fileName).isFile()) {
+            try {
+                return VectorSummaryCache.load(
+                    Files.readAllBytes(Paths.get(fileName)));
+            } catch(Exception e) {
+                // 壊れている場合は作り直す.
+            }
+        }
+        return new VectorSummaryCache();
+    }
+
+    // グループのサマリーキャッシュを保存.
+    // path: 対象ディレクトリパスを設定します.
+    // groupName: グループ名を設定します.
+    // cache: 保存対象のVectorSummaryCacheを設定します.
+    public static final void saveSummaryCache(
+        String path, String groupName, VectorSummaryCache cache) {
+        String fileName = getPathGroupToFilePath(
+            path, groupName, VECTOR_SUMMARY_CACHE_FILE_EXTENSION);
+        saveIndexFile(fileName, out -> cache.save(out));
+    }
+
+    // インデックスファイルを一時ファイルに出力して置き換える.
+    // 一時ファイルは同じディレクトリに重複しない名前で作成するため、
+    // 同じインデックスを同時に作成しても書き込みが混ざりません.
+    private static final void saveIndexFile(
+        String fileName, java.util.function.Consumer<OutputStream> call) {
+        Path target = Paths.get(fileName).toAbsolutePath();
+        Path tmp = null;
+        OutputStream out = null;
+        try {
+            tmp = Files.createTempFile(target.getParent(),
+                target.getFileName().toString(), ".tmp");
+            out = new BufferedOutputStream(Files.newOutputStream(tmp));
+            call.accept(out);
+            out.close();
+            out = null;
+            // 一時ファイルを置き換える.
+            Files.move(tmp, target,
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+            tmp = null;
+        } catch(MRagException me) {
+            throw me;
+        } catch(Exception e) {
+            throw new MRagException(e);
+        } finally {
+            if(out != null) {
+                try { out.close(); } catch(Exception e) {}
+            }
+            // 置き換えられなかった一時ファイルを削除.
+            if(tmp != null) {
+                try { Files.deleteIfExists(tmp); } catch(Exception e) {}
+            }
+        }
     }
 
     // 指定パスのファイル名のVectorGroupに対して、ファイルテキストを追加・セット.
@@ -547,6 +1352,10 @@ public final class VectorFile {
         VectorChunk[] docs;
         VectorSummary summary;
         List<VectorChunk> list;
+        VectorEmbeddingStore store = null;
+        // 登録済みのembeddingを作成した組み込みモデル名.
+        String chunksModel = null;
+        Config config = Config.getInstance();
 
         // 追加するテキストファイル名から拡張子を削除して文書名にする.
         String textDocName = Conv.getCutExtension(textFileName);
@@ -568,10 +1377,21 @@ public final class VectorFile {
             // ファイルが存在する場合.
             // 対象条件のVectorGroupを作成.
             VectorGroup vg = loadVectorGroup(
-                path, groupName, null);
+                path, groupName);
             // Vector塊一覧を取得.
             docs = vg.getChunked();
             len = docs.length;
+            // 以前の登録のembeddingを内容が同じチャンクで再利用する.
+            chunksModel = vg.getChunkTable().getEmbeddingModel();
+            // 組み込みモデル名が保存されていない(以前のバージョンで作成された)
+            // VectorGroupは、指定された場合のみ現在の組み込みモデルで作成されたものとする.
+            if(chunksModel == null && config.adoptUnstampedEmbeddingModel) {
+                chunksModel = config.embeddingModel;
+            }
+            if(config.chunkEmbeddingStore) {
+                store = VectorEmbeddingStore.create(
+                    docs, chunksModel, config.embeddingModel);
+            }
             // Vector塊をリスト化.
             list = new ArrayList<VectorChunk>(len);
             for(i = 0; i < len; i ++) {
@@ -583,6 +1403,11 @@ public final class VectorFile {
                 list.add(docs[i]);
             }
             docs = null;
+            // 今回の文書以外のチャンクが無い場合は全てのembeddingを
+            // 現在の組み込みモデルで作成し直すため、組み込みモデル名を保存できる.
+            if(list.isEmpty()) {
+                chunksModel = config.embeddingModel;
+            }
 
             // VectorSummaryを取得.
             summary = vg.getSummary();
@@ -592,16 +1417,34 @@ public final class VectorFile {
             list = new ArrayList<VectorChunk>();
             // 空のVectorSummaryファイルを生成.
             summary = new VectorSummary();
+            // 登録済みのembeddingは存在しない.
+            chunksModel = config.embeddingModel;
         }
 
-        // サマリー文書を取得.
-        String sumTxt = LlamaCpp.getChatMessage(
-            chBaseUrl, Config.getInstance().getSummaryRequest(text));
-        
-        // サマリー文書を加工.
-        sumTxt = Conv.stripMarkdown(sumTxt); // 不要なマークダウンを除去.
-        sumTxt = Conv.exclusionText(sumTxt); // 不要な文字を除去.
-        sumTxt = Conv.trimEnterText(sumTxt); // 不要な改行を除去.
+        // サマリー作成の問い合わせ内容.
+        String sumReq = config.getSummaryRequest(text);
+        // 同じ問い合わせ内容のサマリーが作成済みの場合は再利用する.
+        VectorSummaryCache sumCache = null;
+        String sumHash = null;
+        String sumTxt = null;
+        if(config.summaryCache) {
+            sumCache = loadSummaryCache(path, groupName);
+            sumHash = VectorSummaryCache.hash(config.getChatKey(), sumReq);
+            sumTxt = sumCache.get(sumHash, textDocName);
+        }
+        if(sumTxt == null) {
+            // サマリー文書を取得.
+            sumTxt = LlamaCpp.getChatMessage(chBaseUrl, sumReq);
+
+            // サマリー文書を加工.
+            sumTxt = Conv.stripMarkdown(sumTxt); // 不要なマークダウンを除去.
+            sumTxt = Conv.exclusionText(sumTxt); // 不要な文字を除去.
+            sumTxt = Conv.trimEnterText(sumTxt); // 不要な改行を除去.
+        }
+        sumReq = null;
+        if(sumCache != null) {
+            sumCache.put(sumHash, textDocName, sumTxt);
+        }
 
         // 作成したサマリー情報を追加.
         summary.put(textDocName, new VSummaryValue(sumTxt, textUrl));
@@ -621,19 +1464,62 @@ public final class VectorFile {
             text, chunkSize, overlap);
         len = chunkTextList.size();
 
-        // 分割されたテキスト塊の内容をベクトル化.
-        // 作成された内容をVectorChunkのリストに追加する.
-        List<float[]> vectorList = new ArrayList<float[]>(len);
+        // 重複したチャンクの embedding を再利用する場合.
+        VectorDedup dedup = null;
+        if(config.chunkDedup) {
+            dedup = new VectorDedup(
+                Math.min(config.chunkDedupDistance, VectorDedup.MAX_DISTANCE));
+            listLen = list.size();
+            for(i = 0; i < listLen; i ++) {
+                dedup.add(list.get(i).text, list.get(i).embedding);
+            }
+        }
+
+        // 分割されたテキスト塊毎に再利用できる embedding を取得.
+        // 再利用できないものは ベクトル変換待ちの仮の embedding(長さ0)を設定し、
+        // 同じ文書内の重複したチャンクも同じ仮の embedding を共有させる.
+        float[][] embs = new float[len][];
+        List<float[]> pendings = new ArrayList<float[]>();
+        List<String> pendingTexts = new ArrayList<String>();
         for(i = 0; i < len; i ++) {
             chkTxt = chunkTextList.get(i);
-            // 1つのテキストの塊をベクトル座標変換.
-            emb = LlamaCpp.getEmbedding(embBaseUrl, chkTxt);
+            // 以前の登録で内容が同じチャンクの embedding を再利用する.
+            emb = store == null ? null : store.get(chkTxt);
+            // 重複したチャンクは同じ embedding を共有する.
+            if(emb == null && (dedup == null ||
+                (emb = dedup.find(chkTxt)) == null)) {
+                emb = new float[0];
+                pendings.add(emb);
+                pendingTexts.add(chkTxt);
+                if(dedup != null) {
+                    dedup.add(chkTxt, emb);
+                }
+            }
+            embs[i] = emb;
+        }
+
+        // 再利用できないテキスト塊をまとめてベクトル座標変換.
+        float[][] res = LlamaCpp.getEmbeddings(embBaseUrl,
+            config.embeddingModel, pendingTexts, config.embeddingBatchSize,
+            config.embeddingBatchChars);
+        Map<float[], float[]> resolved = new IdentityHashMap<float[], float[]>();
+        listLen = pendings.size();
+        for(i = 0; i < listLen; i ++) {
+            resolved.put(pendings.get(i), res[i]);
+        }
+        pendings = null; pendingTexts = null; res = null;
+
+        // 作成された内容をVectorChunkのリストに追加する.
+        for(i = 0; i < len; i ++) {
+            emb = resolved.get(embs[i]);
             // 新しいVectorChunkを追加.
             list.add(
                 new VectorChunk(
-                    chkTxt, i, len, textDocName, emb)
+                    chunkTextList.get(i), i, len, textDocName,
+                    emb == null ? embs[i] : emb)
             );
         }
+        embs = null;
         // 追加されたlistをVectorChunk配列に変換.
         len = list.size();
         docs = new VectorChunk[len];
@@ -641,9 +1527,17 @@ public final class VectorFile {
             docs[i] = list.get(i);
         }
         // 更新されたdocsを保存する.
-        saveGroup(path, groupName, docs);
+        // 登録済みのembeddingと組み込みモデル名が異なる場合は組み込みモデル名を保存しない.
+        saveGroup(path, groupName, docs,
+            config.embeddingModel.equals(chunksModel) ? chunksModel : null);
+        // 保存済みのインデックスに新しいembeddingを割り当てる.
+        updateIndexFiles(path, groupName, docs);
         // 更新されたsummaryを保存する.
         saveSummary(path, groupName, summary);
+        // 更新されたサマリーキャッシュを保存する.
+        if(sumCache != null) {
+            saveSummaryCache(path, groupName, sumCache);
+        }
     }
 
     // 指定パスのファイル名のVectorGroupに対して、ファイルテキストを削除.
@@ -688,12 +1582,18 @@ public final class VectorFile {
         // 対象条件のVectorGroupを作成.
         // 仮に生成するだけなのでVectorSummaryは空でよい.
         VectorGroup vg = loadVectorGroup(
-            path, vgFileName, null);
+            path, vgFileName);
         // VectorSummaryを取得.
         VectorSummary vs = vg.getSummary();
         // Vector塊一覧を取得.
         docs = vg.getChunked();
         len = docs.length;
+        // embeddingを作成した組み込みモデル名.
+        String chunksModel = vg.getChunkTable().getEmbeddingModel();
+        Config config = Config.getInstance();
+        if(chunksModel == null && config.adoptUnstampedEmbeddingModel) {
+            chunksModel = config.embeddingModel;
+        }
         // Vector塊をリスト化.
         list = new ArrayList<VectorChunk>(len);
         boolean removeFlag = false;
@@ -711,6 +1611,31 @@ public final class VectorFile {
             MRagException mre1 = _removeFile(path, vgFileName);
             // VectorSummaryファイルの削除.
             MRagException mre2 = _removeFile(path, vsFileName);
+            // HNSWグラフファイルの削除.
+            String vhFileName = groupName + VECTOR_HNSW_FILE_EXTENSION;
+            if(isFile(path, vhFileName)) {
+                _removeFile(path, vhFileName);
+            }
+            // IVFインデックスファイルの削除.
+            String viFileName = groupName + VECTOR_IVF_FILE_EXTENSION;
+            if(isFile(path, viFileName)) {
+                _removeFile(path, viFileName);
+            }
+            // PQファイルの削除.
+            String vqFileName = groupName + VECTOR_PQ_FILE_EXTENSION;
+            if(isFile(path, vqFileName)) {
+                _removeFile(path, vqFileName);
+            }
+            // BM25転置インデックスファイルの削除.
+            String vbFileName = groupName + VECTOR_BM25_FILE_EXTENSION;
+            if(isFile(path, vbFileName)) {
+                _removeFile(path, vbFileName);
+            }
+            // サマリーキャッシュファイルの削除.
+            String vcFileName = groupName + VECTOR_SUMMARY_CACHE_FILE_EXTENSION;
+            if(isFile(path, vcFileName)) {
+                _removeFile(path, vcFileName);
+            }
             // 削除時にエラーが発生している場合.
             if(mre1 != null) {
                 throw mre1;
@@ -731,11 +1656,19 @@ public final class VectorFile {
             docs[i] = list.get(i);
         }
         // 更新されたdocsを保存する.
-        saveGroup(path, groupName, docs);
+        saveGroup(path, groupName, docs, chunksModel);
+        // 保存済みのインデックスの割り当てを更新する.
+        updateIndexFiles(path, groupName, docs);
         // VectorSummaryから削除ファイル名を指定して削除.
         vs.getList().remove(textDocName);
         // VectorSummaryを保存.
         saveSummary(path, groupName, vs);
+        // サマリーキャッシュから削除ファイル名を指定して削除.
+        if(isFile(path, groupName + VECTOR_SUMMARY_CACHE_FILE_EXTENSION)) {
+            VectorSummaryCache sumCache = loadSummaryCache(path, groupName);
+            sumCache.remove(textDocName);
+            saveSummaryCache(path, groupName, sumCache);
+        }
         return true;
     }
 
@@ -0,0 +1,149 @@
+package com.maachang.mrag.vector;
+
+import java.util.*;
+
+/**
+ * VectorGroup検索時の文書条件.
+ * 文書名, 登録時間(VectorSummaryの time), URLの前方一致 で
+ * 検索対象の文書を絞り込みます(指定された条件は全て満たす必要があります).
+ * 条件は検索前に VectorChunk 項番単位のビット列(long[])に変換され、
+ * 対象外の VectorChunk は得点計算を行いません.
+ */
+public final class VectorFilter {
+    // 対象の文書名群(null の場合は条件なし).
+    private Set<String> docNames = null;
+
+    // 登録時間の開始(この時間を含む).
+    private long timeFrom = Long.MIN_VALUE;
+
+    // 登録時間の終了(この時間を含まない).
+    private long timeTo = Long.MAX_VALUE;
+
+    // URLの前方一致(null の場合は条件なし).
+    private String urlPrefix = null;
+
+    // コンストラクタ.
+    public VectorFilter() {}
+
+    // 対象の文書名を設定.
+    // names: 対象の文書名群を設定します.
+    // 戻り値: このオブジェクトが返却されます.
+    public VectorFilter docNames(String... names) {
+        return docNames(Arrays.asList(names));
+    }
+
+    // 対象の文書名を設定.
+    // names: 対象の文書名群を設定します.
+    // 戻り値: このオブジェクトが返却されます.
+    public VectorFilter docNames(Collection<String> names) {
+        docNames = new TreeSet<String>(names);
+        return this;
+    }
+
+    // 登録時間の範囲を設定.
+    // from: 開始時間(UnixTime, この時間を含む)を設定します.
+    // to: 終了時間(UnixTime, この時間を含まない)を設定します.
+    // 戻り値: このオブジェクトが返却されます.
+    public VectorFilter time(long from, long to) {
+        timeFrom = from;
+        timeTo = to;
+        return this;
+    }
+
+    // 指定時間以降に登録された文書を対象に設定.
+    // from: 開始時間(UnixTime, この時間を含む)を設定します.
+    // 戻り値: このオブジェクトが返却されます.
+    public VectorFilter timeFrom(long from) {
+        timeFrom = from;
+        return this;
+    }
+
+    // URLの前方一致を設定.
+    // prefix: URLの前方一致文字列を設定します.
+    // 戻り値: このオブジェクトが返却されます.
+    public VectorFilter urlPrefix(String prefix) {
+        urlPrefix = prefix;
+        return this;
+    }
+
+    // 条件が設定されていないか確認.
+    // 戻り値: true の場合、条件は設定されていません.
+    public boolean isEmpty() {
+        return docNames == null && timeFrom == Long.MIN_VALUE &&
+            timeTo == Long.MAX_VALUE && urlPrefix == null;
+    }
+
+    // 条件を示すキーを取得.
+    // 同じ条件の場合は同じキーが返却されます.
+    // 戻り値: キーが返却されます.
+    public String getKey() {
+        StringBuilder buf = new StringBuilder();
+        buf.append(timeFrom).append(",").append(timeTo).append(",");
+        if(urlPrefix != null) {
+            buf.append(urlPrefix.length()).append(":").append(urlPrefix);
+        }
+        buf.append(",");
+        if(docNames != null) {
+            for(String n : docNames) {
+                buf.append(n.length()).append(":").append(n);
+            }
+        }
+        return buf.toString();
+    }
+
+    // 文書が条件に一致するか確認.
+    // docName: 文書名を設定します.
+    // summary: VectorSummaryを設定します.
+    // 戻り値: true の場合、条件に一致します.
+    public boolean accept(String docName, VectorSummary summary) {
+        if(docNames != null && !docNames.contains(docName)) {
+            return false;
+        }
+        if(timeFrom != Long.MIN_VALUE || timeTo != Long.MAX_VALUE) {
+            Long t = summary == null ? null : summary.getTime(docName);
+            if(t == null || t < timeFrom || t >= timeTo) {
+                return false;
+            }
+        }
+        if(urlPrefix != null) {
+            String url = summary == null ? null : summary.getUrl(docName);
+            if(url == null || !url.startsWith(urlPrefix)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // 条件に一致する VectorChunk 項番のビット列を作成.
+    // 条件は文書単位で１度だけ判定します.
+    // table: 対象のVectorChunkTableを設定します.
+    // summary: VectorSummaryを設定します.
+    // 戻り値: 項番毎のビット列が返却されます.
+    public long[] toBitmap(VectorChunkTable table, VectorSummary summary) {
+        int i;
+        final int docLen = table.docSize();
+        final int len = table.size();
+        boolean[] docs = new boolean[docLen];
+        for(i = 0; i < docLen; i ++) {
+            docs[i] = accept(table.getDocNameById(i), summary);
+        }
+        long[] ret = new long[(len + 63) >>> 6];
+        for(i = 0; i < len; i ++) {
+            if(docs[table.getDocId(i)]) {
+                ret[i >>> 6] |= 1L << (i & 63);
+            }
+        }
+        return ret;
+    }
+
+    // ビット列で対象となる件数を取得.
+    // bitmap: toBitmap で作成したビット列を設定します.
+    // 戻り値: 対象となる件数が返却されます.
+    public static final int count(long[] bitmap) {
+        int ret = 0;
+        for(int i = 0; i < bitmap.length; i ++) {
+            ret += Long.bitCount(bitmap[i]);
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,238 @@
+package com.maachang.mrag.vector;
+
+import com.maachang.mrag.*;
+
+/**
+ * embedding群を１つの連続した float[] (件数 x 次元数) で管理する行列.
+ * VectorChunk毎に float[] を保持しないため、検索時は先頭から
+ * 線形にメモリを読み込んで得点計算を行います.
+ */
+final class VectorFloatMatrix extends VectorMatrix {
+    // embedding群(length x dimension).
+    private final float[] data;
+
+    // [正規化されていない場合]embedding毎の長さ(L2ノルム).
+    private final float[] norms;
+
+    // 枝刈り用の次元ブロック数.
+    // ブロックが小さいと内積の呼び出し回数が増えて遅くなるため、
+    // 次元数を 4分割 した大きさで枝刈りの判定を行います.
+    private static final int BLOCKS = 4;
+
+    // 次元ブロックの大きさ.
+    private final int blockSize;
+
+    // embedding毎の次元ブロック数.
+    private final int blocks;
+
+    // embedding毎の次元ブロック以降の長さ(length x blocks).
+    // [no * blocks + b] は b * blockSize 次元目から最後までのL2ノルムです.
+    private final float[] residuals;
+
+    // コンストラクタ.
+    // length: 格納件数を設定します.
+    // dimension: embeddingの次元数を設定します.
+    // normalized: 格納するembeddingが正規化済みの場合 true を設定します.
+    VectorFloatMatrix(int length, int dimension, boolean normalized) {
+        super(length, dimension, normalized);
+        this.data = new float[(int)capacity(length, dimension)];
+        this.norms = normalized ? null : new float[length];
+        this.blockSize = Math.max(16,
+            ((dimension + BLOCKS - 1) / BLOCKS + 15) & ~15);
+        this.blocks = (dimension + blockSize - 1) / blockSize;
+        this.residuals = new float[length * blocks];
+    }
+
+    // embeddingのエンコードを取得.
+    // 戻り値: ENCODING_FLOAT32 が返却されます.
+    @Override
+    public int getEncoding() {
+        return ENCODING_FLOAT32;
+    }
+
+    // embeddingをセット.
+    // no: 格納先の項番を設定します.
+    // embedding: 格納するembeddingを設定します.
+    @Override
+    public void set(int no, float[] embedding) {
+        checkDimension(embedding);
+        int off = no * dimension;
+        System.arraycopy(embedding, 0, data, off, dimension);
+        if(norms != null) {
+            norms[no] = (float)SCORE.norm(data, off, dimension);
+        }
+        // 後ろの次元ブロックから長さを累積.
+        double r = 0.0d, n;
+        int b, from;
+        for(b = blocks - 1; b >= 0; b --) {
+            from = b * blockSize;
+            n = SCORE.norm(data, off + from,
+                Math.min(blockSize, dimension - from));
+            r += n * n;
+            residuals[no * blocks + b] = (float)Math.sqrt(r);
+        }
+    }
+
+    // embeddingを取得.
+    // no: 取得対象の項番を設定します.
+    // out: 格納先を設定します. null の場合は新しく生成されます.
+    // 戻り値: embeddingが返却されます.
+    @Override
+    public float[] get(int no, float[] out) {
+        if(out == null) {
+            out = new float[dimension];
+        }
+        System.arraycopy(data, no * dimension, out, 0, dimension);
+        return out;
+    }
+
+    // 得点を計算: コサイン類似度.
+    // query: query(float[]) で変換された検索ベクトルを設定します.
+    // queryNorm: queryNorm(float[]) で取得した検索ベクトルの長さを設定します.
+    // no: 対象の項番を設定します.
+    // 戻り値: コサイン類似度が返却されます.
+    @Override
+    public double score(float[] query, double queryNorm, int no) {
+        // 正規化済みの場合は内積のみで計算.
+        if(normalized) {
+            return SCORE.dot(query, data, no * dimension);
+        }
+        // キャッシュされた長さを利用して計算.
+        return SCORE.dot(query, data, no * dimension) /
+            (queryNorm * norms[no] + 1.0E-10);
+    }
+
+    // 格納されているembedding同士の得点を計算: コサイン類似度.
+    // a: 比較元の項番を設定します.
+    // b: 比較先の項番を設定します.
+    // 戻り値: コサイン類似度が返却されます.
+    @Override
+    public double score(int a, int b) {
+        double d = SCORE.dot(data, a * dimension, data, b * dimension, dimension);
+        if(normalized) {
+            return d;
+        }
+        return d / ((double)norms[a] * (double)norms[b] + 1.0E-10);
+    }
+
+    // 指定範囲の得点を計算して上位K件を取得.
+    // query: query(float[]) で変換された検索ベクトルを設定します.
+    // queryNorm: queryNorm(float[]) で取得した検索ベクトルの長さを設定します.
+    // from: 開始項番を設定します.
+    // to: 終了項番(この項番を含まない)を設定します.
+    // out: 上位K件の格納先を設定します.
+    @Override
+    public void scan(float[] query, double queryNorm, int from, int to,
+        VectorTopK out) {
+        int i, off;
+        final int dim = dimension;
+        if(normalized) {
+            // 正規化済みの場合は内積のみで計算.
+            for(i = from, off = from * dim; i < to; i ++, off += dim) {
+                out.add(i, SCORE.dot(query, data, off));
+            }
+        } else {
+            for(i = from, off = from * dim; i < to; i ++, off += dim) {
+                out.add(i, SCORE.dot(query, data, off) /
+                    (queryNorm * norms[i] + 1.0E-10));
+            }
+        }
+    }
+
+    // 最低得点と検索時間を指定して指定範囲の得点を計算して上位K件を取得.
+    // 次元ブロック単位で内積を計算し、残りの次元ブロックの内積の上限
+    // (Cauchy-Schwarz: 検索ベクトルの残りの長さ x embeddingの残りの長さ)を
+    // 加えても 最低得点 または 上位K件の最低得点 を超えない場合は
+    // 残りの計算を行いません.
+    // 最低得点が指定されていない(Double.NEGATIVE_INFINITY)場合は
+    // 枝刈りを行わない通常の得点計算の方が速いため、枝刈りを行いません.
+    // query: query(float[]) で変換された検索ベクトルを設定します.
+    // queryNorm: queryNorm(float[]) で取得した検索ベクトルの長さを設定します.
+    // from: 開始項番を設定します.
+    // to: 終了項番(この項番を含まない)を設定します.
+    // out: 上位K件の格納先を設定します.
+    // minScore: 最低得点を設定します.
+    // deadline: System.nanoTime() による終了時間(NO_DEADLINE の場合は制限なし)を設定します.
+    // 戻り値: false の場合、検索時間を超えたため途中で終了しました.
+    @Override
+    public boolean scan(float[] query, double queryNorm, int from, int to,
+        VectorTopK out, double minScore, long deadline) {
+        if(minScore == Double.NEGATIVE_INFINITY) {
+            return super.scan(query, queryNorm, from, to, out, minScore, deadline);
+        }
+        return pruneScan(query, queryNorm, null, from, to, out, minScore, deadline);
+    }
+
+    // 最低得点と検索時間を指定して指定範囲の対象項番の得点を計算して上位K件を取得.
+    // filter のビットが立っていない項番は得点計算を行いません.
+    // 枝刈りの条件は対象項番を指定しない場合と同じです.
+    // query: query(float[]) で変換された検索ベクトルを設定します.
+    // queryNorm: queryNorm(float[]) で取得した検索ベクトルの長さを設定します.
+    // filter: 対象項番のビット列を設定します(null の場合は全件).
+    // from: 開始項番を設定します.
+    // to: 終了項番(この項番を含まない)を設定します.
+    // out: 上位K件の格納先を設定します.
+    // minScore: 最低得点を設定します.
+    // deadline: System.nanoTime() による終了時間(NO_DEADLINE の場合は制限なし)を設定します.
+    // 戻り値: false の場合、検索時間を超えたため途中で終了しました.
+    @Override
+    public boolean scan(float[] query, double queryNorm, long[] filter,
+        int from, int to, VectorTopK out, double minScore, long deadline) {
+        if(minScore == Double.NEGATIVE_INFINITY) {
+            return super.scan(query, queryNorm, filter, from, to, out, minScore, deadline);
+        }
+        return pruneScan(query, queryNorm, filter, from, to, out, minScore, deadline);
+    }
+
+    // 次元ブロック単位で枝刈りを行いながら指定範囲の得点を計算して上位K件を取得.
+    // query: query(float[]) で変換された検索ベクトルを設定します.
+    // queryNorm: queryNorm(float[]) で取得した検索ベクトルの長さを設定します.
+    // filter: 対象項番のビット列を設定します(null の場合は全件).
+    // from: 開始項番を設定します.
+    // to: 終了項番(この項番を含まない)を設定します.
+    // out: 上位K件の格納先を設定します.
+    // minScore: 最低得点を設定します.
+    // deadline: System.nanoTime() による終了時間(NO_DEADLINE の場合は制限なし)を設定します.
+    // 戻り値: false の場合、検索時間を超えたため途中で終了しました.
+    private final boolean pruneScan(float[] query, double queryNorm, long[] filter,
+        int from, int to, VectorTopK out, double minScore, long deadline) {
+        int i, b, off, rb, bOff, bLen;
+        double dot, limit, denom;
+        final int dim = dimension;
+        final int bl = blocks;
+        // 検索ベクトルの次元ブロック以降の長さ.
+        final double[] qres = VectorScratch.get().blockNorms(bl + 1);
+        qres[bl] = 0.0d;
+        for(b = bl - 1; b >= 0; b --) {
+            bOff = b * blockSize;
+            dot = SCORE.norm(query, bOff, Math.min(blockSize, dim - bOff));
+            qres[b] = Math.sqrt(qres[b + 1] * qres[b + 1] + dot * dot);
+        }
+        for(i = from, off = from * dim, rb = from * bl; i < to;
+            i ++, off += dim, rb += bl) {
+            if(((i - from) % DEADLINE_CHECK_SIZE) == 0 && isExpired(deadline)) {
+                return false;
+            }
+            if(filter != null && (filter[i >>> 6] & (1L << i)) == 0L) {
+                continue;
+            }
+            denom = normalized ? 1.0d : queryNorm * norms[i] + 1.0E-10;
+            // 内積で超える必要がある値.
+            limit = Math.max(minScore, out.minScore()) * denom;
+            dot = 0.0d;
+            for(b = 0; b < bl; b ++) {
+                // 残りの次元ブロックで超えられない場合は枝刈り.
+                if(dot + qres[b] * residuals[rb + b] <= limit) {
+                    break;
+                }
+                bOff = b * blockSize;
+                bLen = Math.min(blockSize, dim - bOff);
+                dot += SCORE.dot(query, bOff, data, off + bOff, bLen);
+            }
+            if(b == bl) {
+                out.add(i, dot / denom);
+            }
+        }
+        return true;
+    }
+}
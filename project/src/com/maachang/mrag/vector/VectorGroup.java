@@ -1,7 +1,10 @@
 package com.maachang.mrag.vector;
 
+import java.io.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.nio.*;
+import java.nio.channels.*;
 import java.nio.file.*;
 
 import com.maachang.mrag.*;
@@ -23,13 +26,37 @@ public class VectorGroup {
     private final long fileTime;
 
     // vectorStore情報.
-    private VectorChunk[] documents;
+    private VectorChunkTable documents;
 
     // vectorSummary情報.
     private VectorSummary summarys;
 
-    // VectorChunkキャッシュ.
-    private Queue<VectorChunk> cache;
+    // HNSWグラフ(作成されていない場合は null).
+    private volatile VectorHnsw hnsw;
+
+    // IVFインデックス(作成されていない場合は null).
+    private volatile VectorIvf ivf;
+
+    // 直積量子化されたembedding(量子化されていない場合は null).
+    private volatile VectorPq pq;
+
+    // BM25の転置インデックス(作成されていない場合は null).
+    private volatile VectorBm25 bm25;
+
+    // 文書条件毎のビット列キャッシュ.
+    // VectorGroupファイルが更新された場合は新しいVectorGroupとなるため、
+    // ファイルの内容毎のキャッシュとなります.
+    private final Map<String, long[]> filterCache =
+        new ConcurrentHashMap<String, long[]>();
+
+    // 文書条件毎のビット列キャッシュの最大数.
+    private static final int FILTER_CACHE_SIZE = 64;
+
+    // embeddingを共有する項番がある場合に多めに検索する件数の倍率.
+    private static final int SHARED_FETCH_FACTOR = 3;
+
+    // 量子化の再計算で検索時間を確認する間隔(件数, 2のべき乗).
+    private static final int PQ_RERANK_CHECK_SIZE = 64;
 
     // コンストラクタ.
     private VectorGroup() {
@@ -47,7 +74,7 @@ public class VectorGroup {
     // smms: ベクトルサマリー情報を設定します.
     public VectorGroup(String group, String path, String fileName,
         long time, VectorChunk[] docs, VectorSummary smms) {
-        this(group, path, fileName, time, docs, smms, null);
+        this(group, path, fileName, time, docs, smms, false);
     } 
 
     // コンストラクタ.
@@ -56,93 +83,652 @@ public class VectorGroup {
     // fileName: ファイル名を設定します.
     // docs: ベクトルストア情報を設定します.
     // smms: ベクトルサマリー情報を設定します.
-    // cman: VectorChunkキャッシュ管理Queueを設定します.
+    // normalized: docsのembeddingが正規化済みの場合 true を設定します.
     public VectorGroup(String group, String path, String fileName,
         long time, VectorChunk[] docs, VectorSummary smms,
-        Queue<VectorChunk> cman) {
+        boolean normalized) {
+        this(group, path, fileName, time,
+            VectorChunkTable.create(docs, normalized), smms);
+    }
+
+    // コンストラクタ.
+    // group: ベクトルストアグループ名を設定します.
+    // path: ファイルパス名を設定します.
+    // fileName: ファイル名を設定します.
+    // docs: 配列単位で管理されたベクトルストア情報を設定します.
+    // smms: ベクトルサマリー情報を設定します.
+    public VectorGroup(String group, String path, String fileName,
+        long time, VectorChunkTable docs, VectorSummary smms) {
         this.group = group;
         this.filePath = path;
         this.fileName = fileName;
         this.fileTime = time;
         this.documents = docs;
         this.summarys = smms;
-        this.cache = cman == null ?
-            new LinkedList<VectorChunk>() : cman;
     }
 
-    // キャッシュ情報から VectorChunk を取得.
-    private final VectorChunk getCache() {
-        VectorChunk ret = cache.poll();
-        if(ret == null) {
-            ret = new VectorChunk();
-        }
-        return ret;
+    // 検索結果を返却.
+    // out: 取得対象の検索結果格納配列を設定します.
+    // queryEmbedding: 組み込みモデルで生成された検索ベクトル配列を設定します.
+    // 戻り値: out に格納された長さが返却されます.
+    public int searchEmbedding(VectorChunk[] out, float[] queryEmbedding) {
+        return searchEmbedding(out, queryEmbedding, null);
     }
 
-    // 得点を計算: コサイン類似度.
-    private static final double score(float[] a, float[] b) {
-        double d = 0.0d, na = 0.0d, nb = 0.-d;
-        float av, bv;
-        int i, len = a.length;
-        for(i = 0; i < len; i ++) {
-            av = a[i]; bv = b[i];
-            d += (double)(av * bv);
-            na += (double)(av * av);
-            nb += (double)(bv * bv);
-        }
-        return (d / (Math.sqrt(na * nb) + 1.0E-10));
-        //return (d / (Math.sqrt(na) * Math.sqrt(nb) + 1e-10));
+    // 文書条件を指定して検索結果を返却.
+    // out: 取得対象の検索結果格納配列を設定します.
+    // queryEmbedding: 組み込みモデルで生成された検索ベクトル配列を設定します.
+    // filter: 文書条件を設定します(null の場合は全件).
+    // 戻り値: out に格納された長さが返却されます.
+    public int searchEmbedding(VectorChunk[] out, float[] queryEmbedding,
+        VectorFilter filter) {
+        return searchEmbedding(
+            out, new float[][] { queryEmbedding }, null, filter);
     }
 
-    // 検索結果を返却.
+    // 複数の検索ベクトルで検索した結果を返却.
+    // 全件検索の場合は embedding毎に全ての検索ベクトルの得点を計算するため、
+    // グループ内のembeddingを１度だけ読み込んで検索します.
+    // 同じVectorChunkが複数の検索ベクトルで該当した場合は一番高い得点となります.
+    // out: 取得対象の検索結果格納配列を設定します.
+    // queryEmbeddings: 組み込みモデルで生成された検索ベクトル配列群を設定します.
+    // 戻り値: out に格納された長さが返却されます.
+    public int searchEmbedding(VectorChunk[] out, float[][] queryEmbeddings) {
+        return searchEmbedding(out, queryEmbeddings, null, null);
+    }
+
+    // 文書条件を指定して複数の検索ベクトルで検索した結果を返却.
+    // out: 取得対象の検索結果格納配列を設定します.
+    // queryEmbeddings: 組み込みモデルで生成された検索ベクトル配列群を設定します.
+    // filter: 文書条件を設定します(null の場合は全件).
+    // 戻り値: out に格納された長さが返却されます.
+    public int searchEmbedding(VectorChunk[] out, float[][] queryEmbeddings,
+        VectorFilter filter) {
+        return searchEmbedding(out, queryEmbeddings, null, filter);
+    }
+
+    // 検索ベクトル群と検索テキストで検索した結果を返却.
+    // ハイブリッド検索が有効でBM25の転置インデックスが作成済みの場合は、
+    // ベクトル検索とBM25検索の順位を Reciprocal Rank Fusion で統合します.
+    // この場合の得点は 1 / (定数 + 順位) の合計となります.
+    // out: 取得対象の検索結果格納配列を設定します.
+    // queryEmbeddings: 組み込みモデルで生成された検索ベクトル配列群を設定します.
+    // queryText: 検索テキストを設定します(null の場合はベクトル検索のみ).
+    // filter: 文書条件を設定します(null の場合は全件).
+    // 戻り値: out に格納された長さが返却されます.
+    public int searchEmbedding(VectorChunk[] out, float[][] queryEmbeddings,
+        String queryText, VectorFilter filter) {
+        return searchEmbedding(out, queryEmbeddings, queryText, filter,
+            Double.NEGATIVE_INFINITY, 0L);
+    }
+
+    // 最低得点と検索時間を指定して検索結果を返却.
+    // 最低得点未満のVectorChunkは返却されません. 全件検索の場合は
+    // 最低得点を超えられないVectorChunkの得点計算を途中で打ち切ります.
+    // 検索時間を超えた場合は、それまでに検索した範囲の結果が返却されます.
     // out: 取得対象の検索結果格納配列を設定します.
     // queryEmbedding: 組み込みモデルで生成された検索ベクトル配列を設定します.
+    // minScore: 最低得点(コサイン類似度)を設定します.
+    // budget: 検索時間(ミリ秒, 0 以下の場合は制限なし)を設定します.
     // 戻り値: out に格納された長さが返却されます.
-    public int searchEmbedding(VectorChunk[] out, float[] queryEmbedding) {
-        // 単純検索.
-        int i;
-        final int len = documents.length;
-        if(len == 0) {
+    public int searchEmbedding(VectorChunk[] out, float[] queryEmbedding,
+        double minScore, long budget) {
+        return searchEmbedding(out, new float[][] { queryEmbedding }, null,
+            null, minScore, budget);
+    }
+
+    // 検索ベクトル群と検索テキストで最低得点と検索時間を指定して検索結果を返却.
+    // ハイブリッド検索の場合、最低得点はベクトル検索の候補にのみ適用されます.
+    // out: 取得対象の検索結果格納配列を設定します.
+    // queryEmbeddings: 組み込みモデルで生成された検索ベクトル配列群を設定します.
+    // queryText: 検索テキストを設定します(null の場合はベクトル検索のみ).
+    // filter: 文書条件を設定します(null の場合は全件).
+    // minScore: 最低得点(コサイン類似度)を設定します.
+    // budget: 検索時間(ミリ秒, 0 以下の場合は制限なし)を設定します.
+    // 戻り値: out に格納された長さが返却されます.
+    public int searchEmbedding(VectorChunk[] out, float[][] queryEmbeddings,
+        String queryText, VectorFilter filter, double minScore, long budget) {
+        final int len = documents.size();
+        if(len == 0 || out.length == 0 || queryEmbeddings.length == 0) {
             return 0;
         }
-        // 同じサイズの配列を生成.
-        VectorChunk[] target = new VectorChunk[len];
-        // 近い言葉の座標を計算する.
-        for(i = 0; i < len; i ++) {
-            target[i] = getCache();
-            documents[i].copy(target[i]);
-            // 得点計算.
-            target[i].score = score(queryEmbedding, target[i].embedding);
-        }
-        // ソート処理で得点の高い順にソート.
-        Arrays.sort(target);
-        // 取得結果を返却する.
-        final int outLen = out.length;
-        int ret = 0;
-        VectorChunk n;
-        for(i = 0; i < outLen; i ++) {
-            if(i >= len) {
-                // documents側の情報の方がoutLenより少ない場合.
-                break;
+        final long deadline = budget > 0L ?
+            System.nanoTime() + budget * 1000000L : VectorMatrix.NO_DEADLINE;
+        Config config = Config.getInstance();
+        long[] bitmap = getFilterBitmap(filter);
+        final int k = fetchLength(out.length);
+        VectorBm25 bm = bm25;
+        if(bm == null || queryText == null || !config.hybridSearch) {
+            // ベクトル検索のみ.
+            return toChunks(out, searchTopK(queryEmbeddings, k,
+                bitmap, config, minScore, deadline), minScore, bitmap);
+        }
+        // ベクトル検索, BM25検索それぞれで候補を取得.
+        final int rk = k * Math.max(1, config.hybridCandidateFactor);
+        VectorTopK vec = searchTopK(queryEmbeddings, rk, bitmap, config,
+            minScore, deadline);
+        Map<Integer, Double> scores = new HashMap<Integer, Double>();
+        fuseRank(scores, vec, config.hybridRrfK, minScore);
+        fuseRank(scores, bm.search(queryText, rk, bitmap), config.hybridRrfK,
+            Double.NEGATIVE_INFINITY);
+        // 統合した得点の上位K件.
+        VectorTopK ret = new VectorTopK(k);
+        for(Map.Entry<Integer, Double> e : scores.entrySet()) {
+            ret.add(e.getKey(), e.getValue());
+        }
+        return toChunks(out, ret, Double.NEGATIVE_INFINITY, bitmap);
+    }
+
+    // 検索する上位件数を取得.
+    // embeddingを共有する項番は同じ得点となり、toChunks で１つにまとめられる
+    // 場合があるため、共有している件数分(最大 K x SHARED_FETCH_FACTOR 件)を
+    // 多めに検索します.
+    private final int fetchLength(int k) {
+        if(!documents.hasShared()) {
+            return k;
+        }
+        return k + Math.min(documents.getSharedSize(), k * SHARED_FETCH_FACTOR);
+    }
+
+    // 上位K件の順位を Reciprocal Rank Fusion の得点として加算.
+    // 最低得点未満の順位は加算しません.
+    private static final void fuseRank(Map<Integer, Double> scores,
+        VectorTopK topK, int rrfK, double minScore) {
+        final int len = topK.sort();
+        int id;
+        Double v;
+        double s;
+        for(int i = 0; i < len && topK.getScore(i) >= minScore; i ++) {
+            id = topK.getId(i);
+            s = 1.0d / (rrfK + i + 1);
+            scores.put(id, (v = scores.get(id)) == null ? s : v + s);
+        }
+    }
+
+    // 検索ベクトル群で上位K件を検索.
+    private final VectorTopK searchTopK(float[][] queryEmbeddings, int k,
+        long[] bitmap, Config config, double minScore, long deadline) {
+        // 文書条件が指定されている場合.
+        if(bitmap != null) {
+            return searchFilter(queryEmbeddings, k, bitmap, config, deadline);
+        }
+        VectorPq p = pq;
+        if(queryEmbeddings.length == 1) {
+            if(p != null) {
+                // 量子化されたembeddingで近似検索.
+                return searchPq(p, queryEmbeddings[0], k,
+                    config.pqRerankFactor, null, deadline);
+            }
+            return searchMatrix(queryEmbeddings[0], k, config,
+                minScore, deadline);
+        } else if(p == null && isFullScan(config)) {
+            // 検索ベクトル群で１度だけ全件検索.
+            return searchMatrix(queryEmbeddings, k, config, deadline);
+        }
+        // 近似検索の場合は検索ベクトル毎に検索して一番高い得点でまとめる.
+        return searchEach(queryEmbeddings, k, config, null,
+            minScore, deadline);
+    }
+
+    // 文書条件のビット列を取得.
+    // 同じ文書条件のビット列はキャッシュされます.
+    // filter: 文書条件を設定します.
+    // 戻り値: 対象項番のビット列が返却されます(条件がない場合は null).
+    public long[] getFilterBitmap(VectorFilter filter) {
+        if(filter == null || filter.isEmpty()) {
+            return null;
+        }
+        String key = filter.getKey();
+        long[] ret = filterCache.get(key);
+        if(ret == null) {
+            ret = filter.toBitmap(documents, summarys);
+            if(filterCache.size() >= FILTER_CACHE_SIZE) {
+                filterCache.clear();
+            }
+            filterCache.put(key, ret);
+        }
+        return ret;
+    }
+
+    // 文書条件のビット列で対象となる VectorChunk のみ検索.
+    // 対象外の VectorChunk は得点計算を行いません.
+    // HNSW, IVF, 符号ビットスケッチは利用せず、対象を全件検索します.
+    private final VectorTopK searchFilter(float[][] queryEmbeddings, int k,
+        long[] bitmap, Config config, long deadline) {
+        if(pq != null) {
+            // 量子化されたembeddingで対象のみ近似検索.
+            return searchEach(queryEmbeddings, k, config, bitmap,
+                Double.NEGATIVE_INFINITY, deadline);
+        }
+        final int qlen = queryEmbeddings.length;
+        final VectorMatrix matrix = documents.getMatrix();
+        float[][] queries = new float[qlen][];
+        double[] queryNorms = new double[qlen];
+        for(int i = 0; i < qlen; i ++) {
+            queries[i] = matrix.query(queryEmbeddings[i]);
+            queryNorms[i] = matrix.queryNorm(queries[i]);
+        }
+        VectorTopK ret = VectorScratch.get().topK(k);
+        matrix.scan(queries, queryNorms, bitmap, 0, documents.size(), ret,
+            deadline);
+        return ret;
+    }
+
+    // 検索ベクトル毎に検索して一番高い得点でまとめる.
+    private final VectorTopK searchEach(float[][] queryEmbeddings, int k,
+        Config config, long[] bitmap, double minScore, long deadline) {
+        int i, j, cnt, id;
+        double score;
+        Double v;
+        VectorTopK t;
+        VectorPq p = pq;
+        Map<Integer, Double> scores = new HashMap<Integer, Double>();
+        for(i = 0; i < queryEmbeddings.length; i ++) {
+            t = p != null ?
+                searchPq(p, queryEmbeddings[i], k,
+                    config.pqRerankFactor, bitmap, deadline) :
+                searchMatrix(queryEmbeddings[i], k, config, minScore, deadline);
+            cnt = t.size();
+            for(j = 0; j < cnt; j ++) {
+                id = t.getId(j);
+                score = t.getScore(j);
+                if((v = scores.get(id)) == null || v < score) {
+                    scores.put(id, score);
+                }
             }
-            n = new VectorChunk();
-            target[i].copy(n);
-            out[i] = n;
-            ret ++;
         }
-        // キャッシュセット.
-        for(i = 0; i < len; i ++) {
-            cache.offer(target[i]);
+        VectorTopK ret = VectorScratch.get().topK(k);
+        for(Map.Entry<Integer, Double> e : scores.entrySet()) {
+            ret.add(e.getKey(), e.getValue());
         }
         return ret;
     }
 
+    // 上位K件の内容を得点の高い順に VectorChunk に変換.
+    // 最低得点未満の内容は変換しません.
+    // embeddingを共有する項番群は同じ得点として まとめて変換し、
+    // 文書名とテキストが同じ項番は最初の１件のみ変換します.
+    // bitmap が指定された場合は対象項番のみ変換します.
+    private final int toChunks(VectorChunk[] out, VectorTopK topK,
+        double minScore, long[] bitmap) {
+        // 得点の高い順に並び替え.
+        final int len = topK.sort();
+        final boolean shared = documents.hasShared();
+        Set<Integer> used = shared ? new HashSet<Integer>() : null;
+        // 上位の内容だけ VectorChunk を生成して返却する.
+        int ret = 0, id, start;
+        double score;
+        for(int i = 0; i < len && ret < out.length &&
+            (score = topK.getScore(i)) >= minScore; i ++) {
+            id = topK.getId(i);
+            if(!shared) {
+                out[ret ++] = toChunk(id, score);
+                continue;
+            }
+            // 共有元から同じembeddingの項番を辿る.
+            if(!used.add(id = documents.getPrimary(id))) {
+                continue;
+            }
+            for(start = ret; id >= 0 && ret < out.length;
+                id = documents.getNextShared(id)) {
+                if((bitmap == null || (bitmap[id >>> 6] & (1L << id)) != 0L) &&
+                    !containsChunk(out, start, ret, id)) {
+                    out[ret ++] = toChunk(id, score);
+                }
+            }
+        }
+        return ret;
+    }
+
+    // 項番の VectorChunk を生成.
+    private final VectorChunk toChunk(int no, double score) {
+        VectorChunk ret = documents.get(no);
+        ret.score = score;
+        ret.group = group;
+        return ret;
+    }
+
+    // 文書名とテキストが同じ VectorChunk が変換済みか確認.
+    private final boolean containsChunk(VectorChunk[] out, int from, int to,
+        int no) {
+        final String text = documents.getText(no);
+        final String docName = documents.getDocName(no);
+        for(int i = from; i < to; i ++) {
+            if(out[i].text.equals(text) && out[i].docName.equals(docName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // embedding行列の全件検索を行うか確認.
+    // HNSW, IVF, 符号ビットスケッチによる絞り込みが有効な場合は false となります.
+    private final boolean isFullScan(Config config) {
+        if(hnsw != null &&
+            Const.VECTOR_SEARCH_MODE_HNSW.equals(config.vectorSearchMode)) {
+            return false;
+        } else if(ivf != null &&
+            Const.VECTOR_SEARCH_MODE_IVF.equals(config.vectorSearchMode)) {
+            return false;
+        }
+        return !(documents.getSketch() != null && config.sketchPrefilter &&
+            config.sketchPrefilterFactor > 0);
+    }
+
+    // 複数の検索ベクトルでembedding行列から上位K件を全件検索.
+    // 得点は float の検索ベクトルで計算するため、int8 でも再計算は行いません.
+    // embeddingを共有する項番は共有元のみ得点計算を行います.
+    private final VectorTopK searchMatrix(
+        float[][] queryEmbeddings, int k, Config config, long deadline) {
+        final int len = documents.size();
+        final long[] unique = documents.getUniqueBitmap();
+        final int qlen = queryEmbeddings.length;
+        final VectorMatrix matrix = documents.getMatrix();
+        // 検索ベクトルを検索毎に１度だけ正規化、または長さを計算.
+        float[][] queries = new float[qlen][];
+        double[] queryNorms = new double[qlen];
+        for(int i = 0; i < qlen; i ++) {
+            queries[i] = matrix.query(queryEmbeddings[i]);
+            queryNorms[i] = matrix.queryNorm(queries[i]);
+        }
+        if(config.parallelSearchThreshold > 0 &&
+            len >= config.parallelSearchThreshold) {
+            // 件数が多い場合は分割して並列検索.
+            return ForkJoinPool.commonPool().invoke(new ScanTask(
+                matrix, queries, queryNorms, unique, 0, len, k,
+                Math.max(1, config.parallelSearchSliceSize),
+                Double.NEGATIVE_INFINITY, deadline));
+        }
+        VectorTopK ret = VectorScratch.get().topK(k);
+        if(unique != null) {
+            matrix.scan(queries, queryNorms, unique, 0, len, ret, deadline);
+        } else {
+            matrix.scan(queries, queryNorms, 0, len, ret, deadline);
+        }
+        return ret;
+    }
+
+    // embedding行列から上位K件を検索.
+    // 全件検索の場合、embeddingを共有する項番は共有元のみ得点計算を行います.
+    private final VectorTopK searchMatrix(float[] queryEmbedding, int k,
+        Config config, double minScore, long deadline) {
+        VectorTopK topK;
+        final int len = documents.size();
+        final VectorMatrix matrix = documents.getMatrix();
+        final VectorScratch scratch = VectorScratch.get();
+        // 検索ベクトルを検索毎に１度だけ正規化、または長さを計算.
+        queryEmbedding = matrix.query(queryEmbedding,
+            scratch.query(queryEmbedding.length));
+        double queryNorm = matrix.queryNorm(queryEmbedding);
+        VectorHnsw h = hnsw;
+        VectorIvf iv = ivf;
+        if(h != null &&
+            Const.VECTOR_SEARCH_MODE_HNSW.equals(config.vectorSearchMode)) {
+            // HNSWグラフで近似検索.
+            return h.search(queryEmbedding, queryNorm,
+                k, config.hnswEfSearch, deadline);
+        }
+        final boolean ivfMode =
+            Const.VECTOR_SEARCH_MODE_IVF.equals(config.vectorSearchMode);
+        VectorSketch sk = documents.getSketch();
+        final int rk;
+        if(sk != null && !ivfMode && config.sketchPrefilter &&
+            config.sketchPrefilterFactor > 0) {
+            // 符号ビットスケッチのハミング距離で候補を絞り込む.
+            rk = k * config.sketchPrefilterFactor;
+            topK = scratch.topK(rk);
+            sk.scan(sk.query(queryEmbedding,
+                scratch.sketchQuery(sk.getWords())), 0, len, topK, deadline);
+        } else {
+            // int8の場合は候補を多めに取得して再計算する.
+            rk = matrix.getEncoding() == VectorMatrix.ENCODING_INT8 &&
+                config.int8RerankFactor > 0 ? k * config.int8RerankFactor : k;
+            if(iv != null && ivfMode) {
+                // IVFインデックスで近似検索.
+                topK = iv.search(queryEmbedding, queryNorm,
+                    rk, config.ivfNprobe, deadline);
+            } else if(config.parallelSearchThreshold > 0 &&
+                len >= config.parallelSearchThreshold) {
+                // 件数が多い場合は分割して並列検索.
+                topK = ForkJoinPool.commonPool().invoke(new ScanTask(
+                    matrix, new float[][] { queryEmbedding },
+                    new double[] { queryNorm }, documents.getUniqueBitmap(),
+                    0, len, rk,
+                    Math.max(1, config.parallelSearchSliceSize),
+                    rk == k ? minScore : Double.NEGATIVE_INFINITY, deadline));
+            } else {
+                final long[] unique = documents.getUniqueBitmap();
+                final double scanMin = rk == k ? minScore : Double.NEGATIVE_INFINITY;
+                topK = scratch.topK(rk);
+                if(unique == null && scanMin == Double.NEGATIVE_INFINITY &&
+                    deadline == VectorMatrix.NO_DEADLINE) {
+                    // 制限が無い場合は全件の得点を計算.
+                    matrix.scan(queryEmbedding, queryNorm, 0, len, topK);
+                } else {
+                    // 最低得点を超えられない得点計算を打ち切る.
+                    matrix.scan(queryEmbedding, queryNorm, unique, 0, len, topK,
+                        scanMin, deadline);
+                }
+            }
+        }
+        if(rk == k) {
+            return topK;
+        }
+        // 候補をfloatの検索ベクトルでコサイン類似度を再計算.
+        VectorTopK ret = scratch.rerankTopK(k);
+        final int cnt = topK.size();
+        int id;
+        for(int i = 0; i < cnt; i ++) {
+            id = topK.getId(i);
+            ret.add(id, matrix.score(queryEmbedding, queryNorm, id));
+        }
+        return ret;
+    }
+
+    // 量子化されたembeddingから上位K件を検索.
+    // 候補を K x rerankFactor 件取得し、VectorGroupファイルに保存された
+    // 元のembeddingで得点を再計算します.
+    // bitmap が指定された場合は対象項番のみ検索します.
+    // 検索時間を超えた場合は、再計算を行わずに近似得点の上位K件を返却します.
+    private final VectorTopK searchPq(VectorPq p, float[] queryEmbedding,
+        int k, int rerankFactor, long[] bitmap, long deadline) {
+        if(rerankFactor <= 0) {
+            return p.search(queryEmbedding, k, bitmap, deadline);
+        }
+        int i, id;
+        VectorTopK cand = p.search(queryEmbedding, k * rerankFactor, bitmap,
+            deadline);
+        final int len = cand.sort();
+        VectorTopK ret = new VectorTopK(k);
+        String name = filePath + "/" + fileName;
+        // 元のembeddingで再計算.
+        try {
+            // 検索時間を超えている、またはファイルが更新されている場合は再計算できない.
+            if(!VectorMatrix.isExpired(deadline) &&
+                VectorFile.getFileTime(name) == fileTime) {
+                VectorScore score = VectorScore.getInstance();
+                ByteBuffer buf = VectorFile.createEmbeddingBuffer(documents);
+                float[] emb = new float[documents.getDimension()];
+                try(FileChannel ch = FileChannel.open(
+                    Paths.get(name), StandardOpenOption.READ)) {
+                    for(i = 0; i < len; i ++) {
+                        // 一定件数毎に検索時間を確認.
+                        if((i & (PQ_RERANK_CHECK_SIZE - 1)) == 0 &&
+                            VectorMatrix.isExpired(deadline)) {
+                            break;
+                        }
+                        id = cand.getId(i);
+                        VectorFile.readEmbedding(ch, documents, id, buf, emb);
+                        ret.add(id, score.cosine(queryEmbedding, emb));
+                    }
+                }
+                // 全件を再計算して、読み込み中に更新されていない場合は再計算結果を返却.
+                if(i == len && VectorFile.getFileTime(name) == fileTime) {
+                    return ret;
+                }
+            }
+        } catch(Exception e) {
+            // 読み込み中にファイルが更新・削除された場合は近似得点を利用.
+            // それ以外の読み込みエラーはエラーとして返却する.
+            if(new File(name).lastModified() == fileTime) {
+                throw e instanceof MRagException ?
+                    (MRagException)e : new MRagException(e);
+            }
+        }
+        // 近似得点の上位K件を返却.
+        ret.clear(k);
+        for(i = 0; i < len && i < k; i ++) {
+            ret.add(cand.getId(i), cand.getScore(i));
+        }
+        return ret;
+    }
+
+    // 並列検索タスク.
+    // 範囲を分割して各範囲毎に上位K件を取得し、最後にまとめます.
+    // シリアライズは行わない.
+    @SuppressWarnings("serial")
+    private static final class ScanTask extends RecursiveTask<VectorTopK> {
+        private final VectorMatrix matrix;
+        private final float[][] queries;
+        private final double[] queryNorms;
+        private final long[] filter;
+        private final int from;
+        private final int to;
+        private final int k;
+        private final int sliceSize;
+        private final double minScore;
+        private final long deadline;
+
+        // コンストラクタ.
+        // matrix: 検索対象のembedding行列を設定します.
+        // queries: 得点計算用の検索ベクトル群を設定します.
+        // queryNorms: 検索ベクトルの長さ群を設定します.
+        // filter: 対象項番のビット列を設定します(null の場合は全件).
+        // from: 開始項番を設定します.
+        // to: 終了項番(この項番を含まない)を設定します.
+        // k: 取得する上位件数を設定します.
+        // sliceSize: 1タスクで処理する最小件数を設定します.
+        // minScore: 最低得点を設定します.
+        // deadline: System.nanoTime() による終了時間を設定します.
+        ScanTask(VectorMatrix matrix, float[][] queries, double[] queryNorms,
+            long[] filter, int from, int to, int k, int sliceSize,
+            double minScore, long deadline) {
+            this.matrix = matrix;
+            this.queries = queries;
+            this.queryNorms = queryNorms;
+            this.filter = filter;
+            this.from = from;
+            this.to = to;
+            this.k = k;
+            this.sliceSize = sliceSize;
+            this.minScore = minScore;
+            this.deadline = deadline;
+        }
+
+        // タスク実行.
+        @Override
+        protected VectorTopK compute() {
+            // 指定件数以下の場合は、この範囲を直接検索.
+            if(to - from <= sliceSize) {
+                VectorTopK ret = new VectorTopK(k);
+                if(queries.length == 1) {
+                    matrix.scan(queries[0], queryNorms[0], filter, from, to,
+                        ret, minScore, deadline);
+                } else if(filter != null) {
+                    matrix.scan(queries, queryNorms, filter, from, to, ret,
+                        deadline);
+                } else {
+                    matrix.scan(queries, queryNorms, from, to, ret, deadline);
+                }
+                return ret;
+            }
+            // 範囲を２分割.
+            int mid = (from + to) >>> 1;
+            ScanTask left = new ScanTask(matrix, queries, queryNorms, filter,
+                from, mid, k, sliceSize, minScore, deadline);
+            ScanTask right = new ScanTask(matrix, queries, queryNorms, filter,
+                mid, to, k, sliceSize, minScore, deadline);
+            left.fork();
+            VectorTopK ret = right.compute();
+            // 分割した結果をまとめる.
+            ret.merge(left.join());
+            return ret;
+        }
+    }
+
     // グループ内のVectorChunk群を取得.
+    // この処理では全件分の VectorChunk が生成されます.
     // 戻り値: VectorChunk群が返却されます.
     public VectorChunk[] getChunked() {
+        return documents.getChunks();
+    }
+
+    // 配列単位で管理されたグループ内のVectorChunk群を取得.
+    // 戻り値: VectorChunkTableが返却されます.
+    public VectorChunkTable getChunkTable() {
         return documents;
     }
 
+    // HNSWグラフをセット.
+    // 作成されるまでは全件検索が行われます.
+    // h: 対象のHNSWグラフを設定します.
+    public void setHnsw(VectorHnsw h) {
+        hnsw = h;
+    }
+
+    // HNSWグラフを取得.
+    // 戻り値: HNSWグラフが返却されます(作成されていない場合は null).
+    public VectorHnsw getHnsw() {
+        return hnsw;
+    }
+
+    // IVFインデックスをセット.
+    // 作成されるまでは全件検索が行われます.
+    // v: 対象のIVFインデックスを設定します.
+    public void setIvf(VectorIvf v) {
+        ivf = v;
+    }
+
+    // IVFインデックスを取得.
+    // 戻り値: IVFインデックスが返却されます(作成されていない場合は null).
+    public VectorIvf getIvf() {
+        return ivf;
+    }
+
+    // BM25の転置インデックスをセット.
+    // 作成されるまではベクトル検索のみが行われます.
+    // b: 対象のBM25の転置インデックスを設定します.
+    public void setBm25(VectorBm25 b) {
+        bm25 = b;
+    }
+
+    // BM25の転置インデックスを取得.
+    // 戻り値: BM25の転置インデックスが返却されます(作成されていない場合は null).
+    public VectorBm25 getBm25() {
+        return bm25;
+    }
+
+    // 直積量子化されたembeddingをセット.
+    // この処理で元のembedding行列はメモリから解放され、
+    // 以降の検索は量子化されたembeddingで行われます.
+    // p: 対象の直積量子化されたembeddingを設定します.
+    public void setPq(VectorPq p) {
+        pq = p;
+        documents.releaseMatrix();
+    }
+
+    // 直積量子化されたembeddingを取得.
+    // 戻り値: 直積量子化されたembeddingが返却されます(量子化されていない場合は null).
+    public VectorPq getPq() {
+        return pq;
+    }
+
+    // embeddingが正規化済みか確認.
+    // 戻り値: true の場合、embeddingは正規化済みです.
+    public boolean isNormalized() {
+        return documents.isNormalized();
+    }
+
     // グループ内のVectorSummaryを取得.
     // 戻り値: VectorSummaryが返却されます.
     public VectorSummary getSummary() {
@@ -155,6 +741,12 @@ public class VectorGroup {
         return group;
     }
 
+    // vectorGroupのファイルパスを取得.
+    // 戻り値: ファイルパスが返却されます.
+    public String getFilePath() {
+        return filePath;
+    }
+
     // vectorGroupのファイル名を取得.
     // 戻り値: ファイル名が返却されます.
     public String getFileName() {
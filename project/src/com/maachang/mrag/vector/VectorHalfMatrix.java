@@ -0,0 +1,181 @@
+package com.maachang.mrag.vector;
+
+/**
+ * embedding群を 16bit浮動小数点 (float16 または bfloat16) で管理する行列.
+ * float32 と比べて 1/2 のメモリで保持でき、得点計算時に
+ * float へ変換しながら内積を計算します.
+ *  - float16: IEEE 754 半精度(仮数部 10bit, 指数部 5bit).
+ *  - bfloat16: float32 の上位16bit(仮数部 7bit, 指数部 8bit).
+ */
+final class VectorHalfMatrix extends VectorMatrix {
+    // embedding群(length x dimension).
+    private final short[] data;
+
+    // embedding毎の長さ(16bitに変換後のL2ノルム).
+    // 変換誤差があるため正規化済みでも保持します.
+    private final float[] norms;
+
+    // bfloat16 の場合 true.
+    private final boolean bfloat16;
+
+    // コンストラクタ.
+    // length: 格納件数を設定します.
+    // dimension: embeddingの次元数を設定します.
+    // normalized: 格納するembeddingが正規化済みの場合 true を設定します.
+    // bfloat16: bfloat16 で保持する場合 true を設定します.
+    VectorHalfMatrix(int length, int dimension, boolean normalized,
+        boolean bfloat16) {
+        super(length, dimension, normalized);
+        this.data = new short[(int)capacity(length, dimension)];
+        this.norms = new float[length];
+        this.bfloat16 = bfloat16;
+    }
+
+    // floatを16bit浮動小数点に変換.
+    // value: 変換元の値を設定します.
+    // bfloat16: bfloat16 に変換する場合 true を設定します.
+    // 戻り値: 16bit浮動小数点が返却されます.
+    static final short toHalf(float value, boolean bfloat16) {
+        if(!bfloat16) {
+            return Float.floatToFloat16(value);
+        }
+        int bits = Float.floatToRawIntBits(value);
+        // NaN はそのまま上位16bitを利用(仮数部が0にならないようにする).
+        if(Float.isNaN(value)) {
+            return (short)((bits >>> 16) | 0x0040);
+        }
+        // 最近接偶数丸め.
+        bits += 0x7fff + ((bits >>> 16) & 1);
+        return (short)(bits >>> 16);
+    }
+
+    // 16bit浮動小数点をfloatに変換.
+    // value: 変換元の値を設定します.
+    // bfloat16: bfloat16 の場合 true を設定します.
+    // 戻り値: floatが返却されます.
+    static final float toFloat(short value, boolean bfloat16) {
+        if(bfloat16) {
+            return Float.intBitsToFloat(value << 16);
+        }
+        return Float.float16ToFloat(value);
+    }
+
+    // floatのベクトルを16bit浮動小数点に変換.
+    // src: 変換元のベクトルを設定します.
+    // out: 変換先を設定します.
+    // outOff: out の開始位置を設定します.
+    // bfloat16: bfloat16 に変換する場合 true を設定します.
+    static final void encode(float[] src, short[] out, int outOff,
+        boolean bfloat16) {
+        int len = src.length;
+        for(int i = 0; i < len; i ++) {
+            out[outOff + i] = toHalf(src[i], bfloat16);
+        }
+    }
+
+    // embeddingのエンコードを取得.
+    // 戻り値: ENCODING_FLOAT16 または ENCODING_BFLOAT16 が返却されます.
+    @Override
+    public int getEncoding() {
+        return bfloat16 ? ENCODING_BFLOAT16 : ENCODING_FLOAT16;
+    }
+
+    // embeddingをセット.
+    // no: 格納先の項番を設定します.
+    // embedding: 格納するembeddingを設定します.
+    @Override
+    public void set(int no, float[] embedding) {
+        checkDimension(embedding);
+        encode(embedding, data, no * dimension, bfloat16);
+        norms[no] = norm(no);
+    }
+
+    // 16bit浮動小数点に変換済みのembeddingをセット.
+    // no: 格納先の項番を設定します.
+    // src: 16bit浮動小数点のembeddingが格納された配列を設定します.
+    // srcOff: src の開始位置を設定します.
+    public void set(int no, short[] src, int srcOff) {
+        System.arraycopy(src, srcOff, data, no * dimension, dimension);
+        norms[no] = norm(no);
+    }
+
+    // 変換後の長さを計算.
+    private final float norm(int no) {
+        final int off = no * dimension;
+        double n = 0.0d;
+        float v;
+        for(int i = 0; i < dimension; i ++) {
+            v = toFloat(data[off + i], bfloat16);
+            n += (double)(v * v);
+        }
+        return (float)Math.sqrt(n);
+    }
+
+    // embeddingを取得.
+    // no: 取得対象の項番を設定します.
+    // out: 格納先を設定します. null の場合は新しく生成されます.
+    // 戻り値: embeddingが返却されます.
+    @Override
+    public float[] get(int no, float[] out) {
+        if(out == null) {
+            out = new float[dimension];
+        }
+        final int off = no * dimension;
+        for(int i = 0; i < dimension; i ++) {
+            out[i] = toFloat(data[off + i], bfloat16);
+        }
+        return out;
+    }
+
+    // 16bit浮動小数点のembeddingを取得.
+    // no: 取得対象の項番を設定します.
+    // out: 格納先を設定します.
+    // outOff: out の開始位置を設定します.
+    public void get(int no, short[] out, int outOff) {
+        System.arraycopy(data, no * dimension, out, outOff, dimension);
+    }
+
+    // 得点を計算: コサイン類似度.
+    // query: query(float[]) で変換された検索ベクトルを設定します.
+    // queryNorm: queryNorm(float[]) で取得した検索ベクトルの長さを設定します.
+    // no: 対象の項番を設定します.
+    // 戻り値: コサイン類似度が返却されます.
+    @Override
+    public double score(float[] query, double queryNorm, int no) {
+        return SCORE.dot(query, data, no * dimension, bfloat16) /
+            (queryNorm * norms[no] + 1.0E-10);
+    }
+
+    // 格納されているembedding同士の得点を計算: コサイン類似度.
+    // a: 比較元の項番を設定します.
+    // b: 比較先の項番を設定します.
+    // 戻り値: コサイン類似度が返却されます.
+    @Override
+    public double score(int a, int b) {
+        final int aOff = a * dimension;
+        final int bOff = b * dimension;
+        double d = 0.0d;
+        for(int i = 0; i < dimension; i ++) {
+            d += (double)(toFloat(data[aOff + i], bfloat16) *
+                toFloat(data[bOff + i], bfloat16));
+        }
+        return d / ((double)norms[a] * (double)norms[b] + 1.0E-10);
+    }
+
+    // 指定範囲の得点を計算して上位K件を取得.
+    // query: query(float[]) で変換された検索ベクトルを設定します.
+    // queryNorm: queryNorm(float[]) で取得した検索ベクトルの長さを設定します.
+    // from: 開始項番を設定します.
+    // to: 終了項番(この項番を含まない)を設定します.
+    // out: 上位K件の格納先を設定します.
+    @Override
+    public void scan(float[] query, double queryNorm, int from, int to,
+        VectorTopK out) {
+        int i, off;
+        final int dim = dimension;
+        for(i = from, off = from * dim; i < to; i ++, off += dim) {
+            out.add(i, SCORE.dot(query, data, off, bfloat16) /
+                (queryNorm * norms[i] + 1.0E-10));
+        }
+    }
+}
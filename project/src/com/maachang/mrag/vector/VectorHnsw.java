@@ -0,0 +1,608 @@
+package com.maachang.mrag.vector;
+
+import java.io.*;
+import java.util.*;
+
+import com.maachang.mrag.*;
+
+/**
+ * HNSW(Hierarchical Navigable Small World)グラフによる近似最近傍検索インデックス.
+ * グラフのノードは VectorMatrix の項番で管理されます.
+ */
+public final class VectorHnsw {
+    // HNSWファイルシンボル.
+    private static final String HNSW_FILE_SIMBOL = "@vgh";
+
+    // シンボルの文字数.
+    private static final int SIMBOLE_SIZE = 4;
+
+    // 最大レイヤ.
+    private static final int MAX_LEVEL = 15;
+
+    // 検索時間を確認する間隔(探索ノード数, 2のべき乗).
+    private static final int SEARCH_CHECK_SIZE = 64;
+
+    // レイヤ生成用の乱数シード.
+    private static final long LEVEL_SEED = 0x6d72616748L;
+
+    // 対象のembedding行列.
+    private final VectorMatrix matrix;
+
+    // レイヤ1以上の1ノードの最大接続数.
+    private final int m;
+
+    // レイヤ0の1ノードの最大接続数.
+    private final int m0;
+
+    // グラフ作成時の探索候補数.
+    private final int efConstruction;
+
+    // ノード毎のレイヤ.
+    private final byte[] levels;
+
+    // レイヤ0の接続情報.
+    // ノード毎に [接続数, 接続先1, ... 接続先m0] の (m0 + 1) 単位で格納.
+    private final int[] links0;
+
+    // レイヤ1以上の接続情報.
+    // ノード毎にレイヤ単位で [接続数, 接続先1, ... 接続先m] の (m + 1) 単位で格納.
+    private final int[][] upperLinks;
+
+    // 検索開始ノード.
+    private int entryPoint = -1;
+
+    // 最大レイヤ.
+    private int maxLevel = -1;
+
+    // コンストラクタ.
+    private VectorHnsw(VectorMatrix matrix, int m, int efConstruction,
+        byte[] levels) {
+        int len = levels.length;
+        this.matrix = matrix;
+        this.m = m;
+        this.m0 = m * 2;
+        this.efConstruction = efConstruction;
+        this.levels = levels;
+        this.links0 = new int[len * (m0 + 1)];
+        this.upperLinks = new int[len][];
+        for(int i = 0; i < len; i ++) {
+            if(levels[i] > 0) {
+                upperLinks[i] = new int[levels[i] * (m + 1)];
+            }
+        }
+    }
+
+    // HNSWグラフを作成.
+    // matrix: 対象のembedding行列を設定します.
+    // m: 1ノードの最大接続数を設定します.
+    // efConstruction: グラフ作成時の探索候補数を設定します.
+    // 戻り値: HNSWグラフが返却されます.
+    public static final VectorHnsw build(
+        VectorMatrix matrix, int m, int efConstruction) {
+        if(m < 2) {
+            throw new MRagException("Invalid HNSW parameter M: " + m);
+        }
+        efConstruction = Math.max(efConstruction, m);
+        int i, len = matrix.size();
+        // ノード毎のレイヤを作成.
+        byte[] levels = new byte[len];
+        Random rand = new Random(LEVEL_SEED);
+        double ml = 1.0d / Math.log(m);
+        for(i = 0; i < len; i ++) {
+            levels[i] = (byte)Math.min(MAX_LEVEL,
+                (int)(-Math.log(1.0d - rand.nextDouble()) * ml));
+        }
+        VectorHnsw ret = new VectorHnsw(matrix, m, efConstruction, levels);
+        // ノードを順番に追加.
+        Context ctx = new Context(matrix.getDimension(), efConstruction);
+        for(i = 0; i < len; i ++) {
+            ret.insert(i, ctx);
+        }
+        return ret;
+    }
+
+    // 格納ノード数を取得.
+    // 戻り値: ノード数が返却されます.
+    public int size() {
+        return levels.length;
+    }
+
+    // 1ノードの最大接続数を取得.
+    // 戻り値: 最大接続数が返却されます.
+    public int getM() {
+        return m;
+    }
+
+    // グラフ作成時の探索候補数を取得.
+    // 戻り値: 探索候補数が返却されます.
+    public int getEfConstruction() {
+        return efConstruction;
+    }
+
+    // 接続情報の配列を取得.
+    private final int[] links(int node, int layer) {
+        return layer == 0 ? links0 : upperLinks[node];
+    }
+
+    // 接続情報の開始位置を取得.
+    private final int linkBase(int node, int layer) {
+        return layer == 0 ? node * (m0 + 1) : (layer - 1) * (m + 1);
+    }
+
+    // レイヤの最大接続数を取得.
+    private final int maxLinks(int layer) {
+        return layer == 0 ? m0 : m;
+    }
+
+    // 上位レイヤから指定レイヤの手前まで貪欲探索を行い、最も近いノードを取得.
+    private final int greedy(float[] query, double queryNorm, int cur,
+        double[] curScore, int toLayer) {
+        int i, n, b, cnt;
+        int[] arr;
+        double s, cs = curScore[0];
+        boolean changed;
+        for(int l = maxLevel; l > toLayer; l --) {
+            changed = true;
+            while(changed) {
+                changed = false;
+                arr = links(cur, l);
+                b = linkBase(cur, l);
+                cnt = arr[b];
+                for(i = 1; i <= cnt; i ++) {
+                    n = arr[b + i];
+                    s = matrix.score(query, queryNorm, n);
+                    if(s > cs) {
+                        cs = s;
+                        cur = n;
+                        changed = true;
+                    }
+                }
+            }
+        }
+        curScore[0] = cs;
+        return cur;
+    }
+
+    // 指定レイヤを探索して ctx.results に上位 ef 件を格納.
+    // 検索時間を超えた場合は、それまでに探索した上位 ef 件で終了します.
+    private final void searchLayer(float[] query, double queryNorm,
+        int ep, double epScore, int ef, int layer, Context ctx, long deadline) {
+        int i, c, n, b, cnt, pops = 0;
+        int[] arr;
+        double s;
+        final IntSet visited = ctx.visited;
+        final Candidates cand = ctx.candidates;
+        final VectorTopK res = ctx.results.clear(ef);
+        visited.clear();
+        cand.clear();
+        visited.add(ep);
+        cand.push(ep, epScore);
+        res.add(ep, epScore);
+        while(cand.size() > 0) {
+            // 候補の中で一番近いノード.
+            if(res.isFull() && cand.topScore() < res.minScore()) {
+                break;
+            }
+            // 一定回数毎に検索時間を確認.
+            if((++ pops & (SEARCH_CHECK_SIZE - 1)) == 0 &&
+                VectorMatrix.isExpired(deadline)) {
+                break;
+            }
+            c = cand.pop();
+            arr = links(c, layer);
+            b = linkBase(c, layer);
+            cnt = arr[b];
+            for(i = 1; i <= cnt; i ++) {
+                n = arr[b + i];
+                if(!visited.add(n)) {
+                    continue;
+                }
+                s = matrix.score(query, queryNorm, n);
+                if(!res.isFull() || s > res.minScore()) {
+                    cand.push(n, s);
+                    res.add(n, s);
+                }
+            }
+        }
+    }
+
+    // ノードを追加.
+    private final void insert(int q, Context ctx) {
+        int level = levels[q];
+        if(entryPoint < 0) {
+            entryPoint = q;
+            maxLevel = level;
+            return;
+        }
+        int i, l, len, cnt, b;
+        int[] arr;
+        float[] vec = matrix.get(q, ctx.vec);
+        double vecNorm = matrix.queryNorm(vec);
+        double[] curScore = ctx.curScore;
+        curScore[0] = matrix.score(vec, vecNorm, entryPoint);
+        // 追加レイヤより上位は貪欲探索.
+        int cur = greedy(vec, vecNorm, entryPoint, curScore, level);
+        for(l = Math.min(level, maxLevel); l >= 0; l --) {
+            searchLayer(vec, vecNorm, cur, curScore[0], efConstruction, l, ctx,
+                VectorMatrix.NO_DEADLINE);
+            len = ctx.results.sort();
+            for(i = 0; i < len; i ++) {
+                ctx.selIds[i] = ctx.results.getId(i);
+                ctx.selScores[i] = ctx.results.getScore(i);
+            }
+            // 次のレイヤの開始ノード.
+            cur = ctx.selIds[0];
+            curScore[0] = ctx.selScores[0];
+            // 接続先を選択してセット.
+            cnt = selectNeighbors(
+                ctx.selIds, ctx.selScores, len, maxLinks(l), ctx);
+            arr = links(q, l);
+            b = linkBase(q, l);
+            arr[b] = cnt;
+            System.arraycopy(ctx.selIds, 0, arr, b + 1, cnt);
+            // 接続先からも接続.
+            for(i = 0; i < cnt; i ++) {
+                connect(arr[b + 1 + i], q, l, ctx);
+            }
+        }
+        if(level > maxLevel) {
+            maxLevel = level;
+            entryPoint = q;
+        }
+    }
+
+    // 接続先をヒューリスティックで選択.
+    // 得点の高い順に並んだ候補から、既に選択されたノードより
+    // 基準ノードに近い候補を選択し、足りない場合は残りを得点順に追加します.
+    // ids: 得点の高い順に並んだ候補を設定します. 選択結果が先頭から格納されます.
+    // scores: ids に対する基準ノードとの得点を設定します.
+    // len: 候補数を設定します.
+    // max: 最大選択数を設定します.
+    // ctx: 作業領域を設定します.
+    // 戻り値: 選択数が返却されます.
+    private final int selectNeighbors(int[] ids, double[] scores,
+        int len, int max, Context ctx) {
+        if(len <= max) {
+            return len;
+        }
+        int i, j, c, sel = 0, rest = 0;
+        double cs;
+        boolean good;
+        int[] restIds = ctx.restIds;
+        double[] restScores = ctx.restScores;
+        for(i = 0; i < len && sel < max; i ++) {
+            c = ids[i];
+            cs = scores[i];
+            good = true;
+            for(j = 0; j < sel; j ++) {
+                if(matrix.score(c, ids[j]) > cs) {
+                    good = false;
+                    break;
+                }
+            }
+            if(good) {
+                ids[sel] = c;
+                scores[sel] = cs;
+                sel ++;
+            } else {
+                restIds[rest] = c;
+                restScores[rest] = cs;
+                rest ++;
+            }
+        }
+        // 足りない場合は除外された候補を得点順に追加.
+        for(i = 0; sel < max && i < rest; i ++) {
+            ids[sel] = restIds[i];
+            scores[sel] = restScores[i];
+            sel ++;
+        }
+        return sel;
+    }
+
+    // node に target への接続を追加.
+    // 接続数が上限を超える場合は接続先を選択し直します.
+    private final void connect(int node, int target, int layer, Context ctx) {
+        int[] arr = links(node, layer);
+        int b = linkBase(node, layer);
+        int cnt = arr[b];
+        int max = maxLinks(layer);
+        if(cnt < max) {
+            arr[b + 1 + cnt] = target;
+            arr[b] = cnt + 1;
+            return;
+        }
+        // 既存の接続先 + target を得点の高い順に並べる.
+        int i, j, id;
+        double s;
+        int[] ids = ctx.shrinkIds;
+        double[] scores = ctx.shrinkScores;
+        for(i = 0; i <= cnt; i ++) {
+            id = i < cnt ? arr[b + 1 + i] : target;
+            s = matrix.score(node, id);
+            // 挿入ソート.
+            for(j = i; j > 0 && scores[j - 1] < s; j --) {
+                ids[j] = ids[j - 1];
+                scores[j] = scores[j - 1];
+            }
+            ids[j] = id;
+            scores[j] = s;
+        }
+        cnt = selectNeighbors(ids, scores, cnt + 1, max, ctx);
+        arr[b] = cnt;
+        System.arraycopy(ids, 0, arr, b + 1, cnt);
+    }
+
+    // 近似検索.
+    // query: VectorMatrix.query(float[]) で変換された検索ベクトルを設定します.
+    // queryNorm: VectorMatrix.queryNorm(float[]) で取得した検索ベクトルの長さを設定します.
+    // k: 取得件数を設定します.
+    // ef: 検索時の探索候補数を設定します.
+    // 戻り値: 上位K件が返却されます.
+    public VectorTopK search(float[] query, double queryNorm, int k, int ef) {
+        return search(query, queryNorm, k, ef, VectorMatrix.NO_DEADLINE);
+    }
+
+    // 検索時間を指定して近似検索.
+    // 検索時間を超えた場合は、それまでに探索した上位K件で終了します.
+    // query: VectorMatrix.query(float[]) で変換された検索ベクトルを設定します.
+    // queryNorm: VectorMatrix.queryNorm(float[]) で取得した検索ベクトルの長さを設定します.
+    // k: 取得件数を設定します.
+    // ef: 検索時の探索候補数を設定します.
+    // deadline: System.nanoTime() による終了時間(VectorMatrix.NO_DEADLINE の場合は制限なし)を設定します.
+    // 戻り値: 上位K件が返却されます.
+    public VectorTopK search(float[] query, double queryNorm, int k, int ef,
+        long deadline) {
+        VectorTopK ret = new VectorTopK(k);
+        if(entryPoint < 0 || k <= 0) {
+            return ret;
+        }
+        ef = Math.max(ef, k);
+        Context ctx = new Context(0, ef);
+        double[] curScore = ctx.curScore;
+        curScore[0] = matrix.score(query, queryNorm, entryPoint);
+        int cur = greedy(query, queryNorm, entryPoint, curScore, 0);
+        searchLayer(query, queryNorm, cur, curScore[0], ef, 0, ctx, deadline);
+        ret.merge(ctx.results);
+        return ret;
+    }
+
+    // HNSWグラフを保存(serialize).
+    // out: 保存先のOutputStreamを設定します.
+    // fileTime: 元のVectorGroupファイルの更新時間を設定します.
+    public void save(OutputStream out, long fileTime) {
+        int i, j, b, cnt, lv;
+        int[] arr;
+        int len = levels.length;
+        try {
+            // ファイルシンボルを出力.
+            out.write(EncodeBinary.getString(HNSW_FILE_SIMBOL));
+            // 元のVectorGroupファイルの情報.
+            out.write(EncodeBinary.getLong(fileTime));
+            out.write(EncodeBinary.getInt(len));
+            out.write(EncodeBinary.getInt3(matrix.getDimension()));
+            // グラフ作成パラメータ.
+            out.write(EncodeBinary.getInt2(m));
+            out.write(EncodeBinary.getInt2(efConstruction));
+            // 検索開始ノードと最大レイヤ.
+            out.write(EncodeBinary.getInt(entryPoint));
+            out.write(EncodeBinary.getInt1(maxLevel + 1));
+            // ノード毎のレイヤ.
+            out.write(levels);
+            // ノード毎の接続情報.
+            for(i = 0; i < len; i ++) {
+                lv = levels[i];
+                for(j = 0; j <= lv; j ++) {
+                    arr = links(i, j);
+                    b = linkBase(i, j);
+                    cnt = arr[b];
+                    out.write(EncodeBinary.getInt2(cnt));
+                    for(int k = 1; k <= cnt; k ++) {
+                        out.write(EncodeBinary.getInt(arr[b + k]));
+                    }
+                }
+            }
+            out.flush();
+        } catch(Exception e) {
+            throw new MRagException(e);
+        }
+    }
+
+    // HNSWグラフをバイナリロード処理.
+    // binary: バイナリを設定します.
+    // matrix: 対象のembedding行列を設定します.
+    // fileTime: 元のVectorGroupファイルの更新時間を設定します.
+    // m: 1ノードの最大接続数を設定します.
+    // efConstruction: グラフ作成時の探索候補数を設定します.
+    // 戻り値: 条件が一致しない場合は null が返却されます.
+    public static final VectorHnsw load(byte[] binary, VectorMatrix matrix,
+        long fileTime, int m, int efConstruction) {
+        DecodeBinary bd = new DecodeBinary(binary);
+        // ファイルシンボルの確認.
+        if(!HNSW_FILE_SIMBOL.equals(bd.getString(SIMBOLE_SIZE))) {
+            throw new MRagException("Not a HNSW file symbol");
+        }
+        // 元のVectorGroupファイルと条件が一致するか確認.
+        if(bd.getLong() != fileTime ||
+            bd.getInt() != matrix.size() ||
+            bd.getUInt3() != matrix.getDimension() ||
+            bd.getUInt2() != m ||
+            bd.getUInt2() != Math.max(efConstruction, m)) {
+            return null;
+        }
+        int i, j, b, cnt;
+        int[] arr;
+        int len = matrix.size();
+        int entryPoint = bd.getInt();
+        int maxLevel = bd.getUInt1() - 1;
+        byte[] levels = new byte[len];
+        for(i = 0; i < len; i ++) {
+            levels[i] = (byte)bd.getUInt1();
+        }
+        VectorHnsw ret = new VectorHnsw(
+            matrix, m, Math.max(efConstruction, m), levels);
+        ret.entryPoint = entryPoint;
+        ret.maxLevel = maxLevel;
+        for(i = 0; i < len; i ++) {
+            for(j = 0; j <= levels[i]; j ++) {
+                arr = ret.links(i, j);
+                b = ret.linkBase(i, j);
+                cnt = bd.getUInt2();
+                arr[b] = cnt;
+                for(int k = 1; k <= cnt; k ++) {
+                    arr[b + k] = bd.getInt();
+                }
+            }
+        }
+        return ret;
+    }
+
+    // 探索用の作業領域.
+    private static final class Context {
+        final IntSet visited = new IntSet(1024);
+        final Candidates candidates = new Candidates(256);
+        final VectorTopK results;
+        final double[] curScore = new double[1];
+        final float[] vec;
+        final int[] selIds;
+        final double[] selScores;
+        final int[] shrinkIds;
+        final double[] shrinkScores;
+        final int[] restIds;
+        final double[] restScores;
+
+        Context(int dimension, int ef) {
+            results = new VectorTopK(ef);
+            vec = new float[dimension];
+            selIds = new int[ef];
+            selScores = new double[ef];
+            shrinkIds = new int[ef * 2 + 2];
+            shrinkScores = new double[ef * 2 + 2];
+            restIds = new int[ef * 2 + 2];
+            restScores = new double[ef * 2 + 2];
+        }
+    }
+
+    // 探索済みノードを管理するint集合.
+    // clear は世代番号の更新のみで行うため、テーブルの初期化は行いません.
+    private static final class IntSet {
+        private int[] keys;
+        private int[] stamps;
+        private int stamp = 1;
+        private int size;
+
+        IntSet(int capacity) {
+            keys = new int[capacity];
+            stamps = new int[capacity];
+        }
+
+        void clear() {
+            size = 0;
+            if(++ stamp == Integer.MAX_VALUE) {
+                Arrays.fill(stamps, 0);
+                stamp = 1;
+            }
+        }
+
+        // 追加.
+        // 戻り値: 既に存在する場合は false が返却されます.
+        boolean add(int key) {
+            if((size << 1) >= keys.length) {
+                grow();
+            }
+            int mask = keys.length - 1;
+            int h = (key * 0x9E3779B9) & mask;
+            while(stamps[h] == stamp) {
+                if(keys[h] == key) {
+                    return false;
+                }
+                h = (h + 1) & mask;
+            }
+            keys[h] = key;
+            stamps[h] = stamp;
+            size ++;
+            return true;
+        }
+
+        private void grow() {
+            int[] oldKeys = keys;
+            int[] oldStamps = stamps;
+            int oldStamp = stamp;
+            keys = new int[oldKeys.length << 1];
+            stamps = new int[oldKeys.length << 1];
+            stamp = 1;
+            size = 0;
+            for(int i = 0; i < oldKeys.length; i ++) {
+                if(oldStamps[i] == oldStamp) {
+                    add(oldKeys[i]);
+                }
+            }
+        }
+    }
+
+    // 探索候補(得点の高い順に取り出す最大ヒープ).
+    private static final class Candidates {
+        private int[] ids;
+        private double[] scores;
+        private int size;
+
+        Candidates(int capacity) {
+            ids = new int[capacity];
+            scores = new double[capacity];
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        int size() {
+            return size;
+        }
+
+        double topScore() {
+            return scores[0];
+        }
+
+        void push(int id, double score) {
+            if(size == ids.length) {
+                ids = Arrays.copyOf(ids, size << 1);
+                scores = Arrays.copyOf(scores, size << 1);
+            }
+            int i = size ++, p;
+            while(i > 0) {
+                p = (i - 1) >> 1;
+                if(scores[p] >= score) {
+                    break;
+                }
+                ids[i] = ids[p];
+                scores[i] = scores[p];
+                i = p;
+            }
+            ids[i] = id;
+            scores[i] = score;
+        }
+
+        int pop() {
+            int ret = ids[0];
+            int last = -- size;
+            int id = ids[last];
+            double score = scores[last];
+            int i = 0, c;
+            final int half = last >> 1;
+            while(i < half) {
+                c = (i << 1) + 1;
+                if(c + 1 < last && scores[c + 1] > scores[c]) {
+                    c ++;
+                }
+                if(scores[c] <= score) {
+                    break;
+                }
+                ids[i] = ids[c];
+                scores[i] = scores[c];
+                i = c;
+            }
+            ids[i] = id;
+            scores[i] = score;
+            return ret;
+        }
+    }
+}
@@ -0,0 +1,348 @@
+package com.maachang.mrag.vector;
+
+import java.io.*;
+import java.util.*;
+
+import com.maachang.mrag.*;
+
+/**
+ * IVF(Inverted File)による近似最近傍検索インデックス.
+ * k-meansで作成した重心毎にembeddingを振り分け(転置リスト)、
+ * 検索時は検索ベクトルに近い nprobe 個の転置リストのみを検索します.
+ * 転置リストは項番群のみを保持し、embeddingは元のembedding行列を参照するため、
+ * embeddingの複製は作成しません.
+ */
+public final class VectorIvf {
+    // 得点計算オブジェクト.
+    private static final VectorScore SCORE = VectorScore.getInstance();
+
+    // IVFファイルシンボル.
+    private static final String IVF_FILE_SIMBOL = "@vgi";
+
+    // シンボルの文字数.
+    private static final int SIMBOLE_SIZE = 4;
+
+    // k-means学習の繰り返し回数.
+    private static final int TRAIN_ITERATION = 10;
+
+    // k-means学習に利用する1重心あたりのサンプル数.
+    private static final int TRAIN_SAMPLE_PER_LIST = 64;
+
+    // k-means学習用の乱数シード.
+    private static final long TRAIN_SEED = 0x6d72616749L;
+
+    // 対象のembedding行列.
+    private final VectorMatrix matrix;
+
+    // 転置リスト数.
+    private final int lists;
+
+    // 重心群(lists x dimension, 正規化済み).
+    private final float[] centroids;
+
+    // 項番毎の転置リスト番号.
+    private final int[] assigns;
+
+    // 転置リスト毎の開始位置(lists + 1).
+    private final int[] listStarts;
+
+    // 転置リスト順の項番群.
+    private final int[] listIds;
+
+    // コンストラクタ.
+    // matrix: 対象のembedding行列を設定します.
+    // centroids: 重心群(転置リスト数 x 次元数, 正規化済み)を設定します.
+    // 重心群に対して一番近い転置リストに各embeddingが振り分けられます.
+    public VectorIvf(VectorMatrix matrix, float[] centroids) {
+        this(matrix, centroids, assign(matrix, centroids));
+    }
+
+    // コンストラクタ.
+    private VectorIvf(VectorMatrix matrix, float[] centroids, int[] assigns) {
+        int i, n;
+        int len = matrix.size();
+        int dim = matrix.getDimension();
+        this.matrix = matrix;
+        this.lists = dim == 0 ? 0 : centroids.length / dim;
+        this.centroids = centroids;
+        this.assigns = assigns;
+        // 転置リスト毎の件数から開始位置を計算.
+        int[] starts = new int[lists + 1];
+        for(i = 0; i < len; i ++) {
+            starts[assigns[i] + 1] ++;
+        }
+        for(i = 0; i < lists; i ++) {
+            starts[i + 1] += starts[i];
+        }
+        // 転置リスト順に項番を並べる.
+        int[] pos = Arrays.copyOf(starts, lists);
+        int[] ids = new int[len];
+        for(i = 0; i < len; i ++) {
+            n = pos[assigns[i]] ++;
+            ids[n] = i;
+        }
+        this.listStarts = starts;
+        this.listIds = ids;
+    }
+
+    // k-meansで重心を学習してIVFインデックスを作成.
+    // matrix: 対象のembedding行列を設定します.
+    // lists: 転置リスト数を設定します. 0 以下の場合は件数の平方根が設定されます.
+    // 戻り値: IVFインデックスが返却されます.
+    public static final VectorIvf train(VectorMatrix matrix, int lists) {
+        int i, j, n, off;
+        int len = matrix.size();
+        int dim = matrix.getDimension();
+        if(lists <= 0) {
+            lists = (int)Math.sqrt(len);
+        }
+        lists = Math.max(1, Math.min(lists, len));
+        if(len == 0) {
+            return new VectorIvf(matrix, new float[0], new int[0]);
+        }
+        Random rand = new Random(TRAIN_SEED);
+        // 学習用のサンプルを取得(正規化).
+        int sampleLen = (int)Math.min(
+            (long)len, (long)lists * TRAIN_SAMPLE_PER_LIST);
+        int[] perm = new int[len];
+        for(i = 0; i < len; i ++) {
+            perm[i] = i;
+        }
+        for(i = 0; i < sampleLen; i ++) {
+            j = i + rand.nextInt(len - i);
+            n = perm[i]; perm[i] = perm[j]; perm[j] = n;
+        }
+        float[] samples = new float[sampleLen * dim];
+        float[] buf = new float[dim];
+        for(i = 0; i < sampleLen; i ++) {
+            SCORE.normalize(matrix.get(perm[i], buf), buf);
+            System.arraycopy(buf, 0, samples, i * dim, dim);
+        }
+        perm = null;
+        // 先頭から lists 件のサンプルを初期重心とする.
+        float[] centroids = Arrays.copyOf(samples, lists * dim);
+        int[] sampleAssigns = new int[sampleLen];
+        int[] counts = new int[lists];
+        for(int it = 0; it < TRAIN_ITERATION; it ++) {
+            // サンプルを一番近い重心に割り当てる.
+            for(i = 0; i < sampleLen; i ++) {
+                sampleAssigns[i] = nearest(centroids, lists, samples, i * dim, dim);
+            }
+            // 割り当てられたサンプルの平均を新しい重心とする.
+            Arrays.fill(centroids, 0.0f);
+            Arrays.fill(counts, 0);
+            for(i = 0; i < sampleLen; i ++) {
+                n = sampleAssigns[i];
+                counts[n] ++;
+                off = n * dim;
+                for(j = 0; j < dim; j ++) {
+                    centroids[off + j] += samples[i * dim + j];
+                }
+            }
+            for(i = 0; i < lists; i ++) {
+                off = i * dim;
+                // 空の重心はランダムなサンプルで置き換える.
+                if(counts[i] == 0) {
+                    System.arraycopy(samples, rand.nextInt(sampleLen) * dim,
+                        centroids, off, dim);
+                    continue;
+                }
+                // 球面k-meansとして正規化.
+                normalize(centroids, off, dim);
+            }
+        }
+        return new VectorIvf(matrix, centroids);
+    }
+
+    // embedding群を一番近い重心に割り当てる.
+    private static final int[] assign(VectorMatrix matrix, float[] centroids) {
+        int len = matrix.size();
+        int dim = matrix.getDimension();
+        int lists = dim == 0 ? 0 : centroids.length / dim;
+        int[] ret = new int[len];
+        float[] buf = new float[dim];
+        for(int i = 0; i < len; i ++) {
+            ret[i] = nearest(centroids, lists, matrix.get(i, buf), 0, dim);
+        }
+        return ret;
+    }
+
+    // 一番近い重心を取得.
+    // 重心は正規化済みのため、内積が最大の重心を一番近いとします.
+    private static final int nearest(float[] centroids, int lists,
+        float[] v, int off, int dim) {
+        int ret = 0;
+        double s, max = Double.NEGATIVE_INFINITY;
+        for(int i = 0; i < lists; i ++) {
+            s = SCORE.dot(centroids, i * dim, v, off, dim);
+            if(s > max) {
+                max = s;
+                ret = i;
+            }
+        }
+        return ret;
+    }
+
+    // 指定範囲のベクトルを正規化.
+    private static final void normalize(float[] v, int off, int dim) {
+        double n = SCORE.norm(v, off, dim);
+        if(n == 0.0d) {
+            return;
+        }
+        float f = (float)(1.0d / n);
+        for(int i = 0; i < dim; i ++) {
+            v[off + i] *= f;
+        }
+    }
+
+    // 格納件数を取得.
+    // 戻り値: 格納件数が返却されます.
+    public int size() {
+        return matrix.size();
+    }
+
+    // 転置リスト数を取得.
+    // 戻り値: 転置リスト数が返却されます.
+    public int getLists() {
+        return lists;
+    }
+
+    // 重心群を取得.
+    // 戻り値: 重心群(転置リスト数 x 次元数)が返却されます.
+    public float[] getCentroids() {
+        return centroids;
+    }
+
+    // 上位K件を検索.
+    // query: VectorMatrix.query(float[]) で変換された検索ベクトルを設定します.
+    // queryNorm: VectorMatrix.queryNorm(float[]) で取得した長さを設定します.
+    // k: 取得件数を設定します.
+    // nprobe: 検索対象の転置リスト数を設定します.
+    // 戻り値: 上位K件が返却されます.
+    public VectorTopK search(float[] query, double queryNorm, int k, int nprobe) {
+        return search(query, queryNorm, k, nprobe, VectorMatrix.NO_DEADLINE);
+    }
+
+    // 検索時間を指定して上位K件を検索.
+    // 検索時間を超えた場合は、それまでに検索した転置リストの上位K件で終了します.
+    // query: VectorMatrix.query(float[]) で変換された検索ベクトルを設定します.
+    // queryNorm: VectorMatrix.queryNorm(float[]) で取得した長さを設定します.
+    // k: 取得件数を設定します.
+    // nprobe: 検索対象の転置リスト数を設定します.
+    // deadline: System.nanoTime() による終了時間(VectorMatrix.NO_DEADLINE の場合は制限なし)を設定します.
+    // 戻り値: 上位K件が返却されます.
+    public VectorTopK search(float[] query, double queryNorm, int k, int nprobe,
+        long deadline) {
+        int i, n;
+        VectorTopK ret = new VectorTopK(k);
+        if(lists == 0 || k <= 0) {
+            return ret;
+        }
+        final int dim = matrix.getDimension();
+        // 検索ベクトルに近い転置リストを取得.
+        nprobe = Math.max(1, Math.min(nprobe, lists));
+        VectorTopK probes = new VectorTopK(nprobe);
+        for(i = 0; i < lists; i ++) {
+            probes.add(i, SCORE.dot(centroids, i * dim, query, 0, dim));
+        }
+        // 対象の転置リストの項番群を検索.
+        int len = probes.size();
+        for(i = 0; i < len; i ++) {
+            n = probes.getId(i);
+            if(!matrix.scan(query, queryNorm, listIds,
+                listStarts[n], listStarts[n + 1], ret, deadline)) {
+                break;
+            }
+        }
+        return ret;
+    }
+
+    // IVFインデックスを保存(serialize).
+    // out: 保存先のOutputStreamを設定します.
+    // fileTime: 元のVectorGroupファイルの更新時間を設定します.
+    public void save(OutputStream out, long fileTime) {
+        int i, len = assigns.length;
+        try {
+            // ファイルシンボルを出力.
+            out.write(EncodeBinary.getString(IVF_FILE_SIMBOL));
+            // 元のVectorGroupファイルの情報.
+            out.write(EncodeBinary.getLong(fileTime));
+            out.write(EncodeBinary.getInt(len));
+            out.write(EncodeBinary.getInt3(matrix.getDimension()));
+            // 重心群.
+            out.write(EncodeBinary.getInt3(lists));
+            len = centroids.length;
+            for(i = 0; i < len; i ++) {
+                out.write(EncodeBinary.getFloat(centroids[i]));
+            }
+            // 項番毎の転置リスト番号.
+            len = assigns.length;
+            for(i = 0; i < len; i ++) {
+                out.write(EncodeBinary.getInt3(assigns[i]));
+            }
+            out.flush();
+        } catch(Exception e) {
+            throw new MRagException(e);
+        }
+    }
+
+    // IVFインデックスをバイナリロード処理.
+    // binary: バイナリを設定します.
+    // matrix: 対象のembedding行列を設定します.
+    // fileTime: 元のVectorGroupファイルの更新時間を設定します.
+    // 戻り値: 条件が一致しない場合は null が返却されます.
+    public static final VectorIvf load(byte[] binary, VectorMatrix matrix,
+        long fileTime) {
+        DecodeBinary bd = new DecodeBinary(binary);
+        // ファイルシンボルの確認.
+        if(!IVF_FILE_SIMBOL.equals(bd.getString(SIMBOLE_SIZE))) {
+            throw new MRagException("Not a IVF file symbol");
+        }
+        // 元のVectorGroupファイルと条件が一致するか確認.
+        int len = matrix.size();
+        if(bd.getLong() != fileTime ||
+            bd.getInt() != len ||
+            bd.getUInt3() != matrix.getDimension()) {
+            return null;
+        }
+        int i, dim = matrix.getDimension();
+        float[] centroids = readCentroids(bd, dim);
+        int lists = dim == 0 ? 0 : centroids.length / dim;
+        int[] assigns = new int[len];
+        for(i = 0; i < len; i ++) {
+            if((assigns[i] = bd.getUInt3()) >= lists) {
+                return null;
+            }
+        }
+        return new VectorIvf(matrix, centroids, assigns);
+    }
+
+    // IVFインデックスのバイナリから重心群のみをロード.
+    // 再学習を行わずに別のembedding群を割り当てる場合に利用します.
+    // binary: バイナリを設定します.
+    // dimension: embeddingの次元数を設定します.
+    // 戻り値: 重心群が返却されます. 次元数が一致しない場合は null が返却されます.
+    public static final float[] loadCentroids(byte[] binary, int dimension) {
+        DecodeBinary bd = new DecodeBinary(binary);
+        // ファイルシンボルの確認.
+        if(!IVF_FILE_SIMBOL.equals(bd.getString(SIMBOLE_SIZE))) {
+            throw new MRagException("Not a IVF file symbol");
+        }
+        bd.getLong();
+        bd.getInt();
+        if(bd.getUInt3() != dimension) {
+            return null;
+        }
+        return readCentroids(bd, dimension);
+    }
+
+    // 重心群を読み込む.
+    private static final float[] readCentroids(DecodeBinary bd, int dimension) {
+        int len = bd.getUInt3() * dimension;
+        float[] ret = new float[len];
+        for(int i = 0; i < len; i ++) {
+            ret[i] = bd.getFloat();
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,424 @@
+package com.maachang.mrag.vector;
+
+import com.maachang.mrag.*;
+
+/**
+ * embedding群を１つの連続した領域 (件数 x 次元数) で管理する行列.
+ * VectorChunk毎に embedding を保持しないため、検索時は先頭から
+ * 線形にメモリを読み込んで得点計算を行います.
+ * embeddingの保持形式(float32, int8, float16, bfloat16)毎に実装されます.
+ */
+public abstract class VectorMatrix {
+    // embeddingエンコード: float32.
+    public static final int ENCODING_FLOAT32 = 0;
+
+    // embeddingエンコード: int8(embedding毎の倍率付き).
+    public static final int ENCODING_INT8 = 1;
+
+    // embeddingエンコード: float16(IEEE 754 半精度).
+    public static final int ENCODING_FLOAT16 = 2;
+
+    // embeddingエンコード: bfloat16(float32 の上位16bit).
+    public static final int ENCODING_BFLOAT16 = 3;
+
+    // 検索時間の制限なし.
+    public static final long NO_DEADLINE = Long.MIN_VALUE;
+
+    // 検索時間を確認する間隔(件数).
+    protected static final int DEADLINE_CHECK_SIZE = 1024;
+
+    // 得点計算オブジェクト.
+    protected static final VectorScore SCORE = VectorScore.getInstance();
+
+    // 格納件数.
+    protected final int length;
+
+    // embeddingの次元数.
+    protected final int dimension;
+
+    // embeddingが正規化済みか.
+    protected final boolean normalized;
+
+    // コンストラクタ.
+    protected VectorMatrix(int length, int dimension, boolean normalized) {
+        this.length = length;
+        this.dimension = dimension;
+        this.normalized = normalized;
+    }
+
+    // float32の行列を生成.
+    // length: 格納件数を設定します.
+    // dimension: embeddingの次元数を設定します.
+    // normalized: 格納するembeddingが正規化済みの場合 true を設定します.
+    // 戻り値: VectorMatrixが返却されます.
+    public static final VectorMatrix create(
+        int length, int dimension, boolean normalized) {
+        return create(length, dimension, normalized, ENCODING_FLOAT32);
+    }
+
+    // 行列を生成.
+    // length: 格納件数を設定します.
+    // dimension: embeddingの次元数を設定します.
+    // normalized: 格納するembeddingが正規化済みの場合 true を設定します.
+    // encoding: embeddingエンコードを設定します.
+    // 戻り値: VectorMatrixが返却されます.
+    public static final VectorMatrix create(
+        int length, int dimension, boolean normalized, int encoding) {
+        switch(encoding) {
+        case ENCODING_FLOAT32:
+            return new VectorFloatMatrix(length, dimension, normalized);
+        case ENCODING_INT8:
+            return new VectorInt8Matrix(length, dimension, normalized);
+        case ENCODING_FLOAT16:
+            return new VectorHalfMatrix(length, dimension, normalized, false);
+        case ENCODING_BFLOAT16:
+            return new VectorHalfMatrix(length, dimension, normalized, true);
+        }
+        throw new MRagException("Unsupported embedding encoding: " + encoding);
+    }
+
+    // embeddingエンコード名からエンコードを取得.
+    // name: embeddingエンコード名(float32, int8, float16, bfloat16)を設定します.
+    // 戻り値: embeddingエンコードが返却されます.
+    public static final int getEncoding(String name) {
+        if(name == null || Const.EMBEDDING_ENCODING_FLOAT32.equals(name)) {
+            return ENCODING_FLOAT32;
+        } else if(Const.EMBEDDING_ENCODING_INT8.equals(name)) {
+            return ENCODING_INT8;
+        } else if(Const.EMBEDDING_ENCODING_FLOAT16.equals(name)) {
+            return ENCODING_FLOAT16;
+        } else if(Const.EMBEDDING_ENCODING_BFLOAT16.equals(name)) {
+            return ENCODING_BFLOAT16;
+        }
+        throw new MRagException("Unsupported embedding encoding: " + name);
+    }
+
+    // 16bit浮動小数点のエンコードか確認.
+    // encoding: embeddingエンコードを設定します.
+    // 戻り値: true の場合、float16 または bfloat16 です.
+    public static final boolean isHalf(int encoding) {
+        return encoding == ENCODING_FLOAT16 || encoding == ENCODING_BFLOAT16;
+    }
+
+    // 格納領域のサイズを確認.
+    protected static final long capacity(int length, int dimension) {
+        long all = (long)length * (long)dimension;
+        if(all > (long)(Integer.MAX_VALUE - 8)) {
+            throw new MRagException(
+                "The number of embeddings exceeds the matrix capacity: " +
+                length + " x " + dimension);
+        }
+        return all;
+    }
+
+    // embeddingの次元数を確認.
+    protected final void checkDimension(float[] embedding) {
+        if(embedding.length != dimension) {
+            throw new MRagException(
+                "Embedding dimension mismatch: " + embedding.length +
+                " (expected: " + dimension + ")");
+        }
+    }
+
+    // 同じ形式の行列を生成.
+    // length: 格納件数を設定します.
+    // 戻り値: VectorMatrixが返却されます.
+    public VectorMatrix create(int length) {
+        return create(length, dimension, normalized, getEncoding());
+    }
+
+    // 格納件数を取得.
+    // 戻り値: 格納件数が返却されます.
+    public int size() {
+        return length;
+    }
+
+    // embeddingの次元数を取得.
+    // 戻り値: 次元数が返却されます.
+    public int getDimension() {
+        return dimension;
+    }
+
+    // embeddingが正規化済みか確認.
+    // 戻り値: true の場合、embeddingは正規化済みです.
+    public boolean isNormalized() {
+        return normalized;
+    }
+
+    // 検索ベクトルを得点計算用に変換.
+    // 正規化済みの場合は正規化された検索ベクトルが返却されます.
+    // query: 検索ベクトルを設定します.
+    // 戻り値: 得点計算用の検索ベクトルが返却されます.
+    public float[] query(float[] query) {
+        return query(query, new float[query.length]);
+    }
+
+    // 検索ベクトルを得点計算用に変換.
+    // 正規化済みの場合は out に正規化された検索ベクトルが格納されます.
+    // query: 検索ベクトルを設定します.
+    // out: 正規化する場合の格納先を設定します.
+    // 戻り値: 得点計算用の検索ベクトルが返却されます.
+    public float[] query(float[] query, float[] out) {
+        if(normalized) {
+            return SCORE.normalize(query, out);
+        }
+        return query;
+    }
+
+    // 検索ベクトルの長さを取得.
+    // query: query(float[]) で変換された検索ベクトルを設定します.
+    // 戻り値: 検索ベクトルの長さが返却されます.
+    public double queryNorm(float[] query) {
+        if(normalized) {
+            return 1.0d;
+        }
+        return SCORE.norm(query);
+    }
+
+    // embeddingのエンコードを取得.
+    // 戻り値: embeddingエンコードが返却されます.
+    public abstract int getEncoding();
+
+    // embeddingをセット.
+    // no: 格納先の項番を設定します.
+    // embedding: 格納するembeddingを設定します.
+    public abstract void set(int no, float[] embedding);
+
+    // embeddingを取得.
+    // no: 取得対象の項番を設定します.
+    // out: 格納先を設定します. null の場合は新しく生成されます.
+    // 戻り値: embeddingが返却されます.
+    public abstract float[] get(int no, float[] out);
+
+    // 得点を計算: コサイン類似度.
+    // query: query(float[]) で変換された検索ベクトルを設定します.
+    // queryNorm: queryNorm(float[]) で取得した検索ベクトルの長さを設定します.
+    // no: 対象の項番を設定します.
+    // 戻り値: コサイン類似度が返却されます.
+    public abstract double score(float[] query, double queryNorm, int no);
+
+    // 格納されているembedding同士の得点を計算: コサイン類似度.
+    // a: 比較元の項番を設定します.
+    // b: 比較先の項番を設定します.
+    // 戻り値: コサイン類似度が返却されます.
+    public abstract double score(int a, int b);
+
+    // 指定範囲の得点を計算して上位K件を取得.
+    // 量子化された行列の場合、得点は近似値となります.
+    // query: query(float[]) で変換された検索ベクトルを設定します.
+    // queryNorm: queryNorm(float[]) で取得した検索ベクトルの長さを設定します.
+    // from: 開始項番を設定します.
+    // to: 終了項番(この項番を含まない)を設定します.
+    // out: 上位K件の格納先を設定します.
+    public abstract void scan(float[] query, double queryNorm, int from, int to,
+        VectorTopK out);
+
+    // 複数の検索ベクトルで指定範囲の得点を計算して上位K件を取得.
+    // embedding毎に全ての検索ベクトルの得点を計算するため、
+    // embeddingのメモリ読み込みは１度だけとなります.
+    // 得点は検索ベクトル群の中で一番高い得点となるため、同じembeddingが
+    // 複数件格納されることはありません.
+    // queries: query(float[]) で変換された検索ベクトル群を設定します.
+    // queryNorms: queryNorm(float[]) で取得した検索ベクトルの長さ群を設定します.
+    // from: 開始項番を設定します.
+    // to: 終了項番(この項番を含まない)を設定します.
+    // out: 上位K件の格納先を設定します.
+    public void scan(float[][] queries, double[] queryNorms, int from, int to,
+        VectorTopK out) {
+        for(int i = from; i < to; i ++) {
+            out.add(i, maxScore(queries, queryNorms, i));
+        }
+    }
+
+    // 複数の検索ベクトルで指定範囲の対象項番の得点を計算して上位K件を取得.
+    // filter のビットが立っていない項番は得点計算を行いません.
+    // queries: query(float[]) で変換された検索ベクトル群を設定します.
+    // queryNorms: queryNorm(float[]) で取得した検索ベクトルの長さ群を設定します.
+    // filter: VectorFilter.toBitmap で作成した対象項番のビット列を設定します.
+    // from: 開始項番を設定します.
+    // to: 終了項番(この項番を含まない)を設定します.
+    // out: 上位K件の格納先を設定します.
+    public void scan(float[][] queries, double[] queryNorms, long[] filter,
+        int from, int to, VectorTopK out) {
+        scan(queries, queryNorms, filter, from, to, out, NO_DEADLINE);
+    }
+
+    // 検索時間を指定して複数の検索ベクトルで指定範囲の対象項番の得点を計算して上位K件を取得.
+    // 検索時間を超えた場合は、それまでに計算した範囲の上位K件で終了します.
+    // queries: query(float[]) で変換された検索ベクトル群を設定します.
+    // queryNorms: queryNorm(float[]) で取得した検索ベクトルの長さ群を設定します.
+    // filter: VectorFilter.toBitmap で作成した対象項番のビット列を設定します.
+    // from: 開始項番を設定します.
+    // to: 終了項番(この項番を含まない)を設定します.
+    // out: 上位K件の格納先を設定します.
+    // deadline: System.nanoTime() による終了時間(NO_DEADLINE の場合は制限なし)を設定します.
+    // 戻り値: false の場合、検索時間を超えたため途中で終了しました.
+    public boolean scan(float[][] queries, double[] queryNorms, long[] filter,
+        int from, int to, VectorTopK out, long deadline) {
+        int i, w;
+        long bits;
+        if(from >= to) {
+            return true;
+        }
+        final int end = (to - 1) >>> 6;
+        for(w = from >>> 6; w <= end; w ++) {
+            // 一定件数毎に検索時間を確認.
+            if((w & ((DEADLINE_CHECK_SIZE >>> 6) - 1)) == 0 &&
+                isExpired(deadline)) {
+                return false;
+            }
+            // 立っているビットのみ計算.
+            bits = filter[w];
+            while(bits != 0L) {
+                i = (w << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1L;
+                if(i < from) {
+                    continue;
+                } else if(i >= to) {
+                    break;
+                }
+                out.add(i, maxScore(queries, queryNorms, i));
+            }
+        }
+        return true;
+    }
+
+    // 検索時間を超えているか確認.
+    // deadline: System.nanoTime() による終了時間(NO_DEADLINE の場合は制限なし)を設定します.
+    // 戻り値: true の場合、検索時間を超えています.
+    public static final boolean isExpired(long deadline) {
+        return deadline != NO_DEADLINE && System.nanoTime() - deadline >= 0L;
+    }
+
+    // 最低得点と検索時間を指定して指定範囲の得点を計算して上位K件を取得.
+    // 検索時間を超えた場合は、それまでに計算した範囲の上位K件で終了します.
+    // 最低得点未満の得点は上位K件に格納されない場合があります.
+    // query: query(float[]) で変換された検索ベクトルを設定します.
+    // queryNorm: queryNorm(float[]) で取得した検索ベクトルの長さを設定します.
+    // from: 開始項番を設定します.
+    // to: 終了項番(この項番を含まない)を設定します.
+    // out: 上位K件の格納先を設定します.
+    // minScore: 最低得点を設定します.
+    // deadline: System.nanoTime() による終了時間(NO_DEADLINE の場合は制限なし)を設定します.
+    // 戻り値: false の場合、検索時間を超えたため途中で終了しました.
+    public boolean scan(float[] query, double queryNorm, int from, int to,
+        VectorTopK out, double minScore, long deadline) {
+        int end;
+        for(int i = from; i < to; i = end) {
+            if(isExpired(deadline)) {
+                return false;
+            }
+            end = Math.min(to, i + DEADLINE_CHECK_SIZE);
+            scan(query, queryNorm, i, end, out);
+        }
+        return true;
+    }
+
+    // 最低得点と検索時間を指定して指定範囲の対象項番の得点を計算して上位K件を取得.
+    // filter のビットが立っていない項番は得点計算を行いません.
+    // 検索時間を超えた場合は、それまでに計算した範囲の上位K件で終了します.
+    // 最低得点未満の得点は上位K件に格納されない場合があります.
+    // query: query(float[]) で変換された検索ベクトルを設定します.
+    // queryNorm: queryNorm(float[]) で取得した検索ベクトルの長さを設定します.
+    // filter: 対象項番のビット列を設定します(null の場合は全件).
+    // from: 開始項番を設定します.
+    // to: 終了項番(この項番を含まない)を設定します.
+    // out: 上位K件の格納先を設定します.
+    // minScore: 最低得点を設定します.
+    // deadline: System.nanoTime() による終了時間(NO_DEADLINE の場合は制限なし)を設定します.
+    // 戻り値: false の場合、検索時間を超えたため途中で終了しました.
+    public boolean scan(float[] query, double queryNorm, long[] filter,
+        int from, int to, VectorTopK out, double minScore, long deadline) {
+        if(filter == null) {
+            return scan(query, queryNorm, from, to, out, minScore, deadline);
+        }
+        int i, w;
+        long bits;
+        if(from >= to) {
+            return true;
+        }
+        final int end = (to - 1) >>> 6;
+        for(w = from >>> 6; w <= end; w ++) {
+            // 一定件数毎に検索時間を確認.
+            if((w & ((DEADLINE_CHECK_SIZE >>> 6) - 1)) == 0 &&
+                isExpired(deadline)) {
+                return false;
+            }
+            // 立っているビットのみ計算.
+            bits = filter[w];
+            while(bits != 0L) {
+                i = (w << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1L;
+                if(i < from) {
+                    continue;
+                } else if(i >= to) {
+                    break;
+                }
+                out.add(i, score(query, queryNorm, i));
+            }
+        }
+        return true;
+    }
+
+    // 検索時間を指定して項番群の指定範囲の得点を計算して上位K件を取得.
+    // 項番の順に得点計算を行うため、行列を並び替えずに部分集合を検索できます.
+    // 検索時間を超えた場合は、それまでに計算した範囲の上位K件で終了します.
+    // query: query(float[]) で変換された検索ベクトルを設定します.
+    // queryNorm: queryNorm(float[]) で取得した検索ベクトルの長さを設定します.
+    // ids: 対象の項番群を設定します.
+    // from: ids の開始位置を設定します.
+    // to: ids の終了位置(この位置を含まない)を設定します.
+    // out: 上位K件の格納先を設定します(項番で格納されます).
+    // deadline: System.nanoTime() による終了時間(NO_DEADLINE の場合は制限なし)を設定します.
+    // 戻り値: false の場合、検索時間を超えたため途中で終了しました.
+    public boolean scan(float[] query, double queryNorm, int[] ids,
+        int from, int to, VectorTopK out, long deadline) {
+        int i, end, no;
+        for(i = from; i < to;) {
+            if(isExpired(deadline)) {
+                return false;
+            }
+            end = Math.min(to, i + DEADLINE_CHECK_SIZE);
+            for(; i < end; i ++) {
+                no = ids[i];
+                out.add(no, score(query, queryNorm, no));
+            }
+        }
+        return true;
+    }
+
+    // 検索時間を指定して複数の検索ベクトルで指定範囲の得点を計算して上位K件を取得.
+    // 検索時間を超えた場合は、それまでに計算した範囲の上位K件で終了します.
+    // queries: query(float[]) で変換された検索ベクトル群を設定します.
+    // queryNorms: queryNorm(float[]) で取得した検索ベクトルの長さ群を設定します.
+    // from: 開始項番を設定します.
+    // to: 終了項番(この項番を含まない)を設定します.
+    // out: 上位K件の格納先を設定します.
+    // deadline: System.nanoTime() による終了時間(NO_DEADLINE の場合は制限なし)を設定します.
+    // 戻り値: false の場合、検索時間を超えたため途中で終了しました.
+    public boolean scan(float[][] queries, double[] queryNorms, int from,
+        int to, VectorTopK out, long deadline) {
+        int end;
+        for(int i = from; i < to; i = end) {
+            if(isExpired(deadline)) {
+                return false;
+            }
+            end = Math.min(to, i + DEADLINE_CHECK_SIZE);
+            scan(queries, queryNorms, i, end, out);
+        }
+        return true;
+    }
+
+    // 検索ベクトル群の中で一番高い得点を計算.
+    private final double maxScore(float[][] queries, double[] queryNorms,
+        int no) {
+        double s, max = score(queries[0], queryNorms[0], no);
+        final int qlen = queries.length;
+        for(int j = 1; j < qlen; j ++) {
+            if((s = score(queries[j], queryNorms[j], no)) > max) {
+                max = s;
+            }
+        }
+        return max;
+    }
+}
@@ -0,0 +1,106 @@
+package com.maachang.mrag.vector;
+
+/**
+ * 検索結果の多様化(Maximal Marginal Relevance).
+ * 検索ベクトルとの得点が高く、既に選択した VectorChunk と似ていないものから
+ * 順に選択します.
+ *   MMR = lambda x 得点 - (1 - lambda) x 選択済みとの最大類似度
+ * 選択済みとの最大類似度は候補毎に保持して、選択の度に追加された１件との
+ * 類似度だけを計算するため、候補数 K に対して O(K^2) で処理されます.
+ * 類似度は検索結果の VectorChunk が保持する embedding で計算します.
+ * 得点はハイブリッド検索の順位統合の得点でも比較できるように、
+ * 候補内の最小値 0, 最大値 1 に変換してから利用します.
+ */
+public final class VectorMmr {
+    private VectorMmr() {}
+
+    // 検索結果をMMRの順に並び替え.
+    // candidates: 得点の高い順の検索結果を設定します.
+    // len: candidates の有効件数を設定します.
+    // k: 選択する件数を設定します.
+    // lambda: 得点と多様性の比率(1.0 で得点のみ, 0.0 で多様性のみ)を設定します.
+    // 戻り値: MMRの順に選択された VectorChunk 群が返却されます.
+    public static final VectorChunk[] rerank(VectorChunk[] candidates,
+        int len, int k, double lambda) {
+        len = Math.min(len, candidates.length);
+        k = Math.max(0, Math.min(k, len));
+        VectorChunk[] ret = new VectorChunk[k];
+        if(k == 0) {
+            return ret;
+        }
+        final VectorScore sc = VectorScore.getInstance();
+        int i, j, best;
+        double s, bestScore;
+        // 候補毎の embedding の長さ.
+        double[] norms = new double[len];
+        double min = Double.MAX_VALUE, max = -Double.MAX_VALUE;
+        for(i = 0; i < len; i ++) {
+            float[] e = candidates[i].embedding;
+            norms[i] = e == null ? 0.0d : sc.norm(e);
+            min = Math.min(min, candidates[i].score);
+            max = Math.max(max, candidates[i].score);
+        }
+        // 得点を 0 から 1 に変換.
+        final double range = max - min;
+        double[] relevance = new double[len];
+        for(i = 0; i < len; i ++) {
+            relevance[i] = range <= 0.0d ? 1.0d :
+                (candidates[i].score - min) / range;
+        }
+        // 候補毎の選択済みとの最大類似度.
+        double[] maxSim = new double[len];
+        java.util.Arrays.fill(maxSim, Double.NEGATIVE_INFINITY);
+        boolean[] used = new boolean[len];
+        for(i = 0; i < k; i ++) {
+            // MMRが最大の候補を選択.
+            best = -1;
+            bestScore = Double.NEGATIVE_INFINITY;
+            for(j = 0; j < len; j ++) {
+                if(used[j]) {
+                    continue;
+                }
+                s = lambda * relevance[j];
+                if(i > 0) {
+                    s -= (1.0d - lambda) * maxSim[j];
+                }
+                if(best == -1 || s > bestScore) {
+                    best = j;
+                    bestScore = s;
+                }
+            }
+            used[best] = true;
+            ret[i] = candidates[best];
+            if(i + 1 == k) {
+                break;
+            }
+            // 選択した候補との類似度で最大類似度を更新.
+            for(j = 0; j < len; j ++) {
+                if(!used[j] && (s = similarity(sc, candidates, norms,
+                    best, j)) > maxSim[j]) {
+                    maxSim[j] = s;
+                }
+            }
+        }
+        return ret;
+    }
+
+    // 候補同士の類似度を計算.
+    // embedding が無い場合は同じ文書の場合のみ類似とします.
+    private static final double similarity(VectorScore sc,
+        VectorChunk[] candidates, double[] norms, int a, int b) {
+        VectorChunk va = candidates[a];
+        VectorChunk vb = candidates[b];
+        if(va.embedding == null || vb.embedding == null ||
+            va.embedding.length != vb.embedding.length) {
+            return (eq(va.group, vb.group) && eq(va.docName, vb.docName)) ?
+                1.0d : 0.0d;
+        }
+        return sc.dot(va.embedding, vb.embedding) /
+            (norms[a] * norms[b] + 1.0E-10);
+    }
+
+    // null を考慮した文字列比較.
+    private static final boolean eq(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
@@ -0,0 +1,526 @@
+package com.maachang.mrag.vector;
+
+import java.io.*;
+import java.util.*;
+
+import com.maachang.mrag.*;
+
+/**
+ * 直積量子化(Product Quantization)によるembeddingの圧縮と検索.
+ * embeddingを M 個の部分空間に分割し、部分空間毎に最大256個の
+ * 代表ベクトル(コードブック)の番号(1byte)で管理します.
+ * そのため1件あたり M byte で保持できます.
+ * 検索時は検索ベクトルと各代表ベクトルの内積表を１度だけ作成し、
+ * 表引きの合計で得点を計算します(ADC: Asymmetric Distance Computation).
+ * embeddingは正規化して量子化するため、得点はコサイン類似度の近似値となります.
+ */
+public final class VectorPq {
+    // 得点計算オブジェクト.
+    private static final VectorScore SCORE = VectorScore.getInstance();
+
+    // PQファイルシンボル.
+    private static final String PQ_FILE_SIMBOL = "@vgq";
+
+    // シンボルの文字数.
+    private static final int SIMBOLE_SIZE = 4;
+
+    // 検索時間を確認する間隔(件数).
+    private static final int CHECK_SIZE = 4096;
+
+    // 1部分空間の最大代表ベクトル数.
+    private static final int MAX_CENTROIDS = 256;
+
+    // 部分空間数を自動設定する場合の1部分空間の次元数.
+    private static final int AUTO_SUB_DIMENSION = 8;
+
+    // k-means学習の繰り返し回数.
+    private static final int TRAIN_ITERATION = 6;
+
+    // k-means学習に利用する最大サンプル数.
+    private static final int TRAIN_SAMPLES = 2560;
+
+    // k-means学習用の乱数シード.
+    private static final long TRAIN_SEED = 0x6d72616751L;
+
+    // 格納件数.
+    private final int length;
+
+    // embeddingの次元数.
+    private final int dimension;
+
+    // 部分空間数(M).
+    private final int subspaces;
+
+    // 1部分空間の次元数.
+    private final int subDimension;
+
+    // 1部分空間の代表ベクトル数.
+    private final int centroids;
+
+    // コードブック(subspaces x centroids x subDimension).
+    private final float[] codebooks;
+
+    // 量子化コード群(length x subspaces).
+    private final byte[] codes;
+
+    // コンストラクタ.
+    // 学習済みのコードブックを利用して、embedding行列を量子化します.
+    // matrix: 対象のembedding行列を設定します.
+    // subspaces: 部分空間数を設定します.
+    // centroids: 1部分空間の代表ベクトル数を設定します.
+    // codebooks: 学習済みのコードブックを設定します.
+    public VectorPq(VectorMatrix matrix, int subspaces, int centroids,
+        float[] codebooks) {
+        this(matrix.size(), matrix.getDimension(), subspaces, centroids,
+            codebooks, null);
+        encode(matrix);
+    }
+
+    // コンストラクタ.
+    private VectorPq(int length, int dimension, int subspaces, int centroids,
+        float[] codebooks, byte[] codes) {
+        this.length = length;
+        this.dimension = dimension;
+        this.subspaces = subspaces;
+        this.subDimension = dimension / subspaces;
+        this.centroids = centroids;
+        this.codebooks = codebooks;
+        this.codes = codes == null ? new byte[length * subspaces] : codes;
+    }
+
+    // 次元数を割り切れる部分空間数を取得.
+    // dimension: embeddingの次元数を設定します.
+    // subspaces: 希望する部分空間数を設定します. 0 以下の場合は自動設定します.
+    // 戻り値: 部分空間数が返却されます.
+    public static final int getSubspaces(int dimension, int subspaces) {
+        if(dimension <= 0) {
+            return 1;
+        }
+        if(subspaces <= 0) {
+            subspaces = dimension / AUTO_SUB_DIMENSION;
+        }
+        subspaces = Math.max(1, Math.min(subspaces, dimension));
+        while(dimension % subspaces != 0) {
+            subspaces --;
+        }
+        return subspaces;
+    }
+
+    // コードブックを学習して量子化.
+    // matrix: 対象のembedding行列を設定します.
+    // subspaces: 部分空間数を設定します. 0 以下の場合は自動設定します.
+    // 戻り値: VectorPqが返却されます.
+    public static final VectorPq train(VectorMatrix matrix, int subspaces) {
+        int i, j, n;
+        int len = matrix.size();
+        int dim = matrix.getDimension();
+        subspaces = getSubspaces(dim, subspaces);
+        if(len == 0) {
+            return new VectorPq(0, dim, subspaces, 1, new float[dim], null);
+        }
+        int dsub = dim / subspaces;
+        Random rand = new Random(TRAIN_SEED);
+        // 学習用のサンプルを取得(正規化).
+        int sampleLen = Math.min(len, TRAIN_SAMPLES);
+        int[] perm = new int[len];
+        for(i = 0; i < len; i ++) {
+            perm[i] = i;
+        }
+        for(i = 0; i < sampleLen; i ++) {
+            j = i + rand.nextInt(len - i);
+            n = perm[i]; perm[i] = perm[j]; perm[j] = n;
+        }
+        float[] samples = new float[sampleLen * dim];
+        float[] buf = new float[dim];
+        for(i = 0; i < sampleLen; i ++) {
+            SCORE.normalize(matrix.get(perm[i], buf), buf);
+            System.arraycopy(buf, 0, samples, i * dim, dim);
+        }
+        perm = null;
+        // 部分空間毎にk-meansで代表ベクトルを学習.
+        int ks = Math.max(1, Math.min(MAX_CENTROIDS, sampleLen));
+        float[] codebooks = new float[subspaces * ks * dsub];
+        for(i = 0; i < subspaces; i ++) {
+            trainSubspace(samples, sampleLen, dim, i * dsub, dsub, ks,
+                codebooks, i * ks * dsub, rand);
+        }
+        return new VectorPq(matrix, subspaces, ks, codebooks);
+    }
+
+    // 1つの部分空間の代表ベクトルを学習.
+    private static final void trainSubspace(float[] samples, int sampleLen,
+        int dim, int subOff, int dsub, int ks, float[] codebooks, int cbOff,
+        Random rand) {
+        int i, j, c, off;
+        int[] assigns = new int[sampleLen];
+        int[] counts = new int[ks];
+        float[] cnorms = new float[ks];
+        // 先頭から ks 件のサンプルを初期値とする.
+        for(i = 0; i < ks; i ++) {
+            System.arraycopy(samples, i * dim + subOff,
+                codebooks, cbOff + i * dsub, dsub);
+        }
+        for(int it = 0; it < TRAIN_ITERATION; it ++) {
+            // サンプルを一番近い代表ベクトルに割り当てる.
+            subNorms(codebooks, cbOff, ks, dsub, cnorms);
+            for(i = 0; i < sampleLen; i ++) {
+                assigns[i] = nearest(codebooks, cbOff, ks, dsub, cnorms,
+                    samples, i * dim + subOff);
+            }
+            // 割り当てられたサンプルの平均を新しい代表ベクトルとする.
+            Arrays.fill(codebooks, cbOff, cbOff + ks * dsub, 0.0f);
+            Arrays.fill(counts, 0);
+            for(i = 0; i < sampleLen; i ++) {
+                c = assigns[i];
+                counts[c] ++;
+                off = cbOff + c * dsub;
+                for(j = 0; j < dsub; j ++) {
+                    codebooks[off + j] += samples[i * dim + subOff + j];
+                }
+            }
+            for(i = 0; i < ks; i ++) {
+                off = cbOff + i * dsub;
+                // 空の代表ベクトルはランダムなサンプルで置き換える.
+                if(counts[i] == 0) {
+                    System.arraycopy(samples,
+                        rand.nextInt(sampleLen) * dim + subOff,
+                        codebooks, off, dsub);
+                    continue;
+                }
+                float f = 1.0f / counts[i];
+                for(j = 0; j < dsub; j ++) {
+                    codebooks[off + j] *= f;
+                }
+            }
+        }
+    }
+
+    // 代表ベクトル毎の長さの２乗を計算.
+    private static final void subNorms(float[] codebooks, int cbOff, int ks,
+        int dsub, float[] out) {
+        int i, j, off;
+        float n, v;
+        for(i = 0; i < ks; i ++) {
+            off = cbOff + i * dsub;
+            n = 0.0f;
+            for(j = 0; j < dsub; j ++) {
+                v = codebooks[off + j];
+                n += v * v;
+            }
+            out[i] = n;
+        }
+    }
+
+    // 一番近い(ユークリッド距離が最小の)代表ベクトルを取得.
+    // |x - c|^2 = |x|^2 - 2 x・c + |c|^2 のため |c|^2 - 2 x・c が最小のものを選択.
+    private static final int nearest(float[] codebooks, int cbOff, int ks,
+        int dsub, float[] cnorms, float[] v, int vOff) {
+        int i, j, off, ret = 0;
+        float d, min = Float.MAX_VALUE;
+        for(i = 0; i < ks; i ++) {
+            off = cbOff + i * dsub;
+            d = 0.0f;
+            for(j = 0; j < dsub; j ++) {
+                d += codebooks[off + j] * v[vOff + j];
+            }
+            d = cnorms[i] - 2.0f * d;
+            if(d < min) {
+                min = d;
+                ret = i;
+            }
+        }
+        return ret;
+    }
+
+    // embedding行列を量子化.
+    private final void encode(VectorMatrix matrix) {
+        int i, j, cbOff;
+        final int dsub = subDimension;
+        final int ks = centroids;
+        float[] buf = new float[dimension];
+        float[] cnorms = new float[subspaces * ks];
+        float[] tmp = new float[ks];
+        for(j = 0; j < subspaces; j ++) {
+            subNorms(codebooks, j * ks * dsub, ks, dsub, tmp);
+            System.arraycopy(tmp, 0, cnorms, j * ks, ks);
+        }
+        for(i = 0; i < length; i ++) {
+            SCORE.normalize(matrix.get(i, buf), buf);
+            for(j = 0; j < subspaces; j ++) {
+                cbOff = j * ks * dsub;
+                System.arraycopy(cnorms, j * ks, tmp, 0, ks);
+                codes[i * subspaces + j] = (byte)nearest(
+                    codebooks, cbOff, ks, dsub, tmp, buf, j * dsub);
+            }
+        }
+    }
+
+    // 格納件数を取得.
+    // 戻り値: 格納件数が返却されます.
+    public int size() {
+        return length;
+    }
+
+    // embeddingの次元数を取得.
+    // 戻り値: 次元数が返却されます.
+    public int getDimension() {
+        return dimension;
+    }
+
+    // 部分空間数を取得.
+    // 戻り値: 部分空間数(1件あたりのbyte数)が返却されます.
+    public int getSubspaces() {
+        return subspaces;
+    }
+
+    // 検索ベクトルに対する内積表を作成.
+    // query: 検索ベクトルを設定します.
+    // 戻り値: 内積表(subspaces x 256)が返却されます.
+    public float[] table(float[] query) {
+        int i, j, n, off, qOff;
+        float s;
+        final int dsub = subDimension;
+        final int ks = centroids;
+        float[] q = SCORE.normalize(query, new float[dimension]);
+        float[] ret = new float[subspaces * MAX_CENTROIDS];
+        for(i = 0, off = 0; i < subspaces; i ++) {
+            qOff = i * dsub;
+            for(j = 0; j < ks; j ++) {
+                // 部分空間の次元数は小さいため直接計算.
+                s = 0.0f;
+                for(n = 0; n < dsub; n ++, off ++) {
+                    s += codebooks[off] * q[qOff + n];
+                }
+                ret[i * MAX_CENTROIDS + j] = s;
+            }
+        }
+        return ret;
+    }
+
+    // 指定範囲の近似得点を計算して上位K件を取得.
+    // table: table(float[]) で作成した内積表を設定します.
+    // from: 開始項番を設定します.
+    // to: 終了項番(この項番を含まない)を設定します.
+    // out: 上位K件の格納先を設定します.
+    public void scan(float[] table, int from, int to, VectorTopK out) {
+        int i, j, t, off;
+        float s0, s1, s2, s3;
+        final int m = subspaces;
+        final byte[] c = codes;
+        for(i = from, off = from * m; i < to; i ++) {
+            s0 = s1 = s2 = s3 = 0.0f;
+            // 4部分空間単位で表引き.
+            for(j = 0, t = 0; j + 3 < m; j += 4, off += 4, t += 1024) {
+                s0 += table[t + (c[off] & 0x0ff)];
+                s1 += table[t + 256 + (c[off + 1] & 0x0ff)];
+                s2 += table[t + 512 + (c[off + 2] & 0x0ff)];
+                s3 += table[t + 768 + (c[off + 3] & 0x0ff)];
+            }
+            for(; j < m; j ++, off ++, t += 256) {
+                s0 += table[t + (c[off] & 0x0ff)];
+            }
+            out.add(i, (s0 + s1) + (s2 + s3));
+        }
+    }
+
+    // 検索時間を指定して指定範囲の近似得点を計算して上位K件を取得.
+    // 検索時間を超えた場合は、それまでに計算した範囲の上位K件で終了します.
+    // table: table(float[]) で作成した内積表を設定します.
+    // from: 開始項番を設定します.
+    // to: 終了項番(この項番を含まない)を設定します.
+    // out: 上位K件の格納先を設定します.
+    // deadline: System.nanoTime() による終了時間(VectorMatrix.NO_DEADLINE の場合は制限なし)を設定します.
+    // 戻り値: false の場合、検索時間を超えたため途中で終了しました.
+    public boolean scan(float[] table, int from, int to, VectorTopK out,
+        long deadline) {
+        int end;
+        for(int i = from; i < to; i = end) {
+            if(VectorMatrix.isExpired(deadline)) {
+                return false;
+            }
+            end = Math.min(to, i + CHECK_SIZE);
+            scan(table, i, end, out);
+        }
+        return true;
+    }
+
+    // 対象項番の近似得点を計算して上位K件を取得.
+    // filter のビットが立っていない項番は得点計算を行いません.
+    // table: table(float[]) で作成した内積表を設定します.
+    // filter: VectorFilter.toBitmap で作成した対象項番のビット列を設定します.
+    // out: 上位K件の格納先を設定します.
+    public void scan(float[] table, long[] filter, VectorTopK out) {
+        scan(table, filter, out, VectorMatrix.NO_DEADLINE);
+    }
+
+    // 検索時間を指定して対象項番の近似得点を計算して上位K件を取得.
+    // filter のビットが立っていない項番は得点計算を行いません.
+    // 検索時間を超えた場合は、それまでに計算した範囲の上位K件で終了します.
+    // table: table(float[]) で作成した内積表を設定します.
+    // filter: VectorFilter.toBitmap で作成した対象項番のビット列を設定します.
+    // out: 上位K件の格納先を設定します.
+    // deadline: System.nanoTime() による終了時間(VectorMatrix.NO_DEADLINE の場合は制限なし)を設定します.
+    // 戻り値: false の場合、検索時間を超えたため途中で終了しました.
+    public boolean scan(float[] table, long[] filter, VectorTopK out,
+        long deadline) {
+        int i, j, t, off, w;
+        long bits;
+        float s;
+        final int m = subspaces;
+        final byte[] c = codes;
+        final int words = filter.length;
+        for(w = 0; w < words; w ++) {
+            // 一定件数毎に検索時間を確認.
+            if((w & ((CHECK_SIZE >>> 6) - 1)) == 0 &&
+                VectorMatrix.isExpired(deadline)) {
+                return false;
+            }
+            bits = filter[w];
+            while(bits != 0L) {
+                i = (w << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1L;
+                if(i >= length) {
+                    break;
+                }
+                s = 0.0f;
+                for(j = 0, t = 0, off = i * m; j < m; j ++, off ++, t += 256) {
+                    s += table[t + (c[off] & 0x0ff)];
+                }
+                out.add(i, s);
+            }
+        }
+        return true;
+    }
+
+    // 上位K件を近似検索.
+    // query: 検索ベクトルを設定します.
+    // k: 取得件数を設定します.
+    // 戻り値: 上位K件が返却されます.
+    public VectorTopK search(float[] query, int k) {
+        return search(query, k, null);
+    }
+
+    // 対象項番の上位K件を近似検索.
+    // query: 検索ベクトルを設定します.
+    // k: 取得件数を設定します.
+    // filter: 対象項番のビット列を設定します(null の場合は全件).
+    // 戻り値: 上位K件が返却されます.
+    public VectorTopK search(float[] query, int k, long[] filter) {
+        return search(query, k, filter, VectorMatrix.NO_DEADLINE);
+    }
+
+    // 検索時間を指定して対象項番の上位K件を近似検索.
+    // 検索時間を超えた場合は、それまでに計算した範囲の上位K件で終了します.
+    // query: 検索ベクトルを設定します.
+    // k: 取得件数を設定します.
+    // filter: 対象項番のビット列を設定します(null の場合は全件).
+    // deadline: System.nanoTime() による終了時間(VectorMatrix.NO_DEADLINE の場合は制限なし)を設定します.
+    // 戻り値: 上位K件が返却されます.
+    public VectorTopK search(float[] query, int k, long[] filter,
+        long deadline) {
+        VectorTopK ret = new VectorTopK(k);
+        if(length == 0 || k <= 0) {
+            return ret;
+        } else if(filter != null) {
+            scan(table(query), filter, ret, deadline);
+        } else {
+            scan(table(query), 0, length, ret, deadline);
+        }
+        return ret;
+    }
+
+    // PQ情報を保存(serialize).
+    // out: 保存先のOutputStreamを設定します.
+    // fileTime: 元のVectorGroupファイルの更新時間を設定します.
+    public void save(OutputStream out, long fileTime) {
+        int i, len;
+        try {
+            // ファイルシンボルを出力.
+            out.write(EncodeBinary.getString(PQ_FILE_SIMBOL));
+            // 元のVectorGroupファイルの情報.
+            out.write(EncodeBinary.getLong(fileTime));
+            out.write(EncodeBinary.getInt(length));
+            out.write(EncodeBinary.getInt3(dimension));
+            // コードブック.
+            out.write(EncodeBinary.getInt2(subspaces));
+            out.write(EncodeBinary.getInt2(centroids));
+            len = codebooks.length;
+            for(i = 0; i < len; i ++) {
+                out.write(EncodeBinary.getFloat(codebooks[i]));
+            }
+            // 量子化コード群.
+            out.write(codes);
+            out.flush();
+        } catch(Exception e) {
+            throw new MRagException(e);
+        }
+    }
+
+    // PQ情報をバイナリロード処理.
+    // binary: バイナリを設定します.
+    // length: 元のVectorGroupの件数を設定します.
+    // dimension: embeddingの次元数を設定します.
+    // fileTime: 元のVectorGroupファイルの更新時間を設定します.
+    // subspaces: 部分空間数を設定します. 0 以下の場合は自動設定します.
+    // 戻り値: 条件が一致しない場合は null が返却されます.
+    public static final VectorPq load(byte[] binary, int length,
+        int dimension, long fileTime, int subspaces) {
+        DecodeBinary bd = new DecodeBinary(binary);
+        // ファイルシンボルの確認.
+        if(!PQ_FILE_SIMBOL.equals(bd.getString(SIMBOLE_SIZE))) {
+            throw new MRagException("Not a PQ file symbol");
+        }
+        // 元のVectorGroupファイルと条件が一致するか確認.
+        if(bd.getLong() != fileTime ||
+            bd.getInt() != length ||
+            bd.getUInt3() != dimension) {
+            return null;
+        }
+        int m = bd.getUInt2();
+        if(m != getSubspaces(dimension, subspaces)) {
+            return null;
+        }
+        int ks = bd.getUInt2();
+        float[] codebooks = readCodebooks(bd, ks, dimension);
+        byte[] codes = new byte[length * m];
+        System.arraycopy(binary, bd.getPosition(), codes, 0, codes.length);
+        return new VectorPq(length, dimension, m, ks, codebooks, codes);
+    }
+
+    // PQ情報のバイナリのコードブックを利用して、再学習せずに量子化.
+    // binary: バイナリを設定します.
+    // matrix: 量子化対象のembedding行列を設定します.
+    // subspaces: 部分空間数を設定します. 0 以下の場合は自動設定します.
+    // 戻り値: 条件が一致しない場合は null が返却されます.
+    public static final VectorPq loadCodebooks(byte[] binary,
+        VectorMatrix matrix, int subspaces) {
+        DecodeBinary bd = new DecodeBinary(binary);
+        // ファイルシンボルの確認.
+        if(!PQ_FILE_SIMBOL.equals(bd.getString(SIMBOLE_SIZE))) {
+            throw new MRagException("Not a PQ file symbol");
+        }
+        bd.getLong();
+        bd.getInt();
+        int dim = matrix.getDimension();
+        if(bd.getUInt3() != dim) {
+            return null;
+        }
+        int m = bd.getUInt2();
+        if(m != getSubspaces(dim, subspaces)) {
+            return null;
+        }
+        int ks = bd.getUInt2();
+        return new VectorPq(matrix, m, ks, readCodebooks(bd, ks, dim));
+    }
+
+    // コードブックを読み込む.
+    private static final float[] readCodebooks(DecodeBinary bd, int ks,
+        int dimension) {
+        int len = ks * dimension;
+        float[] ret = new float[len];
+        for(int i = 0; i < len; i ++) {
+            ret[i] = bd.getFloat();
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,197 @@
+package com.maachang.mrag.vector;
+
+/**
+ * ベクトル得点計算.
+ * jdk.incubator.vector が利用可能な場合は SIMD 実装(VectorSimdScore)を利用し、
+ * 利用できない場合はスカラー実装で計算します.
+ */
+public class VectorScore {
+    // SIMD実装クラス名.
+    private static final String SIMD_CLASS_NAME =
+        "com.maachang.mrag.vector.VectorSimdScore";
+
+    // 利用する得点計算オブジェクト.
+    private static final VectorScore INSTANCE = create();
+
+    // コンストラクタ.
+    protected VectorScore() {}
+
+    // 得点計算オブジェクトを生成.
+    // jdk.incubator.vector モジュールが存在しない場合はスカラー実装が返却されます.
+    private static final VectorScore create() {
+        try {
+            // モジュールが存在しない場合は NoClassDefFoundError 等が発生する.
+            Class<?> c = Class.forName(SIMD_CLASS_NAME);
+            VectorScore ret = (VectorScore)c.getDeclaredConstructor()
+                .newInstance();
+            // 実際に計算できるか確認.
+            ret.cosine(new float[] {1f, 0f}, new float[] {1f, 0f});
+            return ret;
+        } catch(Throwable t) {
+            return new VectorScore();
+        }
+    }
+
+    // 得点計算オブジェクトを取得.
+    // 戻り値: 得点計算オブジェクトが返却されます.
+    public static final VectorScore getInstance() {
+        return INSTANCE;
+    }
+
+    // SIMD実装が利用されているかチェック.
+    // 戻り値: true の場合、SIMD実装で計算されます.
+    public static final boolean isSimd() {
+        return !(INSTANCE.getClass() == VectorScore.class);
+    }
+
+    // 得点を計算: コサイン類似度.
+    // a: 比較元のベクトルを設定します.
+    // b: 比較先のベクトルを設定します.
+    // 戻り値: コサイン類似度が返却されます.
+    public double cosine(float[] a, float[] b) {
+        double d = 0.0d, na = 0.0d, nb = 0.0d;
+        float av, bv;
+        int i, len = a.length;
+        for(i = 0; i < len; i ++) {
+            av = a[i]; bv = b[i];
+            d += (double)(av * bv);
+            na += (double)(av * av);
+            nb += (double)(bv * bv);
+        }
+        return (d / (Math.sqrt(na * nb) + 1.0E-10));
+    }
+
+    // 得点を計算: 内積.
+    // 正規化済みのベクトル同士の場合はコサイン類似度と同じ結果となります.
+    // a: 比較元のベクトルを設定します.
+    // b: 比較先のベクトルを設定します.
+    // 戻り値: 内積が返却されます.
+    public double dot(float[] a, float[] b) {
+        double d = 0.0d;
+        int i, len = a.length;
+        for(i = 0; i < len; i ++) {
+            d += (double)(a[i] * b[i]);
+        }
+        return d;
+    }
+
+    // 得点を計算: 内積.
+    // 連続領域に格納されたベクトルとの内積を計算します.
+    // a: 比較元のベクトルを設定します.
+    // b: 比較先のベクトルが格納された配列を設定します.
+    // bOff: b の開始位置を設定します.
+    //       a.length 分の長さで計算されます.
+    // 戻り値: 内積が返却されます.
+    public double dot(float[] a, float[] b, int bOff) {
+        double d = 0.0d;
+        int i, len = a.length;
+        for(i = 0; i < len; i ++) {
+            d += (double)(a[i] * b[bOff + i]);
+        }
+        return d;
+    }
+
+    // 得点を計算: 内積.
+    // 連続領域に格納されたベクトル同士の内積を計算します.
+    // a: 比較元のベクトルが格納された配列を設定します.
+    // aOff: a の開始位置を設定します.
+    // b: 比較先のベクトルが格納された配列を設定します.
+    // bOff: b の開始位置を設定します.
+    // len: ベクトルの長さを設定します.
+    // 戻り値: 内積が返却されます.
+    public double dot(float[] a, int aOff, float[] b, int bOff, int len) {
+        double d = 0.0d;
+        for(int i = 0; i < len; i ++) {
+            d += (double)(a[aOff + i] * b[bOff + i]);
+        }
+        return d;
+    }
+
+    // ベクトルの長さ(L2ノルム)を計算.
+    // a: 対象のベクトルを設定します.
+    // 戻り値: L2ノルムが返却されます.
+    public double norm(float[] a) {
+        return norm(a, 0, a.length);
+    }
+
+    // ベクトルの長さ(L2ノルム)を計算.
+    // a: 対象のベクトルが格納された配列を設定します.
+    // off: a の開始位置を設定します.
+    // len: ベクトルの長さを設定します.
+    // 戻り値: L2ノルムが返却されます.
+    public double norm(float[] a, int off, int len) {
+        double n = 0.0d;
+        float av;
+        for(int i = 0; i < len; i ++) {
+            av = a[off + i];
+            n += (double)(av * av);
+        }
+        return Math.sqrt(n);
+    }
+
+    // 得点を計算: int8ベクトル同士の内積.
+    // a: 比較元のベクトルが格納された配列を設定します.
+    // aOff: a の開始位置を設定します.
+    // b: 比較先のベクトルが格納された配列を設定します.
+    // bOff: b の開始位置を設定します.
+    // len: ベクトルの長さを設定します.
+    // 戻り値: 整数の内積が返却されます.
+    public int dot(byte[] a, int aOff, byte[] b, int bOff, int len) {
+        int d = 0;
+        for(int i = 0; i < len; i ++) {
+            d += a[aOff + i] * b[bOff + i];
+        }
+        return d;
+    }
+
+    // 得点を計算: floatベクトルとint8ベクトルの内積.
+    // a: 比較元のベクトルを設定します.
+    // b: 比較先のベクトルが格納された配列を設定します.
+    // bOff: b の開始位置を設定します.
+    // 戻り値: 内積(int8の倍率は含まない)が返却されます.
+    public double dot(float[] a, byte[] b, int bOff) {
+        double d = 0.0d;
+        int i, len = a.length;
+        for(i = 0; i < len; i ++) {
+            d += (double)(a[i] * b[bOff + i]);
+        }
+        return d;
+    }
+
+    // 得点を計算: floatベクトルと16bit浮動小数点ベクトルの内積.
+    // a: 比較元のベクトルを設定します.
+    // b: 比較先のベクトルが格納された配列を設定します.
+    // bOff: b の開始位置を設定します.
+    // bfloat16: b が bfloat16 の場合 true, float16 の場合 false を設定します.
+    // 戻り値: 内積が返却されます.
+    public double dot(float[] a, short[] b, int bOff, boolean bfloat16) {
+        double d = 0.0d;
+        int i, len = a.length;
+        for(i = 0; i < len; i ++) {
+            d += (double)(a[i] * VectorHalfMatrix.toFloat(b[bOff + i], bfloat16));
+        }
+        return d;
+    }
+
+    // ベクトルを正規化(長さ1に変換).
+    // src: 変換元のベクトルを設定します.
+    // out: 変換先のベクトルを設定します.
+    //      src と同じ配列を設定した場合は src の内容が変換されます.
+    // 戻り値: out が返却されます.
+    public float[] normalize(float[] src, float[] out) {
+        int i, len = src.length;
+        double n = norm(src);
+        // 長さ0のベクトルはそのまま.
+        if(n <= 0.0d) {
+            if(out != src) {
+                System.arraycopy(src, 0, out, 0, len);
+            }
+            return out;
+        }
+        float r = (float)(1.0d / n);
+        for(i = 0; i < len; i ++) {
+            out[i] = src[i] * r;
+        }
+        return out;
+    }
+}
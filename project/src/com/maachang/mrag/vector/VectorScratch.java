@@ -0,0 +1,122 @@
+package com.maachang.mrag.vector;
+
+/**
+ * 検索処理で利用するスレッド毎の作業領域.
+ * 検索毎に上位K件や検索ベクトルの変換先を生成しないように、
+ * スレッド単位で再利用します.
+ * 取得した作業領域は同じスレッドの次の検索で上書きされるため、
+ * 検索結果は VectorChunk に変換してから返却します.
+ */
+final class VectorScratch {
+    // スレッド毎の作業領域.
+    private static final ThreadLocal<VectorScratch> LOCAL =
+        ThreadLocal.withInitial(VectorScratch::new);
+
+    // 上位K件.
+    private final VectorTopK topK = new VectorTopK(0);
+
+    // 再計算用の上位K件.
+    private final VectorTopK rerankTopK = new VectorTopK(0);
+
+    // 変換された検索ベクトル.
+    private float[] query = new float[0];
+
+    // int8に変換された検索ベクトル.
+    private byte[] int8Query = new byte[0];
+
+    // 符号ビットに変換された検索ベクトル.
+    private long[] sketchQuery = new long[0];
+
+    // 項番毎の得点の集計(利用後は 0 に戻します).
+    private float[] scores = new float[0];
+
+    // 得点を集計した項番群.
+    private int[] hits = new int[0];
+
+    // 検索ベクトルの次元ブロック以降の長さ.
+    private double[] blockNorms = new double[0];
+
+    // コンストラクタ.
+    private VectorScratch() {}
+
+    // 現在のスレッドの作業領域を取得.
+    // 戻り値: VectorScratchが返却されます.
+    static final VectorScratch get() {
+        return LOCAL.get();
+    }
+
+    // 上位K件を取得.
+    // k: 保持する最大件数を設定します.
+    // 戻り値: クリアされた上位K件が返却されます.
+    VectorTopK topK(int k) {
+        return topK.clear(k);
+    }
+
+    // 再計算用の上位K件を取得.
+    // k: 保持する最大件数を設定します.
+    // 戻り値: クリアされた上位K件が返却されます.
+    VectorTopK rerankTopK(int k) {
+        return rerankTopK.clear(k);
+    }
+
+    // 検索ベクトルの変換先を取得.
+    // len: 次元数を設定します.
+    // 戻り値: 変換先の配列が返却されます.
+    float[] query(int len) {
+        if(query.length != len) {
+            query = new float[len];
+        }
+        return query;
+    }
+
+    // 検索ベクトルの次元ブロック以降の長さの格納先を取得.
+    // len: 次元ブロック数 + 1 を設定します.
+    // 戻り値: 格納先の配列が返却されます.
+    double[] blockNorms(int len) {
+        if(blockNorms.length != len) {
+            blockNorms = new double[len];
+        }
+        return blockNorms;
+    }
+
+    // int8に変換する検索ベクトルの変換先を取得.
+    // len: 次元数を設定します.
+    // 戻り値: 変換先の配列が返却されます.
+    byte[] int8Query(int len) {
+        if(int8Query.length != len) {
+            int8Query = new byte[len];
+        }
+        return int8Query;
+    }
+
+    // 符号ビットに変換する検索ベクトルの変換先を取得.
+    // len: long 数を設定します.
+    // 戻り値: 変換先の配列が返却されます.
+    long[] sketchQuery(int len) {
+        if(sketchQuery.length != len) {
+            sketchQuery = new long[len];
+        }
+        return sketchQuery;
+    }
+
+    // 項番毎の得点の集計先を取得.
+    // 全ての要素が 0 の状態で返却されるため、利用後は 0 に戻します.
+    // len: 格納件数を設定します.
+    // 戻り値: 集計先の配列が返却されます.
+    float[] scores(int len) {
+        if(scores.length < len) {
+            scores = new float[len];
+        }
+        return scores;
+    }
+
+    // 得点を集計した項番群の格納先を取得.
+    // len: 格納件数を設定します.
+    // 戻り値: 格納先の配列が返却されます.
+    int[] hits(int len) {
+        if(hits.length < len) {
+            hits = new int[len];
+        }
+        return hits;
+    }
+}
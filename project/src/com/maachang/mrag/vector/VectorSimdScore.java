@@ -0,0 +1,264 @@
+package com.maachang.mrag.vector;
+
+import jdk.incubator.vector.*;
+
+/**
+ * jdk.incubator.vector を利用したSIMDベクトル得点計算.
+ * 実行時に --add-modules jdk.incubator.vector が指定されていない場合
+ * このクラスはロードできないため、VectorScore 経由で利用します.
+ */
+final class VectorSimdScore extends VectorScore {
+    // 利用するレーン定義.
+    private static final VectorSpecies<Float> SPECIES =
+        FloatVector.SPECIES_PREFERRED;
+
+    // int8内積で利用する int のレーン定義.
+    private static final VectorSpecies<Integer> INT_SPECIES =
+        IntVector.SPECIES_PREFERRED;
+
+    // int8内積で利用する byte のレーン定義(int と同じレーン数).
+    // 対応する形状が存在しない場合は null (スカラー実装で計算).
+    private static final VectorSpecies<Byte> BYTE_SPECIES = byteSpecies();
+
+    // int と同じレーン数の byte のレーン定義を取得.
+    private static final VectorSpecies<Byte> byteSpecies() {
+        try {
+            return VectorSpecies.of(byte.class,
+                VectorShape.forBitSize(INT_SPECIES.length() * 8));
+        } catch(Exception e) {
+            return null;
+        }
+    }
+
+    // 16bit浮動小数点の内積で利用する int のレーン定義(float と同じ形状).
+    private static final VectorSpecies<Integer> HALF_INT_SPECIES =
+        SPECIES.withLanes(int.class);
+
+    // 16bit浮動小数点の内積で利用する short のレーン定義(float と同じレーン数).
+    // 対応する形状が存在しない場合は null (スカラー実装で計算).
+    private static final VectorSpecies<Short> SHORT_SPECIES = shortSpecies();
+
+    // float と同じレーン数の short のレーン定義を取得.
+    private static final VectorSpecies<Short> shortSpecies() {
+        try {
+            return VectorSpecies.of(short.class,
+                VectorShape.forBitSize(SPECIES.length() * 16));
+        } catch(Exception e) {
+            return null;
+        }
+    }
+
+    // float16 の指数部の差(2^112)を補正する倍率.
+    private static final float FLOAT16_EXPONENT_ADJUST = 0x1.0p112f;
+
+    // コンストラクタ.
+    VectorSimdScore() {}
+
+    // 得点を計算: コサイン類似度.
+    // a: 比較元のベクトルを設定します.
+    // b: 比較先のベクトルを設定します.
+    // 戻り値: コサイン類似度が返却されます.
+    @Override
+    public double cosine(float[] a, float[] b) {
+        FloatVector va, vb;
+        FloatVector d = FloatVector.zero(SPECIES);
+        FloatVector na = FloatVector.zero(SPECIES);
+        FloatVector nb = FloatVector.zero(SPECIES);
+        final int len = a.length;
+        final int step = SPECIES.length();
+        final int bound = SPECIES.loopBound(len);
+        int i;
+        // レーン単位でFMA計算.
+        for(i = 0; i < bound; i += step) {
+            va = FloatVector.fromArray(SPECIES, a, i);
+            vb = FloatVector.fromArray(SPECIES, b, i);
+            d = va.fma(vb, d);
+            na = va.fma(va, na);
+            nb = vb.fma(vb, nb);
+        }
+        double dv = d.reduceLanes(VectorOperators.ADD);
+        double nav = na.reduceLanes(VectorOperators.ADD);
+        double nbv = nb.reduceLanes(VectorOperators.ADD);
+        // レーンに満たない余りを計算.
+        float av, bv;
+        for(; i < len; i ++) {
+            av = a[i]; bv = b[i];
+            dv += (double)(av * bv);
+            nav += (double)(av * av);
+            nbv += (double)(bv * bv);
+        }
+        return (dv / (Math.sqrt(nav * nbv) + 1.0E-10));
+    }
+
+    // 得点を計算: 内積.
+    // a: 比較元のベクトルを設定します.
+    // b: 比較先のベクトルを設定します.
+    // 戻り値: 内積が返却されます.
+    @Override
+    public double dot(float[] a, float[] b) {
+        FloatVector d = FloatVector.zero(SPECIES);
+        final int len = a.length;
+        final int step = SPECIES.length();
+        final int bound = SPECIES.loopBound(len);
+        int i;
+        for(i = 0; i < bound; i += step) {
+            d = FloatVector.fromArray(SPECIES, a, i).fma(
+                FloatVector.fromArray(SPECIES, b, i), d);
+        }
+        double ret = d.reduceLanes(VectorOperators.ADD);
+        for(; i < len; i ++) {
+            ret += (double)(a[i] * b[i]);
+        }
+        return ret;
+    }
+
+    // 得点を計算: 内積.
+    // 連続領域に格納されたベクトルとの内積を計算します.
+    // a: 比較元のベクトルを設定します.
+    // b: 比較先のベクトルが格納された配列を設定します.
+    // bOff: b の開始位置を設定します.
+    // 戻り値: 内積が返却されます.
+    @Override
+    public double dot(float[] a, float[] b, int bOff) {
+        FloatVector d = FloatVector.zero(SPECIES);
+        final int len = a.length;
+        final int step = SPECIES.length();
+        final int bound = SPECIES.loopBound(len);
+        int i;
+        for(i = 0; i < bound; i += step) {
+            d = FloatVector.fromArray(SPECIES, a, i).fma(
+                FloatVector.fromArray(SPECIES, b, bOff + i), d);
+        }
+        double ret = d.reduceLanes(VectorOperators.ADD);
+        for(; i < len; i ++) {
+            ret += (double)(a[i] * b[bOff + i]);
+        }
+        return ret;
+    }
+
+    // 得点を計算: 内積.
+    // 連続領域に格納されたベクトル同士の内積を計算します.
+    // a: 比較元のベクトルが格納された配列を設定します.
+    // aOff: a の開始位置を設定します.
+    // b: 比較先のベクトルが格納された配列を設定します.
+    // bOff: b の開始位置を設定します.
+    // len: ベクトルの長さを設定します.
+    // 戻り値: 内積が返却されます.
+    @Override
+    public double dot(float[] a, int aOff, float[] b, int bOff, int len) {
+        FloatVector d = FloatVector.zero(SPECIES);
+        final int step = SPECIES.length();
+        final int bound = SPECIES.loopBound(len);
+        int i;
+        for(i = 0; i < bound; i += step) {
+            d = FloatVector.fromArray(SPECIES, a, aOff + i).fma(
+                FloatVector.fromArray(SPECIES, b, bOff + i), d);
+        }
+        double ret = d.reduceLanes(VectorOperators.ADD);
+        for(; i < len; i ++) {
+            ret += (double)(a[aOff + i] * b[bOff + i]);
+        }
+        return ret;
+    }
+
+    // 得点を計算: int8ベクトル同士の内積.
+    // a: 比較元のベクトルが格納された配列を設定します.
+    // aOff: a の開始位置を設定します.
+    // b: 比較先のベクトルが格納された配列を設定します.
+    // bOff: b の開始位置を設定します.
+    // len: ベクトルの長さを設定します.
+    // 戻り値: 整数の内積が返却されます.
+    @Override
+    public int dot(byte[] a, int aOff, byte[] b, int bOff, int len) {
+        if(BYTE_SPECIES == null) {
+            return super.dot(a, aOff, b, bOff, len);
+        }
+        IntVector va, vb;
+        IntVector d = IntVector.zero(INT_SPECIES);
+        final int step = INT_SPECIES.length();
+        final int bound = len - (len % step);
+        int i;
+        // byteをintに拡張してレーン単位で計算.
+        for(i = 0; i < bound; i += step) {
+            va = (IntVector)ByteVector.fromArray(BYTE_SPECIES, a, aOff + i)
+                .convertShape(VectorOperators.B2I, INT_SPECIES, 0);
+            vb = (IntVector)ByteVector.fromArray(BYTE_SPECIES, b, bOff + i)
+                .convertShape(VectorOperators.B2I, INT_SPECIES, 0);
+            d = va.mul(vb).add(d);
+        }
+        int ret = d.reduceLanes(VectorOperators.ADD);
+        for(; i < len; i ++) {
+            ret += a[aOff + i] * b[bOff + i];
+        }
+        return ret;
+    }
+
+    // 得点を計算: floatベクトルと16bit浮動小数点ベクトルの内積.
+    // 16bitをintに拡張し、ビット演算でfloatに変換してレーン単位で計算します.
+    // float16 は 符号を除いたビットを float の位置(13bit左)にずらして 2^112 を
+    // 掛けることで非正規化数を含めて変換します(無限大・NaN は扱いません).
+    // a: 比較元のベクトルを設定します.
+    // b: 比較先のベクトルが格納された配列を設定します.
+    // bOff: b の開始位置を設定します.
+    // bfloat16: b が bfloat16 の場合 true, float16 の場合 false を設定します.
+    // 戻り値: 内積が返却されます.
+    @Override
+    public double dot(float[] a, short[] b, int bOff, boolean bfloat16) {
+        if(SHORT_SPECIES == null) {
+            return super.dot(a, b, bOff, bfloat16);
+        }
+        IntVector v;
+        FloatVector vb;
+        FloatVector d = FloatVector.zero(SPECIES);
+        final int len = a.length;
+        final int step = SPECIES.length();
+        final int bound = SPECIES.loopBound(len);
+        int i;
+        for(i = 0; i < bound; i += step) {
+            v = (IntVector)ShortVector.fromArray(SHORT_SPECIES, b, bOff + i)
+                .convertShape(VectorOperators.ZERO_EXTEND_S2I, HALF_INT_SPECIES, 0);
+            if(bfloat16) {
+                // 上位16bitとして配置.
+                vb = v.lanewise(VectorOperators.LSHL, 16).reinterpretAsFloats();
+            } else {
+                // 指数部・仮数部を配置して指数を補正し、符号を付与.
+                vb = v.and(0x7fff).lanewise(VectorOperators.LSHL, 13)
+                    .reinterpretAsFloats().mul(FLOAT16_EXPONENT_ADJUST)
+                    .reinterpretAsInts()
+                    .or(v.and(0x8000).lanewise(VectorOperators.LSHL, 16))
+                    .reinterpretAsFloats();
+            }
+            d = FloatVector.fromArray(SPECIES, a, i).fma(vb, d);
+        }
+        double ret = d.reduceLanes(VectorOperators.ADD);
+        for(; i < len; i ++) {
+            ret += (double)(a[i] * VectorHalfMatrix.toFloat(b[bOff + i], bfloat16));
+        }
+        return ret;
+    }
+
+    // ベクトルの長さ(L2ノルム)を計算.
+    // a: 対象のベクトルが格納された配列を設定します.
+    // off: a の開始位置を設定します.
+    // len: ベクトルの長さを設定します.
+    // 戻り値: L2ノルムが返却されます.
+    @Override
+    public double norm(float[] a, int off, int len) {
+        FloatVector va;
+        FloatVector n = FloatVector.zero(SPECIES);
+        final int step = SPECIES.length();
+        final int bound = SPECIES.loopBound(len);
+        int i;
+        for(i = 0; i < bound; i += step) {
+            va = FloatVector.fromArray(SPECIES, a, off + i);
+            n = va.fma(va, n);
+        }
+        double ret = n.reduceLanes(VectorOperators.ADD);
+        float av;
+        for(; i < len; i ++) {
+            av = a[off + i];
+            ret += (double)(av * av);
+        }
+        return Math.sqrt(ret);
+    }
+}
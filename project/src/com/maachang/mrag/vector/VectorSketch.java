@@ -0,0 +1,172 @@
+package com.maachang.mrag.vector;
+
+/**
+ * embeddingの符号ビット(1次元 1bit)によるスケッチ.
+ * 検索ベクトルとのハミング距離(異なるビット数)で候補を絞り込むために利用します.
+ * 768次元の場合 1件 96byte となるため、float32 のembeddingより
+ * 少ないメモリアクセスで全件を走査できます.
+ */
+public final class VectorSketch {
+    // 検索時間を確認する間隔(件数).
+    private static final int CHECK_SIZE = 4096;
+
+    // 格納件数.
+    private final int length;
+
+    // embeddingの次元数.
+    private final int dimension;
+
+    // 1件あたりの long 数.
+    private final int words;
+
+    // 符号ビット群(length x words).
+    private final long[] bits;
+
+    // コンストラクタ.
+    // length: 格納件数を設定します.
+    // dimension: embeddingの次元数を設定します.
+    public VectorSketch(int length, int dimension) {
+        this.length = length;
+        this.dimension = dimension;
+        this.words = getWords(dimension);
+        this.bits = new long[length * words];
+    }
+
+    // embedding行列からスケッチを作成.
+    // matrix: 対象のembedding行列を設定します.
+    // 戻り値: VectorSketchが返却されます.
+    public static final VectorSketch create(VectorMatrix matrix) {
+        int len = matrix.size();
+        VectorSketch ret = new VectorSketch(len, matrix.getDimension());
+        float[] buf = new float[matrix.getDimension()];
+        for(int i = 0; i < len; i ++) {
+            ret.set(i, matrix.get(i, buf));
+        }
+        return ret;
+    }
+
+    // 1件あたりの long 数を取得.
+    // dimension: embeddingの次元数を設定します.
+    // 戻り値: 1件あたりの long 数が返却されます.
+    public static final int getWords(int dimension) {
+        return (dimension + 63) >>> 6;
+    }
+
+    // embeddingを符号ビットに変換.
+    // embedding: 対象のembeddingを設定します.
+    // out: 格納先を設定します.
+    // outOff: out の開始位置を設定します.
+    public static final void encode(float[] embedding, long[] out, int outOff) {
+        int i, len = embedding.length;
+        long w = 0L;
+        for(i = 0; i < len; i ++) {
+            if(embedding[i] > 0.0f) {
+                w |= 1L << (i & 63);
+            }
+            if((i & 63) == 63) {
+                out[outOff + (i >>> 6)] = w;
+                w = 0L;
+            }
+        }
+        if((len & 63) != 0) {
+            out[outOff + (len >>> 6)] = w;
+        }
+    }
+
+    // 格納件数を取得.
+    // 戻り値: 格納件数が返却されます.
+    public int size() {
+        return length;
+    }
+
+    // embeddingの次元数を取得.
+    // 戻り値: 次元数が返却されます.
+    public int getDimension() {
+        return dimension;
+    }
+
+    // 1件あたりの long 数を取得.
+    // 戻り値: 1件あたりの long 数が返却されます.
+    public int getWords() {
+        return words;
+    }
+
+    // embeddingの符号ビットをセット.
+    // no: 格納先の項番を設定します.
+    // embedding: 対象のembeddingを設定します.
+    public void set(int no, float[] embedding) {
+        encode(embedding, bits, no * words);
+    }
+
+    // 符号ビットをセット.
+    // no: 格納先の項番を設定します.
+    // word: 対象の long 位置を設定します.
+    // value: 符号ビットを設定します.
+    public void setWord(int no, int word, long value) {
+        bits[no * words + word] = value;
+    }
+
+    // 符号ビットを取得.
+    // no: 取得対象の項番を設定します.
+    // word: 対象の long 位置を設定します.
+    // 戻り値: 符号ビットが返却されます.
+    public long getWord(int no, int word) {
+        return bits[no * words + word];
+    }
+
+    // 検索ベクトルを符号ビットに変換.
+    // query: 検索ベクトルを設定します.
+    // 戻り値: 符号ビットが返却されます.
+    public long[] query(float[] query) {
+        return query(query, new long[words]);
+    }
+
+    // 検索ベクトルを符号ビットに変換.
+    // query: 検索ベクトルを設定します.
+    // out: 格納先(getWords() 以上の長さ)を設定します.
+    // 戻り値: out が返却されます.
+    public long[] query(float[] query, long[] out) {
+        encode(query, out, 0);
+        return out;
+    }
+
+    // 指定範囲のハミング距離を計算して近い上位K件を取得.
+    // 得点はハミング距離をマイナスにした値となります.
+    // query: query(float[]) で変換された符号ビットを設定します.
+    // from: 開始項番を設定します.
+    // to: 終了項番(この項番を含まない)を設定します.
+    // out: 上位K件の格納先を設定します.
+    public void scan(long[] query, int from, int to, VectorTopK out) {
+        int i, j, off, d;
+        final int w = words;
+        final long[] b = bits;
+        for(i = from, off = from * w; i < to; i ++) {
+            d = 0;
+            for(j = 0; j < w; j ++, off ++) {
+                d += Long.bitCount(query[j] ^ b[off]);
+            }
+            out.add(i, -d);
+        }
+    }
+
+    // 検索時間を指定して指定範囲のハミング距離を計算して近い上位K件を取得.
+    // 検索時間を超えた場合は、それまでに計算した範囲の上位K件で終了します.
+    // query: query(float[]) で変換された符号ビットを設定します.
+    // from: 開始項番を設定します.
+    // to: 終了項番(この項番を含まない)を設定します.
+    // out: 上位K件の格納先を設定します.
+    // deadline: System.nanoTime() による終了時間(VectorMatrix.NO_DEADLINE の場合は制限なし)を設定します.
+    // 戻り値: false の場合、検索時間を超えたため途中で終了しました.
+    public boolean scan(long[] query, int from, int to, VectorTopK out,
+        long deadline) {
+        int end;
+        for(int i = from; i < to; i = end) {
+            if(VectorMatrix.isExpired(deadline)) {
+                return false;
+            }
+            end = Math.min(to, i + CHECK_SIZE);
+            scan(query, i, end, out);
+        }
+        return true;
+    }
+}
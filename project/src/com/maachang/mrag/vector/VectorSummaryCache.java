@@ -0,0 +1,143 @@
+package com.maachang.mrag.vector;
+
+import java.io.*;
+import java.util.*;
+
+import com.maachang.mrag.*;
+
+/**
+ * 文書サマリーのキャッシュ.
+ * 推論サーバ接続先とサマリー作成の問い合わせ内容(サマリー作成フォーマットと
+ * 文書本文)のハッシュ、文書名に対して作成済みのサマリーを保持し、
+ * 同じ内容の文書を再登録する場合に推論を行わずに再利用します.
+ * キャッシュは文書名毎に最新の１件のみ保持します.
+ */
+public final class VectorSummaryCache {
+    // サマリーキャッシュファイルシンボル.
+    private static final String SUMMARY_CACHE_FILE_SIMBOL = "@vsh";
+
+    // シンボルの文字数.
+    private static final int SIMBOLE_SIZE = 4;
+
+    // キャッシュ要素.
+    private static final class Entry {
+        // サマリー作成の問い合わせ内容のハッシュ.
+        final String hash;
+        // 文書名.
+        final String docName;
+        // サマリーテキスト.
+        final String text;
+
+        Entry(String hash, String docName, String text) {
+            this.hash = hash;
+            this.docName = docName;
+            this.text = text;
+        }
+    }
+
+    // ハッシュと文書名に対するキャッシュ要素.
+    private final Map<String, Entry> cache = new HashMap<String, Entry>();
+
+    // コンストラクタ.
+    public VectorSummaryCache() {}
+
+    // サマリー作成の問い合わせ内容のハッシュを取得.
+    // chatKey: Config.getChatKey() で取得した推論サーバ接続先を設定します.
+    // request: サマリー作成の問い合わせ内容を設定します.
+    // 戻り値: ハッシュ文字列が返却されます.
+    public static final String hash(String chatKey, String request) {
+        return VectorDedup.textHash(chatKey + "\u0000" + request);
+    }
+
+    // キャッシュのキーを取得.
+    private static final String key(String hash, String docName) {
+        return hash + "\u0000" + docName;
+    }
+
+    // キャッシュされたサマリーを取得.
+    // hash: サマリー作成の問い合わせ内容のハッシュを設定します.
+    // docName: 文書名を設定します.
+    // 戻り値: サマリーテキストが返却されます(存在しない場合は null).
+    public String get(String hash, String docName) {
+        Entry e = cache.get(key(hash, docName));
+        return e == null ? null : e.text;
+    }
+
+    // サマリーをキャッシュ.
+    // 同じ文書名の以前のキャッシュは削除されます.
+    // hash: サマリー作成の問い合わせ内容のハッシュを設定します.
+    // docName: 文書名を設定します.
+    // text: サマリーテキストを設定します.
+    public void put(String hash, String docName, String text) {
+        remove(docName);
+        cache.put(key(hash, docName), new Entry(hash, docName, text));
+    }
+
+    // 文書名のキャッシュを削除.
+    // docName: 文書名を設定します.
+    public void remove(String docName) {
+        Iterator<Entry> it = cache.values().iterator();
+        while(it.hasNext()) {
+            if(it.next().docName.equals(docName)) {
+                it.remove();
+            }
+        }
+    }
+
+    // 格納数を取得.
+    // 戻り値: 格納数が返却されます.
+    public int size() {
+        return cache.size();
+    }
+
+    // サマリーキャッシュを保存(serialize).
+    // out: 保存先のOutputStreamを設定します.
+    public void save(OutputStream out) {
+        byte[] bin;
+        try {
+            // ファイルシンボルを出力.
+            out.write(EncodeBinary.getString(SUMMARY_CACHE_FILE_SIMBOL));
+            out.write(EncodeBinary.getInt3(cache.size()));
+            for(Entry e : cache.values()) {
+                // ハッシュ.
+                bin = EncodeBinary.getString(e.hash);
+                out.write(EncodeBinary.getInt2(bin.length));
+                out.write(bin);
+                // 文書名.
+                bin = EncodeBinary.getString(e.docName);
+                out.write(EncodeBinary.getInt2(bin.length));
+                out.write(bin);
+                // サマリーテキスト.
+                bin = EncodeBinary.getString(e.text);
+                out.write(EncodeBinary.getInt3(bin.length));
+                out.write(bin);
+            }
+            out.flush();
+        } catch(MRagException me) {
+            throw me;
+        } catch(Exception ex) {
+            throw new MRagException(ex);
+        }
+    }
+
+    // サマリーキャッシュをロード.
+    // binary: save で保存したバイナリを設定します.
+    // 戻り値: VectorSummaryCacheが返却されます.
+    public static final VectorSummaryCache load(byte[] binary) {
+        DecodeBinary bd = new DecodeBinary(binary);
+        // ファイルシンボルの確認.
+        if(!SUMMARY_CACHE_FILE_SIMBOL.equals(bd.getString(SIMBOLE_SIZE))) {
+            throw new MRagException("Not a summary cache file symbol");
+        }
+        VectorSummaryCache ret = new VectorSummaryCache();
+        String hash, docName;
+        final int allLen = bd.getUInt3();
+        for(int i = 0; i < allLen; i ++) {
+            hash = bd.getString(bd.getUInt2());
+            docName = bd.getString(bd.getUInt2());
+            ret.cache.put(key(hash, docName),
+                new Entry(hash, docName, bd.getString(bd.getUInt3())));
+        }
+        return ret;
+    }
+}
@@ -29,9 +29,6 @@ public class VectorTaskThread extends RunTaskThread {
 	// VectorStoreGroupリスト管理.
 	private Map<String, VectorGroup> vectorGroupList;
 
-	// VectorChunkキャッシュ管理.
-	private Queue<VectorChunk> cacheMan;
-
 	// グループファイル管理リスト.
 	private Map<String, VGFileInfo> groupFileList =
 		new ConcurrentHashMap<String, VGFileInfo>();
@@ -46,11 +43,8 @@ public class VectorTaskThread extends RunTaskThread {
 	// コンストラクタ.
 	// vsList: VectorStoreオブジェクトで管理している
 	//         VectorStoreGroupリストを設定します.
-	// cman: VectorChunkキャッシュ管理オブジェクトを設定します.
-	public VectorTaskThread(
-		Map<String, VectorGroup> vsList, Queue<VectorChunk> cman) {
+	public VectorTaskThread(Map<String, VectorGroup> vsList) {
 		vectorGroupList = vsList;
-		cacheMan = cman;
 	}
 
 	// 外部処理からのタスク追加.
@@ -141,7 +135,7 @@ public class VectorTaskThread extends RunTaskThread {
 				// 存在する場合は更新処理.
 				queue.offer(
 					new UpdateVectorGroupTask(
-						vectorGroupList, cacheMan, group));
+						vectorGroupList, group));
 			} else {
 				// 存在しない場合は削除処理.
 				queue.offer(
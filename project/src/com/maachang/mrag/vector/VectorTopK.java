@@ -0,0 +1,163 @@
+package com.maachang.mrag.vector;
+
+/**
+ * 得点上位K件を保持する固定長の最小ヒープ.
+ * (項番, 得点) をプリミティブ配列で管理するため、
+ * 検索対象毎のオブジェクト生成は行いません.
+ */
+public final class VectorTopK {
+    // 項番群.
+    private int[] ids;
+    // 得点群.
+    private double[] scores;
+    // 保持する最大件数.
+    private int limit;
+    // 現在の格納件数.
+    private int size;
+
+    // コンストラクタ.
+    // k: 保持する最大件数を設定します.
+    public VectorTopK(int k) {
+        ids = new int[k];
+        scores = new double[k];
+        limit = k;
+        size = 0;
+    }
+
+    // 保持内容をクリア.
+    // k: 保持する最大件数を設定します.
+    // 戻り値: このオブジェクトが返却されます.
+    public VectorTopK clear(int k) {
+        if(ids.length < k) {
+            ids = new int[k];
+            scores = new double[k];
+        }
+        limit = k;
+        size = 0;
+        return this;
+    }
+
+    // 保持する最大件数を取得.
+    // 戻り値: 保持する最大件数が返却されます.
+    public int limit() {
+        return limit;
+    }
+
+    // 現在の格納件数を取得.
+    // 戻り値: 現在の格納件数が返却されます.
+    public int size() {
+        return size;
+    }
+
+    // 最大件数まで格納されているか確認.
+    // 戻り値: true の場合、最大件数まで格納されています.
+    public boolean isFull() {
+        return size >= limit;
+    }
+
+    // 現在保持している中で一番低い得点を取得.
+    // 最大件数に満たない場合は Double.NEGATIVE_INFINITY が返却されます.
+    // 戻り値: 上位K件に入るための最低得点が返却されます.
+    public double minScore() {
+        return size < limit ? Double.NEGATIVE_INFINITY : scores[0];
+    }
+
+    // (項番, 得点)を追加.
+    // id: 項番を設定します.
+    // score: 得点を設定します.
+    // 戻り値: true の場合、上位K件に追加されました.
+    public boolean add(int id, double score) {
+        if(size < limit) {
+            // 末尾に追加して上方向に整列.
+            int i = size ++;
+            int p;
+            while(i > 0) {
+                p = (i - 1) >> 1;
+                if(!lower(score, id, scores[p], ids[p])) {
+                    break;
+                }
+                ids[i] = ids[p];
+                scores[i] = scores[p];
+                i = p;
+            }
+            ids[i] = id;
+            scores[i] = score;
+            return true;
+        }
+        // 最低得点より低い場合は追加しない.
+        if(limit == 0 || !lower(scores[0], ids[0], score, id)) {
+            return false;
+        }
+        // 先頭(最低得点)を置き換えて下方向に整列.
+        siftDown(id, score, size);
+        return true;
+    }
+
+    // 別の上位K件の内容を追加.
+    // 並列検索で分割された結果をまとめる場合に利用します.
+    // o: 追加対象の上位K件を設定します(sort前の内容).
+    public void merge(VectorTopK o) {
+        final int len = o.size;
+        for(int i = 0; i < len; i ++) {
+            add(o.ids[i], o.scores[i]);
+        }
+    }
+
+    // 得点の比較.
+    // 得点が同じ場合は項番が大きい方を低いとします.
+    // 戻り値: true の場合、(sa, ia) の方が (sb, ib) より低い.
+    private static final boolean lower(double sa, int ia, double sb, int ib) {
+        return sa < sb || (sa == sb && ia > ib);
+    }
+
+    // 先頭に(項番, 得点)をセットして下方向に整列.
+    private final void siftDown(int id, double score, int len) {
+        int i = 0, c;
+        final int half = len >> 1;
+        while(i < half) {
+            c = (i << 1) + 1;
+            if(c + 1 < len && lower(scores[c + 1], ids[c + 1], scores[c], ids[c])) {
+                c ++;
+            }
+            if(!lower(scores[c], ids[c], score, id)) {
+                break;
+            }
+            ids[i] = ids[c];
+            scores[i] = scores[c];
+            i = c;
+        }
+        ids[i] = id;
+        scores[i] = score;
+    }
+
+    // 保持内容を得点の高い順に並び替え.
+    // この処理の後は add を呼び出さず getId, getScore で取得します.
+    // 戻り値: 格納件数が返却されます.
+    public int sort() {
+        int id;
+        double score;
+        // ヒープソート: 最低得点を末尾に移動していく.
+        for(int n = size - 1; n > 0; n --) {
+            id = ids[n];
+            score = scores[n];
+            ids[n] = ids[0];
+            scores[n] = scores[0];
+            siftDown(id, score, n);
+        }
+        return size;
+    }
+
+    // 項番を取得.
+    // no: 取得位置を設定します.
+    // 戻り値: 項番が返却されます.
+    public int getId(int no) {
+        return ids[no];
+    }
+
+    // 得点を取得.
+    // no: 取得位置を設定します.
+    // 戻り値: 得点が返却されます.
+    public double getScore(int no) {
+        return scores[no];
+    }
+}
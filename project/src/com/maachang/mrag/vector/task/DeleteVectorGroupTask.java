@@ -26,6 +26,8 @@ public class DeleteVectorGroupTask implements VectorGroupTask {
 	public void executeTask() {
         // VectorStoreGroupListから削除.
         vectorGroupList.remove(groupName);
+        // 削除したグループで作成された回答キャッシュを削除.
+        VectorAnswerCache.getInstance().remove(groupName);
     }
 
     // グループ名を取得.
@@ -11,20 +11,15 @@ public class UpdateVectorGroupTask implements VectorGroupTask {
 	// VectorStoreGroupリスト管理.
 	private Map<String, VectorGroup> vectorGroupList;
 
-    // VectorChunkキャッシュオブジェクト.
-    private Queue<VectorChunk> cacheMan;
-
     // 更新Vectorグループ名.
     private String groupName;
 
     // コンストラクタ.
     // vgList: VectorStoreGroupリスト管理を設定します.
-    // cman: VectorChunkキャッシュオブジェクトを設定します.
     // name: 更新するグループ名を設定します.
     public UpdateVectorGroupTask(
-        Map<String, VectorGroup> vgList, Queue<VectorChunk> cman, String name) {
+        Map<String, VectorGroup> vgList, String name) {
         vectorGroupList = vgList;
-        cacheMan = cman;
         groupName = name;
     }
 
@@ -33,9 +28,43 @@ public class UpdateVectorGroupTask implements VectorGroupTask {
         Config cf = Config.getInstance();
         // VectorGroupを取得.
         VectorGroup newvVg = VectorFile.loadVectorGroup(
-            cf.vectorStorePath, groupName, cacheMan);
+            cf.vectorStorePath, groupName);
+        // PQ検索の場合は元のembeddingを量子化したものに置き換える.
+        if(Const.VECTOR_SEARCH_MODE_PQ.equals(cf.vectorSearchMode)) {
+            VectorFile.loadPqIndex(newvVg);
+        }
         // VectorStoreGroupListに上書き.
         vectorGroupList.put(groupName, newvVg);
+        // 更新前のグループで作成された回答キャッシュを削除.
+        VectorAnswerCache.getInstance().remove(groupName);
+        // 近似検索の場合はバックグラウンドでインデックスを作成.
+        // 作成されるまでは全件検索が行われます.
+        final String mode = cf.vectorSearchMode;
+        if(Const.VECTOR_SEARCH_MODE_HNSW.equals(mode) ||
+            Const.VECTOR_SEARCH_MODE_IVF.equals(mode)) {
+            Thread.ofVirtual().start(() -> {
+                try {
+                    if(Const.VECTOR_SEARCH_MODE_HNSW.equals(mode)) {
+                        VectorFile.loadHnswIndex(newvVg);
+                    } else {
+                        VectorFile.loadIvfIndex(newvVg);
+                    }
+                } catch(Exception e) {
+                    // 作成に失敗した場合は全件検索のまま.
+                }
+            });
+        }
+        // ハイブリッド検索の場合はバックグラウンドでBM25の転置インデックスを作成.
+        // 作成されるまではベクトル検索のみが行われます.
+        if(cf.hybridSearch) {
+            Thread.ofVirtual().start(() -> {
+                try {
+                    VectorFile.loadBm25Index(newvVg);
+                } catch(Exception e) {
+                    // 作成に失敗した場合はベクトル検索のみ.
+                }
+            });
+        }
     }
 
     // グループ名を取得.
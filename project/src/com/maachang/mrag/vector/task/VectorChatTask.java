@@ -8,8 +8,10 @@ import com.maachang.mrag.Util.SortKeyValue;
 
 // VectorStoreでの推論問い合わせに対するタスク.
 public class VectorChatTask implements VectorGroupTask {
-    // 削除Vectorグループ名.
-    private VectorGroup vectorGroup;
+    // 検索対象のVectorグループ群.
+    private List<VectorGroup> vectorGroups;
+    // 検索対象の文書条件(null の場合は全件).
+    private VectorFilter filter;
     // 推論問い合わせメッセージ.
     private String message;
     // タスク実行結果をコールバックするオブジェクト.
@@ -21,29 +23,96 @@ public class VectorChatTask implements VectorGroupTask {
     // taskCall: 推論結果を返却実行対象のコールバックオブジェクトを設定します.
     public VectorChatTask(
         VectorGroup vectorGroup, String message, TaskCallback taskCall) {
-        this.vectorGroup = vectorGroup;
+        this(Arrays.asList(vectorGroup), message, taskCall);
+    }
+
+    // コンストラクタ.
+    // 複数のVectorGroupを同時に検索して推論問い合わせを行います.
+    // vectorGroups: 実行VectorGroupオブジェクト群を設定します.
+    // message: 推論対象のメッセージを設定します.
+    // taskCall: 推論結果を返却実行対象のコールバックオブジェクトを設定します.
+    public VectorChatTask(
+        List<VectorGroup> vectorGroups, String message, TaskCallback taskCall) {
+        this(vectorGroups, null, message, taskCall);
+    }
+
+    // コンストラクタ.
+    // 複数のVectorGroupを文書条件を指定して同時に検索して推論問い合わせを行います.
+    // vectorGroups: 実行VectorGroupオブジェクト群を設定します.
+    // filter: 検索対象の文書条件を設定します(null の場合は全件).
+    // message: 推論対象のメッセージを設定します.
+    // taskCall: 推論結果を返却実行対象のコールバックオブジェクトを設定します.
+    public VectorChatTask(List<VectorGroup> vectorGroups, VectorFilter filter,
+        String message, TaskCallback taskCall) {
+        if(vectorGroups == null || vectorGroups.size() == 0) {
+            throw new MRagException("No VectorGroup is specified");
+        }
+        this.vectorGroups = vectorGroups;
+        this.filter = filter;
         this.message = message;
         this.taskCall = taskCall;
     }
 
     // グループ名を取得.
+    // 複数のVectorGroupの場合は "," 区切りで返却されます.
     // 戻り値: グループ名が返却されます.
     public String getGroupName() {
-        return vectorGroup.getGroup();
+        int len = vectorGroups.size();
+        StringBuilder buf = new StringBuilder(vectorGroups.get(0).getGroup());
+        for(int i = 1; i < len; i ++) {
+            buf.append(",").append(vectorGroups.get(i).getGroup());
+        }
+        return buf.toString();
     }
 
 	// タスク実行.
 	public void executeTask() {
         Config config = Config.getInstance();
 
+        // 同じ質問の回答がキャッシュされている場合は
+        // ベクトル変換と推論を行わない.
+        VectorAnswerCache answerCache = VectorAnswerCache.getInstance();
+        VectorAnswerCache.Answer answer = answerCache.get(
+            vectorGroups, filter, message, null);
+        if(answer != null) {
+            taskCall.call(message, answer.message, answer.json);
+            return;
+        }
+
+        // 質問内容をベクトル座標に変換.
+        float[][] sembs = VectorFile.getQueryEmbeddings(
+            message, config.chunkSize, config.overlapSize);
+        // 分割されない質問の場合は検索ベクトルで近い質問の回答も対象とする.
+        float[] questionEmb = sembs.length == 1 ? sembs[0] : null;
+        if(questionEmb != null && config.answerCacheDistance > 0.0f) {
+            answer = answerCache.getSimilar(vectorGroups, filter, questionEmb);
+            if(answer != null) {
+                taskCall.call(message, answer.message, answer.json);
+                return;
+            }
+        }
+
+        // MMRの場合は多めに候補を取得する.
+        int searchLength = config.vectorSearchLength;
+        if(config.mmrRerank) {
+            searchLength *= Math.max(1, config.mmrCandidateFactor);
+        }
+
         // 質問内容を順位としてのVectorChunk群に変換.
         VectorChunk[] searchResult = VectorFile.searchEmbedding(
-            vectorGroup, config.chunkSize, config.overlapSize,
-            config.vectorSearchLength, message);
+            vectorGroups, searchLength, sembs, message, filter);
         
         // 検索条件を定めた文書名群を取得.
-        SortKeyValue[] docList = sortToScore(
-            searchResult, config.vectorSearchLength);
+        SortKeyValue[] docList;
+        if(config.mmrRerank) {
+            // 似た内容の検索結果が続かないように候補からMMRの順で選択.
+            searchResult = VectorMmr.rerank(searchResult,
+                searchResult.length, config.vectorSearchLength,
+                config.mmrLambda);
+            docList = sortToScore(searchResult, searchResult.length, false);
+        } else {
+            docList = sortToScore(searchResult, config.vectorSearchLength, true);
+        }
 
         // 検索文書名を検索.
         int maxLen = docList.length >= config.ragRequestChunkLength ?
@@ -53,19 +122,19 @@ public class VectorChatTask implements VectorGroupTask {
         String docName;
         String docUrl;
         String summaryTxt;
-        SortKeyValue n;
+        VectorChunk v;
         VectorSummary vs;
         StringBuilder embMsg = new StringBuilder();
         for(int i = 0; i < maxLen; i ++) {
-            n = docList[i];
-            docName = (String)n.value;
-            vs = vectorGroup.getSummary();
+            v = (VectorChunk)docList[i].value;
+            docName = v.docName;
+            vs = getVectorGroup(v.group).getSummary();
             summaryTxt = vs.getText(docName);
             docUrl = vs.getUrl(docName);
             embMsg.append(config.getRagRequestChunk(
-                (i + 1), docName, docUrl, (Float)n.key, summaryTxt));
+                (i + 1), docName, docUrl, (float)v.score, summaryTxt));
         }
-        n = null; docName = null; vs = null; summaryTxt = null; docUrl = null;
+        v = null; docName = null; vs = null; summaryTxt = null; docUrl = null;
 
         // 推論用のプロンプトを作成.
         String prompt = config.getRagRequest(embMsg.toString(), message);
@@ -76,32 +145,57 @@ public class VectorChatTask implements VectorGroupTask {
             config.getChatURL(),
             prompt, config.ragTemperature, -1);
         
+        // 推論結果のメッセージを取得してキャッシュ.
+        String resMessage = LlamaCpp.getResultChatCompletionsToText(
+            resChatJson);
+        answerCache.put(vectorGroups, filter, message, questionEmb,
+            resMessage, resChatJson);
+
         // 推論結果を取得.
         taskCall.call(
             message // 質問をセット.
-            ,LlamaCpp.getResultChatCompletionsToText(
-                resChatJson) // 推論結果のメッセージ.
+            ,resMessage // 推論結果のメッセージ.
             ,resChatJson // 推論結果のjson.
         );
     }
 
+    // グループ名に対するVectorGroupを取得.
+    private final VectorGroup getVectorGroup(String group) {
+        int len = vectorGroups.size();
+        for(int i = 0; i < len; i ++) {
+            if(vectorGroups.get(i).getGroup().equals(group)) {
+                return vectorGroups.get(i);
+            }
+        }
+        return vectorGroups.get(0);
+    }
+
     // VectorGroup.serach結果を得点集計して返却.
-    private static final SortKeyValue[] sortToScore(VectorChunk[] result, int resultLen) {
+    // 同じグループの同じ文書名は最初のVectorChunkが対象となります.
+    // sort: true の場合は得点の降順、false の場合は result の順で返却します.
+    private static final SortKeyValue[] sortToScore(
+        VectorChunk[] result, int resultLen, boolean sort) {
         // ベクトル検索結果の順位のための計算処理を実施.
         SortKeyValue n;
+        String key;
         Map<String, SortKeyValue> ranking = new HashMap<String, SortKeyValue>();
         List<SortKeyValue> sortList = Util.createSortKeyValueList();
+        resultLen = Math.min(resultLen, result.length);
         for(int i = 0; i < resultLen; i++) {
             VectorChunk v = result[i];
-            n = ranking.get(v.docName);
+            key = v.group + "/" + v.docName;
+            n = ranking.get(key);
             if(n == null) {
                 // 一番高い得点の数字の対象抽出.
-                n = new SortKeyValue(v.score, v.docName);
-                ranking.put(v.docName, n);
+                n = new SortKeyValue(v.score, v);
+                ranking.put(key, n);
                 sortList.add(n);
             }
         }
+        if(!sort) {
+            return sortList.toArray(new SortKeyValue[sortList.size()]);
+        }
         // 降順でソート処理.
         return Util.sortKeyValues(sortList, false);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,86 @@
+package com.maachang.mrag.vector;
+
+import java.util.*;
+
+import com.maachang.mrag.*;
+
+/**
+ * VectorAnswerCache の確認.
+ * 完全一致の取得、取得できない場合、件数を超えた場合に
+ * 最も長く参照されていない回答から削除されること(LRU)と、
+ * 検索ベクトルでの取得は Config.answerCacheDistance が 0 より大きい場合のみ
+ * 行われることを確認します.
+ * ant test で実行され、失敗した場合は AssertionError で終了します.
+ */
+public class VectorAnswerCacheTest {
+    // キャッシュ件数.
+    private static final int SIZE = 3;
+
+    public static void main(String[] args) {
+        Config config = Config.getInstance();
+        config.answerCacheSize = SIZE;
+        config.answerCacheDistance = 0.0f;
+        VectorAnswerCache cache = VectorAnswerCache.getInstance();
+        cache.clear();
+        List<VectorGroup> vgs = Arrays.asList(
+            VectorBenchmark.createSynthetic(10, 4, 2, 1L));
+        float[] emb = new float[] {1.0f, 0.0f, 0.0f, 0.0f};
+
+        // 完全一致(空白の違いを除く).
+        cache.put(vgs, null, "質問1", emb, "回答1", null);
+        check(cache.get(vgs, null, "質問1", null), "回答1");
+        check(cache.get(vgs, null, " 質問1 ", null), "回答1");
+        check(cache.getExactHits() == 2, "exact hits: " + cache.getExactHits());
+
+        // 取得できない場合.
+        check(cache.get(vgs, null, "質問2", null), null);
+        check(cache.getMisses() == 1, "misses: " + cache.getMisses());
+
+        // 距離が 0 の場合は検索ベクトルが同じでも完全一致のみ.
+        check(cache.get(vgs, null, "質問2", emb), null);
+        check(cache.getSimilar(vgs, null, emb), null);
+        check(cache.getSemanticHits() == 0,
+            "semantic hits: " + cache.getSemanticHits());
+
+        // 距離が指定された場合は検索ベクトルが近い質問の回答を取得.
+        config.answerCacheDistance = 0.1f;
+        check(cache.getSimilar(vgs, null, emb), "回答1");
+        check(cache.getSemanticHits() == 1,
+            "semantic hits: " + cache.getSemanticHits());
+        check(cache.getSimilar(vgs, null,
+            new float[] {0.0f, 1.0f, 0.0f, 0.0f}), null);
+        config.answerCacheDistance = 0.0f;
+
+        // 件数を超えた場合は参照の古い順に削除.
+        cache.put(vgs, null, "質問2", null, "回答2", null);
+        cache.put(vgs, null, "質問3", null, "回答3", null);
+        // 質問1を参照して質問2を最も古くする.
+        check(cache.get(vgs, null, "質問1", null), "回答1");
+        cache.put(vgs, null, "質問4", null, "回答4", null);
+        check(cache.size() == SIZE, "size: " + cache.size());
+        check(cache.get(vgs, null, "質問2", null), null);
+        check(cache.get(vgs, null, "質問1", null), "回答1");
+        check(cache.get(vgs, null, "質問3", null), "回答3");
+        check(cache.get(vgs, null, "質問4", null), "回答4");
+
+        // 対象グループの削除.
+        cache.remove(vgs.get(0).getGroup());
+        check(cache.size() == 0, "size after remove: " + cache.size());
+        System.out.println("VectorAnswerCacheTest: OK");
+    }
+
+    // 回答を確認.
+    private static final void check(VectorAnswerCache.Answer a, String message) {
+        if(message == null ? a != null : (a == null || !message.equals(a.message))) {
+            throw new AssertionError("expected " + message + " but " +
+                (a == null ? null : a.message));
+        }
+    }
+
+    // 条件を確認.
+    private static final void check(boolean ok, String message) {
+        if(!ok) {
+            throw new AssertionError(message);
+        }
+    }
+}
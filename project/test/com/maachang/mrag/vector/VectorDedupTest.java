@@ -0,0 +1,54 @@
+package com.maachang.mrag.vector;
+
+/**
+ * VectorDedup の確認.
+ * 演算子や符号、記号のみが異なるチャンクが完全一致として
+ * embedding を共有しないこと、空白のみが異なるチャンクは
+ * 共有することを確認します.
+ * ant test で実行され、失敗した場合は AssertionError で終了します.
+ */
+public class VectorDedupTest {
+    // 記号のみが異なるため別のチャンクとして扱うテキストの組.
+    private static final String[][] DIFFERENT = {
+        {"条件は x > 0 の場合です", "条件は x < 0 の場合です"},
+        {"最低気温は -5℃ です", "最低気温は 5℃ です"},
+        {"割引率は 10% です", "割引率は 10 です"},
+        {"a = b + c", "a = b - c"},
+        {"設定値は 1.5 です", "設定値は 15 です"},
+        {"ＡＢＣ", "ABC"},
+    };
+
+    // 空白のみが異なるため同じチャンクとして扱うテキストの組.
+    private static final String[][] SAME = {
+        {"条件は x > 0 の場合です", "  条件は  x > 0\nの場合です "},
+        {"a = b + c", "a\t=\tb + c"},
+    };
+
+    public static void main(String[] args) {
+        for(String[] t : DIFFERENT) {
+            if(shared(t[0], t[1])) {
+                throw new AssertionError("merged different chunks: \"" +
+                    t[0] + "\" / \"" + t[1] + "\"");
+            }
+        }
+        for(String[] t : SAME) {
+            if(!shared(t[0], t[1])) {
+                throw new AssertionError("not merged same chunks: \"" +
+                    t[0] + "\" / \"" + t[1] + "\"");
+            }
+        }
+        System.out.println("VectorDedupTest: OK");
+    }
+
+    // 完全一致のみの重複検出で embedding が共有されるか確認.
+    private static final boolean shared(String a, String b) {
+        VectorDedup dedup = new VectorDedup(-1);
+        float[] emb = new float[] {1.0f, 0.0f};
+        dedup.add(a, emb);
+        float[] ret = dedup.find(b);
+        if(ret != null && ret != emb) {
+            throw new AssertionError("unexpected embedding: \"" + b + "\"");
+        }
+        return ret == emb;
+    }
+}
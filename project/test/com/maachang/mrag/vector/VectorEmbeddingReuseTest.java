@@ -0,0 +1,199 @@
+package com.maachang.mrag.vector;
+
+import java.io.*;
+import java.net.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.*;
+
+import com.maachang.mrag.*;
+
+/**
+ * 文書の再登録時の embedding の再利用の確認.
+ * llama.cpp の代わりにローカルのHTTPサーバで embedding を返却し、
+ * ベクトル変換されたテキスト数を数えます.
+ * 段落を１つだけ変更した文書を再登録した場合に、変更したチャンクのみ
+ * ベクトル変換されること、組み込みモデル名が保存されていない
+ * VectorGroup は adoptUnstampedEmbeddingModel または全件の再作成で
+ * 組み込みモデル名が保存されることを確認します.
+ * ant test で実行され、失敗した場合は AssertionError で終了します.
+ */
+public class VectorEmbeddingReuseTest {
+    // embedding の次元数.
+    private static final int DIMENSION = 8;
+
+    // チャンク単位の文字列長.
+    private static final int CHUNK_SIZE = 40;
+
+    // グループ名.
+    private static final String GROUP = "reuse";
+
+    // ベクトル変換されたテキスト数.
+    private static final AtomicInteger EMBEDDED = new AtomicInteger();
+
+    // 段落群(変更しても長さが変わらないように全て同じ長さ).
+    private static final String[] PARAGRAPHS = {
+        "一つ目の段落はベクトル検索の概要について説明します。",
+        "二つ目の段落はチャンクの分割方法について説明します。",
+        "三つ目の段落は埋め込みベクトルの作成について説明。",
+        "四つ目の段落は検索結果の並び替えについて説明します。",
+        "五つ目の段落は推論問い合わせの方法について説明です。",
+    };
+
+    public static void main(String[] args) throws Exception {
+        HttpServer server = HttpServer.create(
+            new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/v1/embeddings", VectorEmbeddingReuseTest::embeddings);
+        server.createContext("/v1/chat/completions", VectorEmbeddingReuseTest::chat);
+        server.start();
+        Path dir = Files.createTempDirectory("mrag-reuse");
+        try {
+            run(dir.toString(),
+                "http://127.0.0.1:" + server.getAddress().getPort());
+        } finally {
+            server.stop(0);
+            try(DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+                for(Path p : ds) {
+                    Files.deleteIfExists(p);
+                }
+            }
+            Files.deleteIfExists(dir);
+        }
+        System.out.println("VectorEmbeddingReuseTest: OK");
+    }
+
+    // 確認処理.
+    private static final void run(String path, String url) {
+        Config config = Config.getInstance();
+        config.chunkEmbeddingStore = true;
+        config.adoptUnstampedEmbeddingModel = false;
+        config.summaryCache = false;
+
+        // 新規登録は全てのチャンクをベクトル変換し、組み込みモデル名を保存.
+        final int chunks = put(path, url, "doc1", text(-1));
+        check(chunks >= PARAGRAPHS.length, "chunks: " + chunks);
+        checkModel(path, config.embeddingModel);
+
+        // 段落を１つ変更した場合は そのチャンクのみ.
+        check(put(path, url, "doc1", text(2)) == 1, "changed one paragraph");
+        check(put(path, url, "doc1", text(2)) == 0, "unchanged document");
+
+        // 組み込みモデル名が保存されていない VectorGroup.
+        final int others = put(path, url, "doc2", other(4));
+        check(others == chunks, "doc2 chunks: " + others);
+        unstamp(path);
+        // 指定がない場合は再利用しない.
+        check(put(path, url, "doc1", text(-1)) == chunks, "unstamped group");
+        checkModel(path, null);
+        // 指定した場合は現在の組み込みモデルのものとして再利用し、
+        // 組み込みモデル名を保存する.
+        config.adoptUnstampedEmbeddingModel = true;
+        check(put(path, url, "doc1", text(1)) == 1, "adopted group");
+        checkModel(path, config.embeddingModel);
+        config.adoptUnstampedEmbeddingModel = false;
+        check(put(path, url, "doc2", other(-1)) == 1, "stamped group");
+
+        // 文書が１つの VectorGroup は全件の再作成で組み込みモデル名を保存する.
+        VectorFile.removeTextFileToVectorGroup(path, GROUP, "doc2.txt");
+        unstamp(path);
+        check(put(path, url, "doc1", text(0)) == chunks, "rebuilt group");
+        checkModel(path, config.embeddingModel);
+        check(put(path, url, "doc1", text(-1)) == 1, "rebuilt group reuse");
+    }
+
+    // 文書を登録してベクトル変換されたテキスト数を取得.
+    private static final int put(String path, String url, String doc, String text) {
+        EMBEDDED.set(0);
+        VectorFile.putTextFileToVectorGroup(path, GROUP, doc + ".txt",
+            "https://example.com/" + doc,
+            text, CHUNK_SIZE, 0, url, url);
+        return EMBEDDED.get();
+    }
+
+    // 指定した段落のみ１文字変更した文書を作成.
+    private static final String text(int change) {
+        StringBuilder buf = new StringBuilder();
+        for(int i = 0; i < PARAGRAPHS.length; i ++) {
+            if(i == change) {
+                buf.append(PARAGRAPHS[i].replace("段落", "文節"));
+            } else {
+                buf.append(PARAGRAPHS[i]);
+            }
+            buf.append("\n");
+        }
+        return buf.toString();
+    }
+
+    // 別の文書(全ての段落が異なる)を作成.
+    private static final String other(int change) {
+        return text(change).replace("説明", "解説");
+    }
+
+    // 組み込みモデル名を保存していない VectorGroup ファイルに変更.
+    private static final void unstamp(String path) {
+        VectorGroup vg = VectorFile.loadVectorGroup(path, GROUP);
+        VectorFile.saveGroup(path, GROUP, vg.getChunked(), null);
+        checkModel(path, null);
+    }
+
+    // 保存された組み込みモデル名を確認.
+    private static final void checkModel(String path, String model) {
+        String m = VectorFile.loadVectorGroup(path, GROUP)
+            .getChunkTable().getEmbeddingModel();
+        check(model == null ? m == null : model.equals(m), "model: " + m);
+    }
+
+    // 条件を確認.
+    private static final void check(boolean ok, String message) {
+        if(!ok) {
+            throw new AssertionError(message);
+        }
+    }
+
+    // embedding の返却(テキストのハッシュから作成).
+    private static final void embeddings(HttpExchange ex) throws IOException {
+        Map<?, ?> req = (Map<?, ?>)Json.decode(read(ex));
+        Object input = req.get("input");
+        List<?> texts = input instanceof List ?
+            (List<?>)input : Arrays.asList(input);
+        List<Object> data = new ArrayList<Object>();
+        for(int i = 0; i < texts.size(); i ++) {
+            EMBEDDED.incrementAndGet();
+            Random r = new Random(texts.get(i).hashCode());
+            List<Object> emb = new ArrayList<Object>();
+            for(int j = 0; j < DIMENSION; j ++) {
+                emb.add(r.nextFloat() - 0.5f);
+            }
+            data.add(Conv.newMap("index", i, "embedding", emb));
+        }
+        write(ex, Conv.newMap("data", data));
+    }
+
+    // サマリーの返却.
+    private static final void chat(HttpExchange ex) throws IOException {
+        read(ex);
+        write(ex, Conv.newMap("choices", Conv.newList(Conv.newMap(
+            "index", 0, "message", Conv.newMap(
+                "role", "assistant", "content", "概要です。")))));
+    }
+
+    // リクエストの読み込み.
+    private static final String read(HttpExchange ex) throws IOException {
+        try(InputStream in = ex.getRequestBody()) {
+            return new String(in.readAllBytes(), "UTF8");
+        }
+    }
+
+    // レスポンスの書き込み.
+    private static final void write(HttpExchange ex, Object json)
+        throws IOException {
+        byte[] b = Json.encode(json).getBytes("UTF8");
+        ex.getResponseHeaders().set("Content-Type", "application/json");
+        ex.sendResponseHeaders(200, b.length);
+        try(OutputStream out = ex.getResponseBody()) {
+            out.write(b);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.maachang.mrag.vector;
+
+import java.lang.management.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * VectorGroup の同時検索の確認.
+ * １つのVectorGroupに対して複数スレッドで同時に検索し、
+ * 結果が１スレッドで検索した結果と同じになることを確認します.
+ * また作業領域がスレッド毎に再利用され、ウォームアップ後の検索では
+ * 上位K件の VectorChunk 以外を生成しない(GCが発生しない)ことを確認します.
+ * GC回数は新しい領域の大きさに依存するため、-Xmn64m 以上で実行します.
+ */
+public class VectorGroupConcurrencyTest {
+    // 格納件数.
+    private static final int LENGTH = 20000;
+
+    // 次元数.
+    private static final int DIMENSION = 64;
+
+    // クラスタ数.
+    private static final int CLUSTERS = 16;
+
+    // 検索数.
+    private static final int QUERIES = 64;
+
+    // 上位件数.
+    private static final int K = 10;
+
+    // 同時検索スレッド数.
+    private static final int THREADS = 8;
+
+    // ウォームアップの検索回数.
+    private static final int WARMUP = 300;
+
+    // 計測する検索回数.
+    // 上位K件の VectorChunk のみで新しい領域(ant test では -Xmn64m)が
+    // 一杯にならない回数とします.
+    private static final int ROUNDS = 500;
+
+    // 1検索で許容する生成バイト数.
+    // 上位K件の VectorChunk と embedding の複製のみを想定します
+    // (全件分の得点を生成する場合は LENGTH x 4 バイト以上となります).
+    private static final long MAX_BYTES_PER_SEARCH =
+        K * (DIMENSION * 4L + 256L) + 1024L;
+
+    public static void main(String[] args) throws Exception {
+        final long seed = 7L;
+        final VectorGroup vg = VectorBenchmark.createSynthetic(
+            LENGTH, DIMENSION, CLUSTERS, seed);
+        final float[][] queries = VectorBenchmark.createSyntheticQueries(
+            QUERIES, DIMENSION, CLUSTERS, seed);
+        // １スレッドでの検索結果.
+        final int[][] expected = new int[QUERIES][];
+        VectorChunk[] out = new VectorChunk[K];
+        for(int i = 0; i < QUERIES; i ++) {
+            expected[i] = ids(out, vg.searchEmbedding(out, queries[i]));
+        }
+
+        final com.sun.management.ThreadMXBean mx =
+            (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        final CyclicBarrier warm = new CyclicBarrier(THREADS + 1);
+        final CyclicBarrier done = new CyclicBarrier(THREADS + 1);
+        final long[] allocated = new long[THREADS];
+        final String[] errors = new String[THREADS];
+        Thread[] threads = new Thread[THREADS];
+        for(int t = 0; t < THREADS; t ++) {
+            final int no = t;
+            threads[t] = new Thread(() -> {
+                try {
+                    VectorChunk[] o = new VectorChunk[K];
+                    int q, n;
+                    for(n = 0; n < WARMUP; n ++) {
+                        q = (n + no) % QUERIES;
+                        check(expected[q], ids(o, vg.searchEmbedding(o, queries[q])));
+                    }
+                    warm.await();
+                    long before = mx.getCurrentThreadAllocatedBytes();
+                    for(n = 0; n < ROUNDS; n ++) {
+                        q = (n * 7 + no) % QUERIES;
+                        if(vg.searchEmbedding(o, queries[q]) != K ||
+                            o[0].indexNo != 0) {
+                            throw new AssertionError("unexpected result");
+                        }
+                    }
+                    allocated[no] = mx.getCurrentThreadAllocatedBytes() - before;
+                    // 計測後に結果を確認.
+                    for(n = 0; n < QUERIES; n ++) {
+                        check(expected[n], ids(o, vg.searchEmbedding(o, queries[n])));
+                    }
+                } catch(Throwable e) {
+                    errors[no] = e.toString();
+                } finally {
+                    try { done.await(); } catch(Exception e) {}
+                }
+            });
+            threads[t].start();
+        }
+        // 計測前に新しい領域を空にする.
+        System.gc();
+        long gcBefore = gcCount();
+        warm.await();
+        done.await();
+        long gcs = gcCount() - gcBefore;
+        for(int t = 0; t < THREADS; t ++) {
+            if(errors[t] != null) {
+                throw new AssertionError("thread " + t + ": " + errors[t]);
+            }
+        }
+        long maxPerSearch = 0L;
+        for(int t = 0; t < THREADS; t ++) {
+            maxPerSearch = Math.max(maxPerSearch, allocated[t] / ROUNDS);
+        }
+        if(maxPerSearch > MAX_BYTES_PER_SEARCH) {
+            throw new AssertionError("search allocates " + maxPerSearch +
+                " bytes per call (limit " + MAX_BYTES_PER_SEARCH + ")");
+        }
+        if(gcs != 0L) {
+            throw new AssertionError(gcs + " GC(s) during steady-state search");
+        }
+
+        // 複数のVectorGroupの同時検索でも同じ結果となることを確認.
+        List<VectorGroup> vgs = Arrays.asList(vg,
+            VectorBenchmark.createSynthetic(LENGTH / 4, DIMENSION, CLUSTERS, seed + 1));
+        for(int i = 0; i < QUERIES; i ++) {
+            VectorChunk[] r = VectorFile.searchEmbedding(vgs, K,
+                new float[][] { queries[i] });
+            VectorChunk[] s = new VectorChunk[K];
+            vgs.get(1).searchEmbedding(s, queries[i]);
+            checkMerged(vg, expected[i], s, r);
+        }
+        System.out.println("VectorGroupConcurrencyTest: OK " + maxPerSearch +
+            " bytes/search, " + gcs + " GC");
+    }
+
+    // 検索結果の項番群を取得.
+    // VectorChunk は VectorBenchmark.createSynthetic で "chunk" + 項番 のテキストとなります.
+    private static final int[] ids(VectorChunk[] out, int len) {
+        int[] ret = new int[len];
+        for(int i = 0; i < len; i ++) {
+            ret[i] = Integer.parseInt(out[i].text.substring(5));
+        }
+        return ret;
+    }
+
+    // 検索結果が一致するか確認.
+    private static final void check(int[] expected, int[] actual) {
+        if(!Arrays.equals(expected, actual)) {
+            throw new AssertionError("result differs: " +
+                Arrays.toString(expected) + " != " + Arrays.toString(actual));
+        }
+    }
+
+    // 複数のVectorGroupの検索結果が各VectorGroupの結果をまとめたものか確認.
+    private static final void checkMerged(VectorGroup vg, int[] first,
+        VectorChunk[] second, VectorChunk[] merged) {
+        int a = 0, b = 0;
+        for(VectorChunk c : merged) {
+            int id = Integer.parseInt(c.text.substring(5));
+            if(c.group == vg.getGroup() && a < first.length && first[a] == id &&
+                (b >= second.length || second[b] == null ||
+                    c.score >= second[b].score)) {
+                a ++;
+            } else if(b < second.length && second[b] != null &&
+                second[b].text.equals(c.text)) {
+                b ++;
+            } else {
+                throw new AssertionError("merged result is out of order");
+            }
+        }
+    }
+
+    // GC回数の合計を取得.
+    private static final long gcCount() {
+        long ret = 0L;
+        for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            ret += Math.max(0L, gc.getCollectionCount());
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,90 @@
+package com.maachang.mrag.vector;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * VectorHnsw の確認.
+ * クラスタ状の乱数のembedding群で、HNSWグラフの近似検索の上位10件が
+ * 全件検索の上位10件をどれだけ含むか(recall@10)を確認します.
+ * 保存してロードしたグラフでも同じ recall となることを確認します.
+ */
+public class VectorHnswTest {
+    // 格納件数.
+    private static final int LENGTH = 5000;
+
+    // 次元数.
+    private static final int DIMENSION = 64;
+
+    // クラスタ数.
+    private static final int CLUSTERS = 20;
+
+    // 検索数.
+    private static final int QUERIES = 100;
+
+    // 上位件数.
+    private static final int K = 10;
+
+    // HNSWパラメータ.
+    private static final int M = 16;
+    private static final int EF_CONSTRUCTION = 200;
+    private static final int EF_SEARCH = 100;
+
+    // recall@10 の下限.
+    private static final double MIN_RECALL = 0.9d;
+
+    public static void main(String[] args) throws Exception {
+        final long seed = 1L;
+        VectorGroup vg = VectorBenchmark.createSynthetic(
+            LENGTH, DIMENSION, CLUSTERS, seed);
+        float[][] queries = VectorBenchmark.createSyntheticQueries(
+            QUERIES, DIMENSION, CLUSTERS, seed);
+        VectorMatrix matrix = vg.getChunkTable().getMatrix();
+        VectorHnsw hnsw = VectorHnsw.build(matrix, M, EF_CONSTRUCTION);
+        double recall = recall(matrix, hnsw, queries);
+        if(recall < MIN_RECALL) {
+            throw new AssertionError("HNSW recall@" + K + " = " + recall +
+                " < " + MIN_RECALL);
+        }
+        // 保存してロードしたグラフ.
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        hnsw.save(out, 123L);
+        VectorHnsw loaded = VectorHnsw.load(out.toByteArray(), matrix,
+            123L, M, EF_CONSTRUCTION);
+        if(loaded == null) {
+            throw new AssertionError("saved HNSW graph could not be loaded");
+        }
+        double loadedRecall = recall(matrix, loaded, queries);
+        if(loadedRecall != recall) {
+            throw new AssertionError("loaded HNSW recall differs: " +
+                loadedRecall + " != " + recall);
+        }
+        System.out.println("VectorHnswTest: OK recall@" + K + "=" + recall);
+    }
+
+    // 全件検索に対する recall@K を計算.
+    private static final double recall(VectorMatrix matrix, VectorHnsw hnsw,
+        float[][] queries) {
+        int hit = 0, i, j;
+        float[] q;
+        double qn;
+        Set<Integer> exact = new HashSet<Integer>();
+        for(float[] query : queries) {
+            q = matrix.query(query);
+            qn = matrix.queryNorm(q);
+            VectorTopK t = new VectorTopK(K);
+            matrix.scan(q, qn, 0, matrix.size(), t);
+            exact.clear();
+            for(i = 0; i < t.size(); i ++) {
+                exact.add(t.getId(i));
+            }
+            VectorTopK a = hnsw.search(q, qn, K, EF_SEARCH);
+            for(j = 0; j < a.size(); j ++) {
+                if(exact.contains(a.getId(j))) {
+                    hit ++;
+                }
+            }
+        }
+        return (double)hit / (queries.length * K);
+    }
+}
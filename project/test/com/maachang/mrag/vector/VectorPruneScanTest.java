@@ -0,0 +1,108 @@
+package com.maachang.mrag.vector;
+
+import java.util.*;
+
+/**
+ * VectorFloatMatrix の枝刈り検索の確認.
+ * 最低得点を指定した次元ブロック単位の枝刈り検索が、
+ * 全件の得点を計算する通常の検索と同じ上位K件(最低得点以上)を
+ * 返却することを確認します.
+ * ant test で実行され、失敗した場合は AssertionError で終了します.
+ */
+public class VectorPruneScanTest {
+    // 格納件数.
+    private static final int LENGTH = 3000;
+
+    // 検索数.
+    private static final int QUERIES = 20;
+
+    // 上位件数.
+    private static final int K = 10;
+
+    // 得点の許容誤差.
+    private static final double EPSILON = 1.0E-5d;
+
+    public static void main(String[] args) {
+        // 次元ブロックで割り切れない次元数も確認.
+        for(int dim : new int[] {7, 64, 385}) {
+            check(dim, false);
+            check(dim, true);
+        }
+        System.out.println("VectorPruneScanTest: OK");
+    }
+
+    // 枝刈り検索と通常の検索の結果が同じか確認.
+    private static final void check(int dim, boolean normalized) {
+        Random r = new Random(dim);
+        VectorMatrix matrix = VectorMatrix.create(LENGTH, dim, normalized);
+        for(int i = 0; i < LENGTH; i ++) {
+            matrix.set(i, random(r, dim, normalized));
+        }
+        // 奇数番目のみを対象とする項番のビット列.
+        long[] filter = new long[(LENGTH + 63) >>> 6];
+        for(int i = 1; i < LENGTH; i += 2) {
+            filter[i >>> 6] |= 1L << i;
+        }
+        float[] q;
+        double qn;
+        for(int n = 0; n < QUERIES; n ++) {
+            q = matrix.query(random(r, dim, normalized));
+            qn = matrix.queryNorm(q);
+            VectorTopK plain = new VectorTopK(K);
+            matrix.scan(q, qn, 0, LENGTH, plain);
+            plain.sort();
+            // 最低得点が全ての得点以下の場合は上位K件が一致.
+            compare(matrix, q, qn, null, plain, -1.0d, dim);
+            // 上位5件目の得点を最低得点とした場合は 5件目までが一致.
+            compare(matrix, q, qn, null, plain, plain.getScore(4), dim);
+
+            VectorTopK filtered = new VectorTopK(K);
+            matrix.scan(q, qn, filter, 0, LENGTH, filtered,
+                Double.NEGATIVE_INFINITY, VectorMatrix.NO_DEADLINE);
+            filtered.sort();
+            compare(matrix, q, qn, filter, filtered, -1.0d, dim);
+            compare(matrix, q, qn, filter, filtered, filtered.getScore(4), dim);
+        }
+    }
+
+    // 最低得点を指定した枝刈り検索の結果を通常の検索結果と比較.
+    private static final void compare(VectorMatrix matrix, float[] q, double qn,
+        long[] filter, VectorTopK expected, double minScore, int dim) {
+        VectorTopK pruned = new VectorTopK(K);
+        matrix.scan(q, qn, filter, 0, LENGTH, pruned, minScore,
+            VectorMatrix.NO_DEADLINE);
+        final int len = pruned.sort();
+        // 最低得点以上の件数.
+        int cnt = 0;
+        final int eLen = expected.size();
+        while(cnt < eLen && expected.getScore(cnt) >= minScore - EPSILON) {
+            cnt ++;
+        }
+        if(len < cnt) {
+            throw new AssertionError("pruned scan lost results: dim=" + dim +
+                " minScore=" + minScore + " expected=" + cnt + " actual=" + len);
+        }
+        for(int i = 0; i < cnt; i ++) {
+            // 誤差の範囲で同点の場合は順位の入れ替わりを許容.
+            if(expected.getId(i) != pruned.getId(i) &&
+                Math.abs(expected.getScore(i) - pruned.getScore(i)) > EPSILON) {
+                throw new AssertionError("pruned scan differs: dim=" + dim +
+                    " minScore=" + minScore + " rank=" + i +
+                    " plain=" + expected.getId(i) + "/" + expected.getScore(i) +
+                    " pruned=" + pruned.getId(i) + "/" + pruned.getScore(i));
+            }
+        }
+    }
+
+    // 乱数のベクトルを生成.
+    private static final float[] random(Random r, int dim, boolean normalized) {
+        float[] ret = new float[dim];
+        for(int i = 0; i < dim; i ++) {
+            ret[i] = (float)r.nextGaussian();
+        }
+        if(normalized) {
+            VectorScore.getInstance().normalize(ret, ret);
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,93 @@
+package com.maachang.mrag.vector;
+
+import java.util.*;
+
+/**
+ * VectorSimdScore の確認.
+ * 乱数のベクトル群に対して SIMD 実装とスカラー実装(VectorScore)の
+ * 得点が一致し、上位K件の順位が同じになることを確認します.
+ * ant test で実行され、失敗した場合は AssertionError で終了します.
+ */
+public class VectorSimdScoreTest {
+    // 格納件数.
+    private static final int LENGTH = 2000;
+
+    // 検索数.
+    private static final int QUERIES = 20;
+
+    // 上位件数.
+    private static final int K = 10;
+
+    // 得点の許容誤差.
+    private static final double EPSILON = 1.0E-5d;
+
+    public static void main(String[] args) {
+        if(!VectorScore.isSimd()) {
+            throw new AssertionError(
+                "SIMD implementation is not available (--add-modules jdk.incubator.vector)");
+        }
+        VectorScore scalar = new VectorScore();
+        VectorScore simd = new VectorSimdScore();
+        // SIMDのレーン数で割り切れない次元数も確認.
+        for(int dim : new int[] {7, 64, 384, 1027}) {
+            checkRanking(scalar, simd, dim, false);
+            checkRanking(scalar, simd, dim, true);
+        }
+        System.out.println("VectorSimdScoreTest: OK");
+    }
+
+    // 乱数のベクトル群で上位K件の順位が同じか確認.
+    private static final void checkRanking(VectorScore scalar, VectorScore simd,
+        int dim, boolean normalized) {
+        Random r = new Random(dim);
+        float[][] docs = new float[LENGTH][];
+        for(int i = 0; i < LENGTH; i ++) {
+            docs[i] = random(r, dim, normalized);
+        }
+        float[] q;
+        double a, b;
+        for(int n = 0; n < QUERIES; n ++) {
+            q = random(r, dim, normalized);
+            VectorTopK ta = new VectorTopK(K);
+            VectorTopK tb = new VectorTopK(K);
+            for(int i = 0; i < LENGTH; i ++) {
+                if(normalized) {
+                    a = scalar.dot(q, docs[i]);
+                    b = simd.dot(q, docs[i]);
+                } else {
+                    a = scalar.cosine(q, docs[i]);
+                    b = simd.cosine(q, docs[i]);
+                }
+                if(Math.abs(a - b) > EPSILON) {
+                    throw new AssertionError("score differs: dim=" + dim +
+                        " id=" + i + " scalar=" + a + " simd=" + b);
+                }
+                ta.add(i, a);
+                tb.add(i, b);
+            }
+            final int len = ta.sort();
+            tb.sort();
+            for(int i = 0; i < len; i ++) {
+                // 誤差の範囲で同点の場合は順位の入れ替わりを許容.
+                if(ta.getId(i) != tb.getId(i) &&
+                    Math.abs(ta.getScore(i) - tb.getScore(i)) > EPSILON) {
+                    throw new AssertionError("ranking differs: dim=" + dim +
+                        " rank=" + i + " scalar=" + ta.getId(i) +
+                        " simd=" + tb.getId(i));
+                }
+            }
+        }
+    }
+
+    // 乱数のベクトルを生成.
+    private static final float[] random(Random r, int dim, boolean normalized) {
+        float[] ret = new float[dim];
+        for(int i = 0; i < dim; i ++) {
+            ret[i] = (float)r.nextGaussian();
+        }
+        if(normalized) {
+            VectorScore.getInstance().normalize(ret, ret);
+        }
+        return ret;
+    }
+}